@@ -0,0 +1,182 @@
+package com.example.timecapsule.config;
+
+import com.example.timecapsule.model.CapsuleNotification;
+import com.example.timecapsule.model.TimeCapsule;
+import com.example.timecapsule.model.User;
+import jakarta.annotation.PostConstruct;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates the declared index set at startup (auto index creation is off in Spring Boot) and
+ * explains the hot queries, so a missing index shows up at deploy time rather than as a
+ * collection scan on every scheduler tick.
+ */
+@Component
+public class MongoIndexVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(MongoIndexVerifier.class);
+
+    public enum Mode {
+        OFF,
+        WARN,
+        FAIL
+    }
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${capsule.mongo.index-check:WARN}")
+    private Mode mode = Mode.WARN;
+
+    public MongoIndexVerifier(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @PostConstruct
+    public void verify() {
+        if (mode == Mode.OFF) {
+            return;
+        }
+
+        List<String> problems = new ArrayList<>();
+        obsoleteIndexes().forEach((entity, names) -> dropObsoleteIndexes(entity, names, problems));
+        for (Class<?> entity : List.of(TimeCapsule.class, User.class, CapsuleNotification.class)) {
+            ensureDeclaredIndexes(entity, problems);
+        }
+        for (IndexDefinition index : additionalIndexes()) {
+            ensureIndex(TimeCapsule.class, index, problems);
+        }
+        for (HotQuery query : hotQueries()) {
+            checkPlan(query, problems);
+        }
+
+        if (problems.isEmpty()) {
+            logger.info("Mongo index set verified.");
+            return;
+        }
+        problems.forEach(problem -> logger.warn("Mongo index check: {}", problem));
+        if (mode == Mode.FAIL) {
+            throw new IllegalStateException("Mongo index verification failed: " + String.join("; ", problems));
+        }
+    }
+
+    /** Indexes that annotations cannot express. */
+    static List<IndexDefinition> additionalIndexes() {
+        // Only LOCKED capsules are ever due; unlocked ones stay out of the index entirely
+        return List.of(new Index()
+                .on("unlockDate", Sort.Direction.ASC)
+                .named("locked_unlockDate")
+                .partial(PartialIndexFilter.of(Criteria.where("status").is(TimeCapsule.CapsuleStatus.LOCKED.name()))));
+    }
+
+    /** Indexes replaced by newer definitions; left in place they would reject valid writes. */
+    static Map<Class<?>, List<String>> obsoleteIndexes() {
+        // The outbox was unique per capsule before capsules could have several recipients
+        return Map.of(CapsuleNotification.class, List.of("capsuleId"));
+    }
+
+    /** Queries that run on every scheduler tick or public request and must never scan a collection. */
+    static List<HotQuery> hotQueries() {
+        Date now = Date.from(Instant.now());
+        return List.of(
+                new HotQuery(TimeCapsule.class, "due capsules",
+                        new Document("status", TimeCapsule.CapsuleStatus.LOCKED.name())
+                                .append("unlockDate", new Document("$lte", now))),
+                new HotQuery(TimeCapsule.class, "public access token",
+                        new Document("publicAccessToken", "verify")),
+                new HotQuery(TimeCapsule.class, "recipient access token",
+                        new Document("recipients.accessToken", "verify")),
+                new HotQuery(TimeCapsule.class, "owner capsules",
+                        new Document("ownerUsername", "verify")),
+                new HotQuery(User.class, "username",
+                        new Document("username", "verify")),
+                new HotQuery(User.class, "email",
+                        new Document("email", "verify")),
+                new HotQuery(CapsuleNotification.class, "due notifications",
+                        new Document("status", CapsuleNotification.NotificationStatus.PENDING.name())
+                                .append("nextAttemptAt", new Document("$lte", now))),
+                new HotQuery(CapsuleNotification.class, "recipient digest",
+                        new Document("recipientEmail", "verify")
+                                .append("status", CapsuleNotification.NotificationStatus.PENDING.name())
+                                .append("nextAttemptAt", new Document("$lte", now))));
+    }
+
+    private void ensureDeclaredIndexes(Class<?> entity, List<String> problems) {
+        IndexResolver resolver = IndexResolver.create(mongoTemplate.getConverter().getMappingContext());
+        for (IndexDefinition index : resolver.resolveIndexFor(entity)) {
+            ensureIndex(entity, index, problems);
+        }
+    }
+
+    private void dropObsoleteIndexes(Class<?> entity, List<String> names, List<String> problems) {
+        IndexOperations indexOps = mongoTemplate.indexOps(entity);
+        try {
+            for (IndexInfo info : indexOps.getIndexInfo()) {
+                if (names.contains(info.getName())) {
+                    indexOps.dropIndex(info.getName());
+                    logger.info("Dropped obsolete index {} on {}.", info.getName(), mongoTemplate.getCollectionName(entity));
+                }
+            }
+        } catch (Exception e) {
+            problems.add("could not drop obsolete indexes " + names + " on "
+                    + mongoTemplate.getCollectionName(entity) + ": " + e.getMessage());
+        }
+    }
+
+    private void ensureIndex(Class<?> entity, IndexDefinition index, List<String> problems) {
+        IndexOperations indexOps = mongoTemplate.indexOps(entity);
+        try {
+            indexOps.ensureIndex(index);
+        } catch (Exception e) {
+            problems.add("could not create index " + index.getIndexKeys().toJson() + " on "
+                    + mongoTemplate.getCollectionName(entity) + ": " + e.getMessage());
+        }
+    }
+
+    private void checkPlan(HotQuery query, List<String> problems) {
+        String collection = mongoTemplate.getCollectionName(query.entity());
+        try {
+            Document explain = mongoTemplate.getCollection(collection).find(query.filter()).explain();
+            Object winningPlan = explain.get("queryPlanner", Document.class).get("winningPlan");
+            if (containsStage(winningPlan, "COLLSCAN")) {
+                problems.add("query '" + query.name() + "' on " + collection + " uses COLLSCAN");
+            }
+        } catch (Exception e) {
+            logger.debug("Could not explain query '{}' on {}: {}", query.name(), collection, e.getMessage());
+        }
+    }
+
+    static boolean containsStage(Object plan, String stage) {
+        if (plan instanceof Document document) {
+            if (stage.equals(document.get("stage"))) {
+                return true;
+            }
+            return document.values().stream().anyMatch(value -> containsStage(value, stage));
+        }
+        if (plan instanceof List<?> list) {
+            return list.stream().anyMatch(value -> containsStage(value, stage));
+        }
+        return false;
+    }
+
+    record HotQuery(Class<?> entity, String name, Document filter) {
+    }
+}
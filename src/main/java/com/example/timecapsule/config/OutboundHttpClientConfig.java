@@ -0,0 +1,64 @@
+package com.example.timecapsule.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+/**
+ * Outbound HTTP client for Gemini: a shared {@code java.net.http} client that keeps connections
+ * alive and pools them, and speaks HTTP/2 where the server offers it, so a quote call pays for
+ * DNS, TCP and TLS only once per connection. The JDK reads its pool settings from system
+ * properties once, when its HTTP client first loads, so they are JVM startup flags and not Spring
+ * properties; application.properties lists them and {@code spring-boot:run} passes them.
+ */
+@Configuration
+public class OutboundHttpClientConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutboundHttpClientConfig.class);
+
+    static final String POOL_SIZE_PROPERTY = "jdk.httpclient.connectionPoolSize";
+    static final String KEEP_ALIVE_PROPERTY = "jdk.httpclient.keepalive.timeout";
+
+    @Bean
+    public HttpClient geminiHttpClient(@Value("${capsule.http.client.http2:true}") boolean http2,
+                                       @Value("${gemini.connect-timeout-ms:2000}") long connectTimeoutMs) {
+        logStartupFlag(POOL_SIZE_PROPERTY);
+        logStartupFlag(KEEP_ALIVE_PROPERTY);
+
+        return HttpClient.newBuilder()
+                .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    @Bean
+    public RestTemplate geminiRestTemplate(HttpClient geminiHttpClient,
+                                           @Value("${gemini.read-timeout-ms:5000}") long readTimeoutMs,
+                                           @Value("${capsule.http.client.max-per-route:8}") int maxPerRoute,
+                                           @Value("${capsule.http.client.acquire-timeout-ms:1000}") long acquireTimeoutMs,
+                                           MeterRegistry meterRegistry) {
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(geminiHttpClient);
+        requestFactory.setReadTimeout(Duration.ofMillis(readTimeoutMs));
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+        restTemplate.getInterceptors().add(
+                new RouteLimitingInterceptor(maxPerRoute, Duration.ofMillis(acquireTimeoutMs), meterRegistry));
+        return restTemplate;
+    }
+
+    private static void logStartupFlag(String property) {
+        if (System.getProperty(property) == null) {
+            logger.warn("{} is not set; the JDK default applies. Pass -D{}=... when starting the JVM.", property, property);
+        } else {
+            logger.info("Outbound HTTP client uses {}={}.", property, System.getProperty(property));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.timecapsule.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class PipelineExecutorConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelineExecutorConfig.class);
+
+    /**
+     * Executor the sender stage fans notifications out on. Virtual threads are used when enabled
+     * and the JVM provides them (Java 21+); otherwise a fixed pool of platform threads. Either way
+     * the calls into each downstream are bounded by DownstreamLimits.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService capsuleNotifyExecutor(@Value("${capsule.notify.concurrency:16}") int concurrency,
+                                                 @Value("${capsule.notify.virtual-threads:false}") boolean virtualThreads) {
+        return newExecutor("capsule-notify", concurrency, virtualThreads);
+    }
+
+    /**
+     * Executor the file parts of one upload are written on while the request thread keeps reading
+     * the body. How many parts are written at once is capped per request and overall by
+     * MultipartIngestService, not by this pool.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService capsuleStorageExecutor(@Value("${file.upload.parallel.threads:16}") int threads,
+                                                  @Value("${file.upload.parallel.virtual-threads:false}") boolean virtualThreads) {
+        return newExecutor("capsule-store", threads, virtualThreads);
+    }
+
+    private static ExecutorService newExecutor(String name, int threads, boolean virtualThreads) {
+        if (virtualThreads) {
+            try {
+                // Looked up reflectively because the project still compiles for Java 17
+                ExecutorService executor = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                logger.info("The {} executor runs on virtual threads.", name);
+                return executor;
+            } catch (ReflectiveOperationException e) {
+                logger.warn("Virtual threads are not available on this JVM, using {} platform threads for {}.", threads, name);
+            }
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
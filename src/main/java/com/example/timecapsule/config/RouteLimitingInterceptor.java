@@ -0,0 +1,134 @@
+package com.example.timecapsule.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caps concurrent requests per host (route) and records in-flight requests, slot utilization and
+ * the time spent waiting for a free slot, so a slow quote can be told apart from a busy pool.
+ * A request that gets no slot within the acquire timeout fails with an {@link IOException}. The
+ * slot is held until the response is closed, so a body still being read counts as in flight.
+ */
+public class RouteLimitingInterceptor implements ClientHttpRequestInterceptor {
+
+    private final int maxPerRoute;
+    private final Duration acquireTimeout;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+    public RouteLimitingInterceptor(int maxPerRoute, Duration acquireTimeout, MeterRegistry meterRegistry) {
+        this.maxPerRoute = maxPerRoute;
+        this.acquireTimeout = acquireTimeout;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        Route route = routes.computeIfAbsent(request.getURI().getHost(), this::newRoute);
+        long start = System.nanoTime();
+        try {
+            if (!route.permits().tryAcquire(acquireTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new IOException("No free connection slot to " + route.host() + " within " + acquireTimeout.toMillis() + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection slot to " + route.host());
+        } finally {
+            route.acquireTimer().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        ClientHttpResponse response;
+        try {
+            response = execution.execute(request, body);
+        } catch (IOException | RuntimeException e) {
+            route.permits().release();
+            throw e;
+        }
+        return new SlotReleasingResponse(response, route.permits());
+    }
+
+    int inFlight(String host) {
+        Route route = routes.get(host);
+        return route == null ? 0 : maxPerRoute - route.permits().availablePermits();
+    }
+
+    private Route newRoute(String host) {
+        Route route = new Route(host, new Semaphore(maxPerRoute, true),
+                Timer.builder("capsule.http.client.acquire").tag("host", host)
+                        .description("Time waited for a free connection slot to the host")
+                        .register(meterRegistry));
+        Gauge.builder("capsule.http.client.in-flight", route.permits(), p -> maxPerRoute - p.availablePermits())
+                .tag("host", host)
+                .description("Outbound requests in flight to the host")
+                .register(meterRegistry);
+        Gauge.builder("capsule.http.client.utilization", route.permits(), p -> (double) (maxPerRoute - p.availablePermits()) / maxPerRoute)
+                .tag("host", host)
+                .description("Share of the per-host connection slots in use")
+                .register(meterRegistry);
+        return route;
+    }
+
+    private record Route(String host, Semaphore permits, Timer acquireTimer) {
+    }
+
+    /** Gives the route slot back when the response is closed, exactly once. */
+    private static final class SlotReleasingResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse delegate;
+        private final Semaphore permits;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private SlotReleasingResponse(ClientHttpResponse delegate, Semaphore permits) {
+            this.delegate = delegate;
+            this.permits = permits;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void close() {
+            try {
+                delegate.close();
+            } finally {
+                if (released.compareAndSet(false, true)) {
+                    permits.release();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.timecapsule.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * One task scheduler per pipeline stage, so a slow email drain can no longer hold up unlocking.
+ * Jobs pick theirs with {@code @Scheduled(scheduler = ...)}.
+ */
+@Configuration
+public class SchedulingConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchedulingConfig.class);
+
+    public static final String UNLOCK_SCHEDULER = "unlockTaskScheduler";
+    public static final String BACKLOG_SCHEDULER = "backlogTaskScheduler";
+    public static final String NOTIFY_SCHEDULER = "notifyTaskScheduler";
+    public static final String QUOTE_SCHEDULER = "quoteTaskScheduler";
+    public static final String UPLOAD_SCHEDULER = "uploadTaskScheduler";
+
+    @Bean(name = UNLOCK_SCHEDULER)
+    public ThreadPoolTaskScheduler unlockTaskScheduler(@Value("${capsule.scheduling.unlock-pool-size:2}") int poolSize) {
+        return taskScheduler("capsule-unlock-", poolSize);
+    }
+
+    @Bean(name = BACKLOG_SCHEDULER)
+    public ThreadPoolTaskScheduler backlogTaskScheduler(@Value("${capsule.scheduling.backlog-pool-size:1}") int poolSize) {
+        return taskScheduler("capsule-backlog-", poolSize);
+    }
+
+    @Bean(name = NOTIFY_SCHEDULER)
+    public ThreadPoolTaskScheduler notifyTaskScheduler(@Value("${capsule.scheduling.notify-pool-size:1}") int poolSize) {
+        return taskScheduler("capsule-notify-drain-", poolSize);
+    }
+
+    @Bean(name = QUOTE_SCHEDULER)
+    public ThreadPoolTaskScheduler quoteTaskScheduler(@Value("${capsule.scheduling.quote-pool-size:1}") int poolSize) {
+        return taskScheduler("capsule-quote-prefetch-", poolSize);
+    }
+
+    @Bean(name = UPLOAD_SCHEDULER)
+    public ThreadPoolTaskScheduler uploadTaskScheduler(@Value("${capsule.scheduling.upload-pool-size:1}") int poolSize) {
+        return taskScheduler("capsule-upload-purge-", poolSize);
+    }
+
+    private ThreadPoolTaskScheduler taskScheduler(String threadNamePrefix, int poolSize) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(poolSize);
+        scheduler.setThreadNamePrefix(threadNamePrefix);
+        scheduler.setWaitForTasksToCompleteOnShutdown(true);
+        scheduler.setAwaitTerminationSeconds(30);
+        scheduler.setErrorHandler(e -> logger.error("Unhandled error in {} job: {}", threadNamePrefix, e.getMessage(), e));
+        return scheduler;
+    }
+}
@@ -1,13 +1,22 @@
 package com.example.timecapsule.controller;
 
+import com.example.timecapsule.model.CapsuleRecipient;
 import com.example.timecapsule.model.FileMetadata;
 import com.example.timecapsule.model.TimeCapsule;
+import com.example.timecapsule.payload.AttachByHashRequest;
+import com.example.timecapsule.payload.PublicCapsuleResponse;
 import com.example.timecapsule.repository.TimeCapsuleRepository;
+import com.example.timecapsule.scheduler.UnlockTimingWheel;
 import com.example.timecapsule.security.JwtUtils;
+import com.example.timecapsule.service.FileDownloadService;
 import com.example.timecapsule.service.FileStorageService;
+import com.example.timecapsule.service.MultipartIngestService;
 import io.swagger.v3.oas.annotations.Operation;
 import jakarta.servlet.http.HttpServletRequest;
-import org.springframework.core.io.FileSystemResource;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.Valid;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -19,10 +28,8 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.io.File;
@@ -30,29 +37,49 @@ import java.io.IOException;
 import java.time.*;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/capsules")
 public class CapsuleController {
 
+    private static final String NOT_EDITABLE = "Capsule can no longer be changed: it has been unlocked.";
+
     private final FileStorageService fileStorageService;
     private final TimeCapsuleRepository capsuleRepository;
     private final JwtUtils jwtUtils;
+    private final UnlockTimingWheel unlockTimingWheel;
+    private final MultipartIngestService multipartIngestService;
+    private final FileDownloadService fileDownloadService;
+
+    @Value("${capsule.cache.metadata-max-age-s:300}")
+    private long metadataMaxAgeSeconds = 300;
+
+    @Value("${capsule.cache.download-max-age-s:31536000}")
+    private long downloadMaxAgeSeconds = 31_536_000;
 
     public CapsuleController(FileStorageService fileStorageService,
                              TimeCapsuleRepository capsuleRepository,
-                             JwtUtils jwtUtils) {
+                             JwtUtils jwtUtils,
+                             UnlockTimingWheel unlockTimingWheel,
+                             MultipartIngestService multipartIngestService,
+                             FileDownloadService fileDownloadService) {
         this.fileStorageService = fileStorageService;
         this.capsuleRepository = capsuleRepository;
         this.jwtUtils = jwtUtils;
+        this.unlockTimingWheel = unlockTimingWheel;
+        this.multipartIngestService = multipartIngestService;
+        this.fileDownloadService = fileDownloadService;
     }
 
-    @PostMapping("/{capsuleId}/upload")
+    @PostMapping(value = "/{capsuleId}/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<?> uploadFiles(@PathVariable String capsuleId,
-                                         @RequestParam("files") MultipartFile[] files,
                                          HttpServletRequest request) {
 
         String username = jwtUtils.getUsernameFromRequest(request); // Corrected
@@ -64,40 +91,101 @@ public class CapsuleController {
         if (!capsule.getOwnerUsername().equals(username)) {
             return ResponseEntity.status(403).body("Unauthorized to upload to this capsule");
         }
+        if (capsule.getStatus() != TimeCapsule.CapsuleStatus.LOCKED) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(NOT_EDITABLE);
+        }
 
-        List<FileMetadata> metadataList = new ArrayList<>();
+        // The "files" parts are streamed into storage as they are read from the request
+        MultipartIngestService.MultipartUpload upload = null;
         try {
-            for (MultipartFile file : files) {
-                FileMetadata metadata = fileStorageService.storeFile(file);
-                metadataList.add(metadata);
-            }
-            if (capsule.getFileMetadataList() == null) {
-                capsule.setFileMetadataList(new ArrayList<>());
+            upload = multipartIngestService.ingest(username, request.getContentType(), request.getInputStream());
+            // $push only the new entries; the capsule may have started unlocking in the meantime
+            if (!capsuleRepository.addFilesIfLocked(capsuleId, upload.files("files"))) {
+                multipartIngestService.discard(upload.allFiles());
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(NOT_EDITABLE);
             }
-            capsule.getFileMetadataList().addAll(metadataList);
-            capsuleRepository.save(capsule);
             return ResponseEntity.ok("Files uploaded successfully.");
+        } catch (ResponseStatusException e) {
+            return ResponseEntity.status(e.getStatusCode()).body(e.getReason());
         } catch (Exception e) {
+            if (upload != null) {
+                multipartIngestService.discard(upload.allFiles());
+            }
             return ResponseEntity.status(500).body("Upload failed: " + e.getMessage());
         }
     }
 
+    @Operation(
+            summary = "Attach a file by its SHA-256 without uploading it",
+            description = "Succeeds when the caller has uploaded the same bytes before; otherwise returns 404 " +
+                    "and the file has to be uploaded."
+    )
+    @PostMapping("/{capsuleId}/files/by-hash")
+    public ResponseEntity<?> attachByHash(@PathVariable String capsuleId,
+                                          @Valid @RequestBody AttachByHashRequest body,
+                                          HttpServletRequest request) {
+        String username = jwtUtils.getUsernameFromRequest(request);
+        Optional<TimeCapsule> optional = capsuleRepository.findById(capsuleId);
+
+        if (optional.isEmpty()) return ResponseEntity.notFound().build();
+
+        TimeCapsule capsule = optional.get();
+        if (!capsule.getOwnerUsername().equals(username)) {
+            return ResponseEntity.status(403).body("Unauthorized to upload to this capsule");
+        }
+        if (capsule.getStatus() != TimeCapsule.CapsuleStatus.LOCKED) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(NOT_EDITABLE);
+        }
+
+        try {
+            Optional<FileMetadata> metadata = fileStorageService.referenceExisting(
+                    body.sha256().toLowerCase(Locale.ROOT), username, body.fileName(), body.contentType());
+            if (metadata.isEmpty()) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Content not held; upload the file.");
+            }
+            if (!capsuleRepository.addFilesIfLocked(capsuleId, List.of(metadata.get()))) {
+                fileStorageService.deleteFile(metadata.get().getFileName()); // give the reference back
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(NOT_EDITABLE);
+            }
+            return ResponseEntity.status(HttpStatus.CREATED).body(metadata.get());
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Attach failed: " + e.getMessage());
+        }
+    }
+
     @Operation(
             summary = "Create a new time capsule",
             description = "Creates a new time capsule with associated files, recipient, and unlock date. " +
+                    "Multipart parts: recipientEmail, unlockDate, optional title and topic, and one or more files. " +
                     "Unlock date can be provided as 'YYYY-MM-DD' (defaults to end of day UTC) " +
                     "or 'YYYY-MM-DDTHH:mm:ss' (defaults to UTC timezone)."
     )
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<?> createCapsule(
-            @RequestPart("recipientEmail") String recipientEmail,
-            @RequestPart("unlockDate") String unlockDateStr,
-            @RequestPart(value = "title", required = false) String title,
-            @RequestPart(value = "topic", required = false) String topic,
-            @RequestPart("files") List<MultipartFile> files,
-            HttpServletRequest request) {
+    public ResponseEntity<?> createCapsule(HttpServletRequest request) {
 
         String username = jwtUtils.getUsernameFromRequest(request);
+
+        // Files are streamed into storage while the body is read; the fields are checked after,
+        // since they may come after the files, and a rejected request has its files deleted again
+        MultipartIngestService.MultipartUpload upload;
+        try {
+            upload = multipartIngestService.ingest(username, request.getContentType(), request.getInputStream());
+        } catch (ResponseStatusException e) {
+            return ResponseEntity.status(e.getStatusCode()).body(e.getReason());
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Error saving files: " + e.getMessage());
+        }
+
+        String recipientEmail = upload.field("recipientEmail");
+        String unlockDateStr = upload.field("unlockDate");
+        String title = upload.field("title");
+        String topic = upload.field("topic");
+        if (recipientEmail == null || unlockDateStr == null) {
+            multipartIngestService.discard(upload.allFiles());
+            return ResponseEntity.badRequest().body("The recipientEmail and unlockDate parts are required.");
+        }
+
         Instant unlockDate;
         ZoneId istZone = ZoneId.of("Asia/Kolkata");
 
@@ -113,27 +201,21 @@ public class CapsuleController {
                 unlockDate = endOfDay.atZone(istZone).toInstant();
             }
         } catch (DateTimeParseException e) {
+            multipartIngestService.discard(upload.allFiles());
             return ResponseEntity.badRequest().body("Invalid unlockDate format. Please use 'YYYY-MM-DD' or 'YYYY-MM-DDTHH:mm:ss'.");
         }
 
-        List<FileMetadata> metadataList = new ArrayList<>();
-        for (MultipartFile file : files) {
-            if (!file.isEmpty()) {
-                try {
-                    FileMetadata metadata = fileStorageService.storeFile(file);
-                    metadataList.add(metadata);
-                } catch (IOException e) {
-                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                            .body("Error saving file: " + file.getOriginalFilename());
-                }
-            }
-        }
-
         TimeCapsule capsule = new TimeCapsule();
         capsule.setOwnerUsername(username);
-        capsule.setRecipientEmail(recipientEmail);
+        try {
+            applyRecipients(capsule, recipientEmail);
+        } catch (ResponseStatusException e) {
+            multipartIngestService.discard(upload.allFiles());
+            throw e;
+        }
+
         capsule.setUnlockDate(unlockDate);
-        capsule.setFileMetadataList(metadataList);
+        capsule.setFileMetadataList(new ArrayList<>(upload.files("files")));
         capsule.setStatus(TimeCapsule.CapsuleStatus.LOCKED);
         if (title != null && !title.isEmpty()) {
             capsule.setTitle(title);
@@ -143,6 +225,7 @@ public class CapsuleController {
         }
 
         capsuleRepository.save(capsule);
+        unlockTimingWheel.track(capsule.getId(), capsule.getUnlockDate());
 
         return ResponseEntity.status(HttpStatus.CREATED).body("Time capsule created successfully.");
     }
@@ -165,11 +248,19 @@ public class CapsuleController {
         if (!capsule.getOwnerUsername().equals(username)) {
             return ResponseEntity.status(403).body("Access denied: You are not the owner of this capsule.");
         }
+        if (capsule.getStatus() != TimeCapsule.CapsuleStatus.LOCKED) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(NOT_EDITABLE);
+        }
 
+        // Only the edited fields are written, so status, claim and token fields set by the
+        // unlock pipeline are never overwritten with what this request read
+        Map<String, Object> changes = new LinkedHashMap<>();
         updates.forEach((key, value) -> {
             switch (key) {
                 case "recipientEmail":
-                    capsule.setRecipientEmail(value);
+                    applyRecipients(capsule, value);
+                    changes.put("recipientEmail", capsule.getRecipientEmail());
+                    changes.put("recipients", capsule.getRecipients());
                     break;
                 case "unlockDate":
                     try {
@@ -184,14 +275,21 @@ public class CapsuleController {
                     } catch (DateTimeParseException e) {
                         throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid unlockDate format. Use 'YYYY-MM-DD' or 'YYYY-MM-DDTHH:mm:ss'.");
                     }
+                    changes.put("unlockDate", capsule.getUnlockDate());
                     break;
                 case "title":
                     capsule.setTitle(value);
+                    changes.put("title", value);
                     break;
             }
         });
 
-        capsuleRepository.save(capsule);
+        if (!changes.isEmpty() && !capsuleRepository.updateIfLocked(capsuleId, changes)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(NOT_EDITABLE);
+        }
+        if (updates.containsKey("unlockDate")) {
+            unlockTimingWheel.track(capsule.getId(), capsule.getUnlockDate());
+        }
         return ResponseEntity.ok("Capsule updated successfully.");
     }
 
@@ -212,12 +310,18 @@ public class CapsuleController {
         }
 
         try {
-            if (capsule.getFileMetadataList() != null) {
-                for (FileMetadata metadata : capsule.getFileMetadataList()) {
+            // The document is removed first and its files are released from what was removed, so
+            // a concurrent or retried DELETE, which finds nothing to remove, never releases twice
+            Optional<TimeCapsule> removed = capsuleRepository.removeOwned(capsuleId, username);
+            if (removed.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+            unlockTimingWheel.untrack(capsuleId);
+            if (removed.get().getFileMetadataList() != null) {
+                for (FileMetadata metadata : removed.get().getFileMetadataList()) {
                     fileStorageService.deleteFile(metadata.getFileName());
                 }
             }
-            capsuleRepository.delete(capsule);
             return ResponseEntity.ok("Capsule and its files deleted successfully.");
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to delete capsule or its files: " + e.getMessage());
@@ -240,6 +344,9 @@ public class CapsuleController {
         if (!capsule.getOwnerUsername().equals(username)) {
             return ResponseEntity.status(403).body("Access denied: You are not the owner of this capsule.");
         }
+        if (capsule.getStatus() != TimeCapsule.CapsuleStatus.LOCKED) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(NOT_EDITABLE);
+        }
 
         Optional<FileMetadata> fileToDelete = capsule.getFileMetadataList().stream()
                 .filter(fm -> fm.getFileName().equals(fileName))
@@ -250,9 +357,15 @@ public class CapsuleController {
         }
 
         try {
-            fileStorageService.deleteFile(fileName);
-            capsule.getFileMetadataList().removeIf(fm -> fm.getFileName().equals(fileName));
-            capsuleRepository.save(capsule);
+            // The entry is pulled first and only the request that removed it gives its storage
+            // reference back, so a retried or doubled DELETE never releases one entry twice
+            int removed = capsuleRepository.removeFilesIfLocked(capsuleId, fileName, fileToDelete.get().getOriginalName());
+            if (removed == 0) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body("File not found in this capsule.");
+            }
+            for (int i = 0; i < removed; i++) {
+                fileStorageService.deleteFile(fileName);
+            }
 
             return ResponseEntity.ok("File '" + fileToDelete.get().getOriginalName() + "' deleted successfully from capsule.");
         } catch (Exception e) {
@@ -261,17 +374,26 @@ public class CapsuleController {
     }
 
     @GetMapping("/public-view/{accessToken}")
-    public ResponseEntity<?> getPublicCapsuleMetadata(@PathVariable String accessToken) {
+    public ResponseEntity<?> getPublicCapsuleMetadata(@PathVariable String accessToken,
+                                                      HttpServletRequest request,
+                                                      HttpServletResponse response) {
         try {
-            TimeCapsule capsule = capsuleRepository.findByPublicAccessToken(accessToken)
+            TimeCapsule capsule = findByAccessToken(accessToken)
                     .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Invalid access token or capsule not found."));
 
-            if (capsule.getStatus() != TimeCapsule.CapsuleStatus.UNLOCKED) {
+            if (!capsule.isUnlocked()) {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN)
                         .body(Map.of("error", "Capsule is not unlocked yet.", "unlockDate", capsule.getUnlockDate()));
             }
 
-            return ResponseEntity.ok(capsule);
+            CacheControl cacheControl = CacheControl.maxAge(Duration.ofSeconds(metadataMaxAgeSeconds)).cachePublic();
+            if (notModified(capsule, cacheControl, request, response)) {
+                return null; // 304 has been sent
+            }
+            // Owner, recipient addresses, access tokens and claim state stay private
+            return ResponseEntity.ok()
+                    .cacheControl(cacheControl)
+                    .body(PublicCapsuleResponse.of(capsule));
 
         } catch (ResponseStatusException e) {
             return ResponseEntity.status(e.getStatusCode()).body(e.getReason());
@@ -280,15 +402,20 @@ public class CapsuleController {
         }
     }
 
+    @Operation(summary = "Download a file of an unlocked capsule",
+            description = "Supports Range and If-Range requests (206 Partial Content), so media can be seeked " +
+                    "and interrupted downloads resumed.")
     @GetMapping("/public-download/{accessToken}/{fileName}")
     public ResponseEntity<?> publicDownloadFile(
             @PathVariable String accessToken,
-            @PathVariable String fileName) {
+            @PathVariable String fileName,
+            HttpServletRequest request,
+            HttpServletResponse response) {
         try {
-            TimeCapsule capsule = capsuleRepository.findByPublicAccessToken(accessToken)
+            TimeCapsule capsule = findByAccessToken(accessToken)
                     .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Invalid access token or capsule not found."));
 
-            if (capsule.getStatus() != TimeCapsule.CapsuleStatus.UNLOCKED) {
+            if (!capsule.isUnlocked()) {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN)
                         .body(Map.of("error", "Capsule is not unlocked yet.", "unlockDate", capsule.getUnlockDate()));
             }
@@ -301,20 +428,30 @@ public class CapsuleController {
                 return ResponseEntity.notFound().build();
             }
 
-            File file = fileStorageService.loadFile(fileName);
-            if (!file.exists()) {
-                return ResponseEntity.notFound().build();
+            // Stored files never change, so unlocked content can be cached for good; a revalidation
+            // is answered before the file is even looked up. File entries only change while the
+            // capsule is locked, so nothing served here is newer than its unlock date. Only 200,
+            // 206 and 304 carry the caching header, so an error is never cached as the file
+            String etag = FileDownloadService.entityTag(fileMetadataOptional.get());
+            long lastModified = capsule.getUnlockDate().toEpochMilli();
+            String cacheControl = "public, max-age=" + downloadMaxAgeSeconds + ", immutable";
+            if (fileDownloadService.notModified(etag, lastModified, request, response)) {
+                response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+                return null; // 304 has been sent
             }
 
-            MediaType mediaType = MediaType.parseMediaType(fileMetadataOptional.get().getContentType());
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileMetadataOptional.get().getOriginalName() + "\"");
+            Optional<File> file = fileStorageService.findFile(fileName);
+            if (file.isEmpty()) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).cacheControl(CacheControl.noStore())
+                        .body("File is missing from storage.");
+            }
 
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .contentLength(file.length())
-                    .contentType(mediaType)
-                    .body(new FileSystemResource(file));
+            String contentType = fileMetadataOptional.get().getContentType();
+            MediaType mediaType = contentType == null ? MediaType.APPLICATION_OCTET_STREAM : MediaType.parseMediaType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileMetadataOptional.get().getOriginalName() + "\"");
+
+            fileDownloadService.serve(file.get(), mediaType.toString(), etag, lastModified, cacheControl, request, response);
+            return null; // the response has been written
 
         } catch (ResponseStatusException e) {
             return ResponseEntity.status(e.getStatusCode()).body(e.getReason());
@@ -334,7 +471,8 @@ public class CapsuleController {
 
     @GetMapping("/{capsuleId}")
     public ResponseEntity<?> getCapsuleById(@PathVariable String capsuleId,
-                                            HttpServletRequest request) {
+                                            HttpServletRequest request,
+                                            HttpServletResponse response) {
         String username = jwtUtils.getUsernameFromRequest(request); // Corrected
         Optional<TimeCapsule> optional = capsuleRepository.findById(capsuleId);
 
@@ -343,7 +481,7 @@ public class CapsuleController {
         TimeCapsule capsule = optional.get();
 
         boolean isOwner = capsule.getOwnerUsername().equals(username);
-        boolean isRecipient = capsule.getRecipientEmail().equalsIgnoreCase(username);
+        boolean isRecipient = capsule.hasRecipient(username);
 
         if (!isOwner && !isRecipient) {
             return ResponseEntity.status(403).body("Access denied: You are neither the owner nor the recipient.");
@@ -358,6 +496,74 @@ public class CapsuleController {
             ));
         }
 
-        return ResponseEntity.ok(capsule);
+        // Per-user view: browsers may keep it but must revalidate, which is cheap with the validators
+        CacheControl cacheControl = CacheControl.noCache().cachePrivate();
+        if (notModified(capsule, cacheControl, request, response)) {
+            return null; // 304 has been sent
+        }
+        return ResponseEntity.ok()
+                .cacheControl(cacheControl)
+                .body(capsule);
+    }
+
+    /**
+     * Answers If-None-Match and If-Modified-Since for a view of the capsule before its body is
+     * built. Every write moves the capsule's update time, so it serves as both the entity tag and
+     * Last-Modified; both headers are set on the response either way.
+     *
+     * @return true if a 304 has been sent
+     */
+    private boolean notModified(TimeCapsule capsule, CacheControl cacheControl,
+                                HttpServletRequest request, HttpServletResponse response) {
+        long lastModified = capsule.lastModified().toEpochMilli();
+        String etag = "\"" + Long.toHexString(lastModified) + "\"";
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)
+                && response.getStatus() == HttpStatus.NOT_MODIFIED.value()) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+            return true;
+        }
+        return false;
+    }
+
+    /** A public link is either the capsule's own token or one recipient's token. */
+    private Optional<TimeCapsule> findByAccessToken(String accessToken) {
+        return capsuleRepository.findByPublicAccessToken(accessToken)
+                .or(() -> capsuleRepository.findByRecipientsAccessToken(accessToken));
+    }
+
+    /**
+     * Accepts one address or a comma-separated list. With several addresses the capsule keeps one
+     * content set and gets a recipient entry (own token, own delivery state) per address. On an
+     * edit, addresses the capsule already had keep their entry, so links already handed out and
+     * delivery state survive; only new addresses get a new token.
+     */
+    private static void applyRecipients(TimeCapsule capsule, String recipientEmails) {
+        List<String> emails = Arrays.stream(recipientEmails.split("[,;\\s]+"))
+                .map(String::trim)
+                .filter(email -> !email.isEmpty())
+                .collect(Collectors.toMap(email -> email.toLowerCase(Locale.ROOT), email -> email,
+                        (first, again) -> first, LinkedHashMap::new))
+                .values().stream()
+                .toList();
+        if (emails.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At least one recipient email is required.");
+        }
+
+        Map<String, CapsuleRecipient> existing = new LinkedHashMap<>();
+        if (capsule.getRecipients() != null) {
+            capsule.getRecipients().forEach(r -> existing.putIfAbsent(r.getEmail().toLowerCase(Locale.ROOT), r));
+        }
+
+        capsule.setRecipientEmail(emails.get(0));
+        if (emails.size() == 1 && !existing.containsKey(emails.get(0).toLowerCase(Locale.ROOT))) {
+            capsule.setRecipients(null);
+            return;
+        }
+        List<CapsuleRecipient> recipients = new ArrayList<>();
+        for (String email : emails) {
+            CapsuleRecipient kept = existing.get(email.toLowerCase(Locale.ROOT));
+            recipients.add(kept != null ? kept : CapsuleRecipient.of(email));
+        }
+        capsule.setRecipients(recipients);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,128 @@
+package com.example.timecapsule.controller;
+
+import com.example.timecapsule.model.FileMetadata;
+import com.example.timecapsule.model.UploadSession;
+import com.example.timecapsule.payload.StartUploadRequest;
+import com.example.timecapsule.security.JwtUtils;
+import com.example.timecapsule.service.ChunkedUploadService;
+import io.swagger.v3.oas.annotations.Operation;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Resumable upload protocol for large capsule files: start a session, PUT the raw bytes in chunks
+ * at explicit offsets, then complete it. Every response carries the committed offset in the
+ * {@code Upload-Offset} header; after a failure the client reads it and continues from there.
+ */
+@RestController
+@RequestMapping("/api/uploads")
+public class UploadController {
+
+    static final String UPLOAD_OFFSET = "Upload-Offset";
+
+    private final ChunkedUploadService uploadService;
+    private final JwtUtils jwtUtils;
+
+    public UploadController(ChunkedUploadService uploadService, JwtUtils jwtUtils) {
+        this.uploadService = uploadService;
+        this.jwtUtils = jwtUtils;
+    }
+
+    @Operation(summary = "Start a resumable upload of one capsule file")
+    @PostMapping
+    public ResponseEntity<?> startUpload(@Valid @RequestBody StartUploadRequest body, HttpServletRequest request) {
+        String username = jwtUtils.getUsernameFromRequest(request);
+        UploadSession session = uploadService.start(body.capsuleId(), username, body.fileName(), body.contentType(), body.size());
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .header(UPLOAD_OFFSET, "0")
+                .body(sessionView(session));
+    }
+
+    @Operation(summary = "Get the committed offset of an upload, to resume it")
+    @GetMapping("/{sessionId}")
+    public ResponseEntity<?> getUpload(@PathVariable String sessionId, HttpServletRequest request) {
+        String username = jwtUtils.getUsernameFromRequest(request);
+        UploadSession session = uploadService.getSession(sessionId, username);
+        return ResponseEntity.ok()
+                .header(UPLOAD_OFFSET, String.valueOf(session.getCommittedOffset()))
+                .body(sessionView(session));
+    }
+
+    @Operation(summary = "Write one chunk of raw bytes at the committed offset")
+    @PutMapping(value = "/{sessionId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> putChunk(@PathVariable String sessionId,
+                                      @RequestParam("offset") long offset,
+                                      HttpServletRequest request) {
+        String username = jwtUtils.getUsernameFromRequest(request);
+        try {
+            // Read the body stream directly so the chunk is never buffered or spooled as a whole
+            long committed = uploadService.writeChunk(sessionId, username, offset, request.getContentLengthLong(),
+                    request.getInputStream());
+            return ResponseEntity.ok()
+                    .header(UPLOAD_OFFSET, String.valueOf(committed))
+                    .body(Map.of("offset", committed));
+        } catch (ResponseStatusException e) {
+            if (e.getStatusCode().value() != HttpStatus.CONFLICT.value()) {
+                throw e;
+            }
+            long committed = uploadService.getSession(sessionId, username).getCommittedOffset();
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .header(UPLOAD_OFFSET, String.valueOf(committed))
+                    .body(Map.of("offset", committed, "message", e.getReason()));
+        } catch (IOException e) {
+            long committed = uploadService.getSession(sessionId, username).getCommittedOffset();
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .header(UPLOAD_OFFSET, String.valueOf(committed))
+                    .body(Map.of("offset", committed, "message", "Chunk interrupted: " + e.getMessage()));
+        }
+    }
+
+    @Operation(summary = "Finish an upload and attach the file to its capsule")
+    @PostMapping("/{sessionId}/complete")
+    public ResponseEntity<?> completeUpload(@PathVariable String sessionId, HttpServletRequest request) {
+        String username = jwtUtils.getUsernameFromRequest(request);
+        try {
+            FileMetadata metadata = uploadService.complete(sessionId, username);
+            return ResponseEntity.ok(metadata);
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to complete upload: " + e.getMessage());
+        }
+    }
+
+    @DeleteMapping("/{sessionId}")
+    public ResponseEntity<?> abortUpload(@PathVariable String sessionId, HttpServletRequest request) {
+        String username = jwtUtils.getUsernameFromRequest(request);
+        try {
+            uploadService.abort(sessionId, username);
+            return ResponseEntity.ok("Upload aborted.");
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to abort upload: " + e.getMessage());
+        }
+    }
+
+    private static Map<String, Object> sessionView(UploadSession session) {
+        return Map.of(
+                "sessionId", session.getId(),
+                "capsuleId", session.getCapsuleId(),
+                "fileName", session.getOriginalName(),
+                "size", session.getTotalSize(),
+                "offset", session.getCommittedOffset(),
+                "status", session.getStatus());
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.timecapsule.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outbox record for an unlock notification. The unlock stage writes one per capsule recipient and
+ * the sender stage drains them, so each recipient's email is sent once no matter which node
+ * unlocked the capsule.
+ */
+@Document(collection = "capsule_notifications")
+@CompoundIndexes({
+        @CompoundIndex(name = "capsuleId_recipientEmail", def = "{ 'capsuleId': 1, 'recipientEmail': 1 }", unique = true),
+        @CompoundIndex(name = "status_nextAttemptAt", def = "{ 'status': 1, 'nextAttemptAt': 1 }"),
+        @CompoundIndex(name = "status_claimExpiresAt", def = "{ 'status': 1, 'claimExpiresAt': 1 }"),
+        @CompoundIndex(name = "recipientEmail_status_nextAttemptAt", def = "{ 'recipientEmail': 1, 'status': 1, 'nextAttemptAt': 1 }")
+})
+public class CapsuleNotification {
+
+    @Id
+    private String id;
+
+    private String capsuleId;
+
+    private String recipientEmail;
+    private String ownerUsername;
+    private String topic;
+    private String publicAccessToken;
+
+    private NotificationStatus status;
+    private int attempts;
+    private Instant nextAttemptAt;
+    private Instant deferredUntil; // set when nextAttemptAt was pushed back on purpose (smoothing, parking); never pulled forward
+    private String lastError;
+
+    private String claimedBy;
+    private Instant claimExpiresAt;
+
+    private Instant createdAt;
+    private Instant sentAt;
+    private Instant deadLetteredAt;
+
+    public enum NotificationStatus {
+        PENDING,
+        SENDING,
+        SENT,
+        DEAD_LETTER
+    }
+
+    public CapsuleNotification() {
+        this.createdAt = Instant.now();
+        this.nextAttemptAt = this.createdAt;
+        this.status = NotificationStatus.PENDING;
+    }
+
+    public static CapsuleNotification forCapsule(TimeCapsule capsule) {
+        return forRecipient(capsule, capsule.getRecipientEmail(), capsule.getPublicAccessToken());
+    }
+
+    /** Fan-out: one notification per recipient, each carrying that recipient's own access token. */
+    public static List<CapsuleNotification> forRecipients(TimeCapsule capsule) {
+        if (capsule.getRecipients() == null || capsule.getRecipients().isEmpty()) {
+            return List.of(forCapsule(capsule));
+        }
+        List<CapsuleNotification> notifications = new ArrayList<>();
+        for (CapsuleRecipient recipient : capsule.getRecipients()) {
+            if (recipient.getDeliveryStatus() != CapsuleRecipient.DeliveryStatus.NOTIFIED) {
+                notifications.add(forRecipient(capsule, recipient.getEmail(), recipient.getAccessToken()));
+            }
+        }
+        return notifications;
+    }
+
+    private static CapsuleNotification forRecipient(TimeCapsule capsule, String recipientEmail, String accessToken) {
+        CapsuleNotification notification = new CapsuleNotification();
+        notification.setCapsuleId(capsule.getId());
+        notification.setRecipientEmail(recipientEmail);
+        notification.setOwnerUsername(capsule.getOwnerUsername());
+        notification.setTopic(capsule.getTopic());
+        notification.setPublicAccessToken(accessToken);
+        return notification;
+    }
+
+    // Getters and setters
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getCapsuleId() {
+        return capsuleId;
+    }
+
+    public void setCapsuleId(String capsuleId) {
+        this.capsuleId = capsuleId;
+    }
+
+    public String getRecipientEmail() {
+        return recipientEmail;
+    }
+
+    public void setRecipientEmail(String recipientEmail) {
+        this.recipientEmail = recipientEmail;
+    }
+
+    public String getOwnerUsername() {
+        return ownerUsername;
+    }
+
+    public void setOwnerUsername(String ownerUsername) {
+        this.ownerUsername = ownerUsername;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public String getPublicAccessToken() {
+        return publicAccessToken;
+    }
+
+    public void setPublicAccessToken(String publicAccessToken) {
+        this.publicAccessToken = publicAccessToken;
+    }
+
+    public NotificationStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(NotificationStatus status) {
+        this.status = status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Instant getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public void setNextAttemptAt(Instant nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    public Instant getDeferredUntil() {
+        return deferredUntil;
+    }
+
+    public void setDeferredUntil(Instant deferredUntil) {
+        this.deferredUntil = deferredUntil;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public String getClaimedBy() {
+        return claimedBy;
+    }
+
+    public void setClaimedBy(String claimedBy) {
+        this.claimedBy = claimedBy;
+    }
+
+    public Instant getClaimExpiresAt() {
+        return claimExpiresAt;
+    }
+
+    public void setClaimExpiresAt(Instant claimExpiresAt) {
+        this.claimExpiresAt = claimExpiresAt;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getSentAt() {
+        return sentAt;
+    }
+
+    public void setSentAt(Instant sentAt) {
+        this.sentAt = sentAt;
+    }
+
+    public Instant getDeadLetteredAt() {
+        return deadLetteredAt;
+    }
+
+    public void setDeadLetteredAt(Instant deadLetteredAt) {
+        this.deadLetteredAt = deadLetteredAt;
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.timecapsule.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * One recipient of a multi-recipient capsule. All recipients share the capsule's files; each
+ * gets its own access link and delivery state.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CapsuleRecipient {
+    private String email;
+    private String accessToken;        // public link for this recipient only
+    private DeliveryStatus deliveryStatus;
+    private Instant notifiedAt;
+
+    public enum DeliveryStatus {
+        PENDING,
+        NOTIFIED
+    }
+
+    public static CapsuleRecipient of(String email) {
+        return new CapsuleRecipient(email, UUID.randomUUID().toString(), DeliveryStatus.PENDING, null);
+    }
+}
@@ -13,6 +13,7 @@ public class FileMetadata {
     private String ContentType;    // MIME type like image/png, video/mp4
     private long size;             // file size in bytes
     private String storagePath;    // path where file is stored (optional)
+    private String sha256;         // hex SHA-256 of the content, computed while it was stored
 
 
 
@@ -0,0 +1,51 @@
+package com.example.timecapsule.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.List;
+
+/** Second tier of the quote cache, so a restarted node does not start with a cold cache. */
+@Document(collection = "quote_cache")
+public class QuoteCacheEntry {
+
+    @Id
+    private String topic; // normalized topic
+
+    private List<String> quotes;
+    private Instant fetchedAt;
+
+    public QuoteCacheEntry() {
+    }
+
+    public QuoteCacheEntry(String topic, List<String> quotes, Instant fetchedAt) {
+        this.topic = topic;
+        this.quotes = quotes;
+        this.fetchedAt = fetchedAt;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public List<String> getQuotes() {
+        return quotes;
+    }
+
+    public void setQuotes(List<String> quotes) {
+        this.quotes = quotes;
+    }
+
+    public Instant getFetchedAt() {
+        return fetchedAt;
+    }
+
+    public void setFetchedAt(Instant fetchedAt) {
+        this.fetchedAt = fetchedAt;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.timecapsule.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/** Position a long-running scheduler job has reached, so a restart resumes instead of rescanning. */
+@Document(collection = "scheduler_checkpoints")
+public class SchedulerCheckpoint {
+
+    @Id
+    private String id; // job name
+
+    private Instant lastUnlockDate;
+    private String lastCapsuleId;
+    private Instant updatedAt;
+
+    public SchedulerCheckpoint() {
+    }
+
+    public SchedulerCheckpoint(String id, Instant lastUnlockDate, String lastCapsuleId) {
+        this.id = id;
+        this.lastUnlockDate = lastUnlockDate;
+        this.lastCapsuleId = lastCapsuleId;
+        this.updatedAt = Instant.now();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Instant getLastUnlockDate() {
+        return lastUnlockDate;
+    }
+
+    public void setLastUnlockDate(Instant lastUnlockDate) {
+        this.lastUnlockDate = lastUnlockDate;
+    }
+
+    public String getLastCapsuleId() {
+        return lastCapsuleId;
+    }
+
+    public void setLastCapsuleId(String lastCapsuleId) {
+        this.lastCapsuleId = lastCapsuleId;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.timecapsule.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.Set;
+
+/**
+ * A content-addressed file in the upload directory, stored once under its SHA-256 however many
+ * capsule files point at it. {@code refCount} is the number of FileMetadata entries naming it;
+ * the file is deleted when the last one goes.
+ */
+@Data
+@NoArgsConstructor
+@Document(collection = "blobs")
+public class StoredBlob {
+
+    @Id
+    private String id;                // hex SHA-256, also the stored filename
+
+    private long size;
+    private long refCount;
+    private Set<String> owners;       // users who uploaded these bytes and may attach them by hash
+    private String deleting;          // claim of the node deleting the unreferenced file; cleared by a new reference
+    private Instant createdAt;
+    private Instant updatedAt;
+}
@@ -1,21 +1,33 @@
 package com.example.timecapsule.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
 import java.util.List;
 
 @Document(collection = "timecapsules")
+@CompoundIndexes({
+        @CompoundIndex(name = "status_unlockDate", def = "{ 'status': 1, 'unlockDate': 1 }"),
+        @CompoundIndex(name = "status_claimExpiresAt", def = "{ 'status': 1, 'claimExpiresAt': 1 }"),
+        @CompoundIndex(name = "recipients_accessToken", def = "{ 'recipients.accessToken': 1 }", unique = true, sparse = true)
+})
 public class TimeCapsule {
 
     @Id
     private String id;
 
+    @Indexed
     private String ownerUsername;
 
     private String recipientEmail;
 
+    private List<CapsuleRecipient> recipients; // set for multi-recipient capsules, recipientEmail is the first
+
     private Instant unlockDate;
 
     private CapsuleStatus status;
@@ -23,15 +35,23 @@ public class TimeCapsule {
     private List<FileMetadata> fileMetadataList;
 
     private Instant createdAt;
+    private Instant updatedAt; // moved by every write, so it validates cached views of the capsule
 
+    @Indexed(unique = true, sparse = true)
     private String publicAccessToken; // New field 1
 
     private String title; // New field 2
     private String topic; // e.g. "friendship", "gratitude", etc.
 
+    private String claimedBy; // node currently unlocking/notifying this capsule
+    private Instant claimExpiresAt; // lease end, after which another node may reclaim it
+
+    // LOCKED -> UNLOCKING (claimed) -> UNLOCKED (visible, notification pending) -> NOTIFIED
     public enum CapsuleStatus {
         LOCKED,
-        UNLOCKED
+        UNLOCKING,
+        UNLOCKED,
+        NOTIFIED
     }
     public String getTopic() {
         return topic;
@@ -44,6 +64,7 @@ public class TimeCapsule {
 
     public TimeCapsule() {
         this.createdAt = Instant.now();
+        this.updatedAt = createdAt;
         this.status = CapsuleStatus.LOCKED;
     }
 
@@ -73,6 +94,22 @@ public class TimeCapsule {
         this.recipientEmail = recipientEmail;
     }
 
+    public List<CapsuleRecipient> getRecipients() {
+        return recipients;
+    }
+
+    public void setRecipients(List<CapsuleRecipient> recipients) {
+        this.recipients = recipients;
+    }
+
+    @JsonIgnore
+    public boolean hasRecipient(String email) {
+        if (recipientEmail != null && recipientEmail.equalsIgnoreCase(email)) {
+            return true;
+        }
+        return recipients != null && recipients.stream().anyMatch(r -> r.getEmail().equalsIgnoreCase(email));
+    }
+
     public Instant getUnlockDate() {
         return unlockDate;
     }
@@ -105,6 +142,20 @@ public class TimeCapsule {
         this.createdAt = createdAt;
     }
 
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    /** When the document last changed; capsules stored before updatedAt existed fall back to createdAt. */
+    @JsonIgnore
+    public Instant lastModified() {
+        return updatedAt != null ? updatedAt : createdAt;
+    }
+
     public String getPublicAccessToken() {
         return publicAccessToken;
     }
@@ -120,4 +171,25 @@ public class TimeCapsule {
     public void setTitle(String title) {
         this.title = title;
     }
+
+    public String getClaimedBy() {
+        return claimedBy;
+    }
+
+    public void setClaimedBy(String claimedBy) {
+        this.claimedBy = claimedBy;
+    }
+
+    public Instant getClaimExpiresAt() {
+        return claimExpiresAt;
+    }
+
+    public void setClaimExpiresAt(Instant claimExpiresAt) {
+        this.claimExpiresAt = claimExpiresAt;
+    }
+
+    @JsonIgnore
+    public boolean isUnlocked() {
+        return status == CapsuleStatus.UNLOCKED || status == CapsuleStatus.NOTIFIED;
+    }
 }
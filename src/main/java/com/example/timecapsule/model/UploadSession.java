@@ -0,0 +1,45 @@
+package com.example.timecapsule.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * A resumable upload of one capsule file. Chunks are written straight into {@code fileName} in the
+ * upload directory; {@code committedOffset} is how many bytes are durably on disk, so an
+ * interrupted upload resumes from there.
+ */
+@Data
+@NoArgsConstructor
+@Document(collection = "upload_sessions")
+public class UploadSession {
+
+    @Id
+    private String id;
+
+    private String capsuleId;
+    private String ownerUsername;
+    private String originalName;
+    private String contentType;
+    private long totalSize;
+    private String fileName;          // unique stored filename, as in FileMetadata
+    private String storedFileName;    // the name attached to the capsule (the digest if content-addressed), set before attaching
+    private long committedOffset;
+    private Status status;
+    private Instant createdAt;
+    private Instant updatedAt;
+
+    @Indexed(name = "expiresAt")
+    private Instant expiresAt;        // purge time: of an abandoned upload, a stuck completion or a finished session
+
+    // OPEN -> COMPLETING (one request attaching the file) -> COMPLETED (kept until expiresAt)
+    public enum Status {
+        OPEN,
+        COMPLETING,
+        COMPLETED
+    }
+}
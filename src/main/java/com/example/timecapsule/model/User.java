@@ -1,6 +1,7 @@
 package com.example.timecapsule.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
@@ -12,8 +13,12 @@ public class User {
     @Id
     private String id;
 
+    @Indexed(unique = true)
     private String username;
+
+    @Indexed(unique = true)
     private String email;
+
     private String passwordHash;
 
     private Set<String> roles;  // e.g. "USER", "ADMIN"
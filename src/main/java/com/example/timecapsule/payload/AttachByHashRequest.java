@@ -0,0 +1,16 @@
+package com.example.timecapsule.payload;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
+
+public record AttachByHashRequest(
+        @NotBlank(message = "SHA-256 is required")
+        @Pattern(regexp = "[0-9a-fA-F]{64}", message = "SHA-256 must be 64 hex digits")
+        String sha256,
+
+        @NotBlank(message = "File name is required")
+        String fileName,
+
+        String contentType
+) {
+}
@@ -0,0 +1,32 @@
+package com.example.timecapsule.payload;
+
+import com.example.timecapsule.model.FileMetadata;
+import com.example.timecapsule.model.TimeCapsule;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * What a public link shows of an unlocked capsule: its content, but none of the owner,
+ * recipient, token or claim fields of the stored document.
+ */
+public record PublicCapsuleResponse(
+        String title,
+        String topic,
+        Instant unlockDate,
+        Instant createdAt,
+        List<PublicFile> files
+) {
+
+    public record PublicFile(String fileName, String originalName, String contentType, long size) {
+    }
+
+    public static PublicCapsuleResponse of(TimeCapsule capsule) {
+        List<FileMetadata> metadata = capsule.getFileMetadataList() == null ? List.of() : capsule.getFileMetadataList();
+        List<PublicFile> files = metadata.stream()
+                .map(file -> new PublicFile(file.getFileName(), file.getOriginalName(), file.getContentType(), file.getSize()))
+                .toList();
+        return new PublicCapsuleResponse(capsule.getTitle(), capsule.getTopic(), capsule.getUnlockDate(),
+                capsule.getCreatedAt(), files);
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.timecapsule.payload;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Positive;
+
+public record StartUploadRequest(
+        @NotBlank(message = "Capsule id is required")
+        String capsuleId,
+
+        @NotBlank(message = "File name is required")
+        String fileName,
+
+        String contentType,
+
+        @Positive(message = "File size is required")
+        long size
+) {
+}
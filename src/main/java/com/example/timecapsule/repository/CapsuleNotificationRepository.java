@@ -0,0 +1,11 @@
+package com.example.timecapsule.repository;
+
+import com.example.timecapsule.model.CapsuleNotification;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+
+public interface CapsuleNotificationRepository extends MongoRepository<CapsuleNotification, String>, CapsuleNotificationRepositoryCustom {
+
+    List<CapsuleNotification> findByCapsuleId(String capsuleId);
+}
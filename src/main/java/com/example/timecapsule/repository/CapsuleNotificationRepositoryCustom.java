@@ -0,0 +1,50 @@
+package com.example.timecapsule.repository;
+
+import com.example.timecapsule.model.CapsuleNotification;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+public interface CapsuleNotificationRepositoryCustom {
+
+    /**
+     * Adds notifications to the outbox in one bulk write. Writing the same capsule and recipient
+     * twice is a no-op, which makes re-running the unlock stage after a crash safe.
+     *
+     * @return number of notifications that were newly inserted
+     */
+    int enqueueAll(List<CapsuleNotification> notifications);
+
+    /**
+     * Atomically claims the oldest PENDING notification that is due, or a SENDING one whose
+     * claim lease has expired.
+     */
+    Optional<CapsuleNotification> claimNextDue(String claimOwner, Instant now, Instant leaseUntil);
+
+    /**
+     * Claims a PENDING notification for the same recipient so it can go out in one digest with a
+     * notification already claimed: a first attempt due before {@code dueBefore}, or any notification
+     * already due at {@code now}. Retries still in their backoff, and notifications deferred by
+     * dispatch smoothing or domain parking, are left alone until they are due.
+     */
+    Optional<CapsuleNotification> claimNextForRecipient(String recipientEmail, String claimOwner, Instant now,
+                                                        Instant dueBefore, Instant leaseUntil);
+
+    /** Distinct topics of PENDING notifications due before {@code dueBefore}, for quote prefetching. */
+    List<String> findTopicsDueBefore(Instant dueBefore);
+
+    boolean markSent(String notificationId, String claimOwner, Instant sentAt);
+
+    /** Releases the claim and puts the notification back to PENDING until {@code nextAttemptAt}. */
+    boolean reschedule(String notificationId, String claimOwner, Instant nextAttemptAt, String error);
+
+    /**
+     * Puts a claimed notification back to PENDING until {@code nextAttemptAt} without counting
+     * the claim as a delivery attempt, e.g. while its recipient domain is throttled.
+     */
+    boolean park(String notificationId, String claimOwner, Instant nextAttemptAt);
+
+    /** Parks a notification that can never be delivered as DEAD_LETTER, out of the drain query. */
+    boolean deadLetter(String notificationId, String claimOwner, Instant at, String error);
+}
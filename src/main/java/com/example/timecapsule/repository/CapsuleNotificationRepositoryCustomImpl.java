@@ -0,0 +1,148 @@
+package com.example.timecapsule.repository;
+
+import com.example.timecapsule.model.CapsuleNotification;
+import com.mongodb.bulk.BulkWriteResult;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+public class CapsuleNotificationRepositoryCustomImpl implements CapsuleNotificationRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    public CapsuleNotificationRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public int enqueueAll(List<CapsuleNotification> notifications) {
+        if (notifications.isEmpty()) {
+            return 0;
+        }
+
+        BulkOperations bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, CapsuleNotification.class);
+        for (CapsuleNotification notification : notifications) {
+            Update update = new Update()
+                    .setOnInsert("ownerUsername", notification.getOwnerUsername())
+                    .setOnInsert("topic", notification.getTopic())
+                    .setOnInsert("publicAccessToken", notification.getPublicAccessToken())
+                    .setOnInsert("status", notification.getStatus())
+                    .setOnInsert("attempts", notification.getAttempts())
+                    .setOnInsert("nextAttemptAt", notification.getNextAttemptAt())
+                    .setOnInsert("deferredUntil", notification.getDeferredUntil())
+                    .setOnInsert("createdAt", notification.getCreatedAt());
+            bulkOps.upsert(Query.query(where("capsuleId").is(notification.getCapsuleId())
+                    .and("recipientEmail").is(notification.getRecipientEmail())), update);
+        }
+        BulkWriteResult result = bulkOps.execute();
+        return result.getUpserts().size();
+    }
+
+    @Override
+    public Optional<CapsuleNotification> claimNextDue(String claimOwner, Instant now, Instant leaseUntil) {
+        Query query = Query.query(new Criteria().orOperator(
+                        where("status").is(CapsuleNotification.NotificationStatus.PENDING).and("nextAttemptAt").lte(now),
+                        where("status").is(CapsuleNotification.NotificationStatus.SENDING).and("claimExpiresAt").lt(now)))
+                .with(Sort.by("nextAttemptAt"));
+        Update update = new Update()
+                .set("status", CapsuleNotification.NotificationStatus.SENDING)
+                .set("claimedBy", claimOwner)
+                .set("claimExpiresAt", leaseUntil)
+                .inc("attempts", 1);
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), CapsuleNotification.class));
+    }
+
+    @Override
+    public Optional<CapsuleNotification> claimNextForRecipient(String recipientEmail, String claimOwner, Instant now,
+                                                               Instant dueBefore, Instant leaseUntil) {
+        // Retries keep their backoff and smoothed or parked mail its slot: only first attempts that
+        // were never deferred may be pulled forward into a digest
+        Query query = Query.query(where("recipientEmail").is(recipientEmail)
+                        .and("status").is(CapsuleNotification.NotificationStatus.PENDING)
+                        .and("nextAttemptAt").lte(dueBefore)
+                        .orOperator(
+                                where("nextAttemptAt").lte(now),
+                                where("attempts").is(0).and("deferredUntil").is(null)))
+                .with(Sort.by("nextAttemptAt"));
+        Update update = new Update()
+                .set("status", CapsuleNotification.NotificationStatus.SENDING)
+                .set("claimedBy", claimOwner)
+                .set("claimExpiresAt", leaseUntil)
+                .inc("attempts", 1);
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), CapsuleNotification.class));
+    }
+
+    @Override
+    public List<String> findTopicsDueBefore(Instant dueBefore) {
+        Query query = Query.query(where("status").is(CapsuleNotification.NotificationStatus.PENDING)
+                .and("nextAttemptAt").lt(dueBefore));
+        return mongoTemplate.findDistinct(query, "topic", CapsuleNotification.class, String.class);
+    }
+
+    @Override
+    public boolean markSent(String notificationId, String claimOwner, Instant sentAt) {
+        Update update = new Update()
+                .set("status", CapsuleNotification.NotificationStatus.SENT)
+                .set("sentAt", sentAt)
+                .unset("lastError")
+                .unset("claimedBy")
+                .unset("claimExpiresAt");
+        return mongoTemplate.updateFirst(claimedBy(notificationId, claimOwner), update, CapsuleNotification.class)
+                .getModifiedCount() == 1;
+    }
+
+    @Override
+    public boolean reschedule(String notificationId, String claimOwner, Instant nextAttemptAt, String error) {
+        Update update = new Update()
+                .set("status", CapsuleNotification.NotificationStatus.PENDING)
+                .set("nextAttemptAt", nextAttemptAt)
+                .set("lastError", error)
+                .unset("claimedBy")
+                .unset("claimExpiresAt");
+        return mongoTemplate.updateFirst(claimedBy(notificationId, claimOwner), update, CapsuleNotification.class)
+                .getModifiedCount() == 1;
+    }
+
+    @Override
+    public boolean park(String notificationId, String claimOwner, Instant nextAttemptAt) {
+        Update update = new Update()
+                .set("status", CapsuleNotification.NotificationStatus.PENDING)
+                .set("nextAttemptAt", nextAttemptAt)
+                .set("deferredUntil", nextAttemptAt)
+                .inc("attempts", -1)
+                .unset("claimedBy")
+                .unset("claimExpiresAt");
+        return mongoTemplate.updateFirst(claimedBy(notificationId, claimOwner), update, CapsuleNotification.class)
+                .getModifiedCount() == 1;
+    }
+
+    @Override
+    public boolean deadLetter(String notificationId, String claimOwner, Instant at, String error) {
+        Update update = new Update()
+                .set("status", CapsuleNotification.NotificationStatus.DEAD_LETTER)
+                .set("deadLetteredAt", at)
+                .set("lastError", error)
+                .unset("claimedBy")
+                .unset("claimExpiresAt");
+        return mongoTemplate.updateFirst(claimedBy(notificationId, claimOwner), update, CapsuleNotification.class)
+                .getModifiedCount() == 1;
+    }
+
+    private Query claimedBy(String notificationId, String claimOwner) {
+        return Query.query(where("_id").is(notificationId)
+                .and("status").is(CapsuleNotification.NotificationStatus.SENDING)
+                .and("claimedBy").is(claimOwner));
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.timecapsule.repository;
+
+import com.example.timecapsule.model.QuoteCacheEntry;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface QuoteCacheRepository extends MongoRepository<QuoteCacheEntry, String> {
+}
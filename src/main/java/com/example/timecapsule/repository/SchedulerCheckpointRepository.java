@@ -0,0 +1,7 @@
+package com.example.timecapsule.repository;
+
+import com.example.timecapsule.model.SchedulerCheckpoint;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface SchedulerCheckpointRepository extends MongoRepository<SchedulerCheckpoint, String> {
+}
@@ -0,0 +1,7 @@
+package com.example.timecapsule.repository;
+
+import com.example.timecapsule.model.StoredBlob;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface StoredBlobRepository extends MongoRepository<StoredBlob, String>, StoredBlobRepositoryCustom {
+}
@@ -0,0 +1,38 @@
+package com.example.timecapsule.repository;
+
+import com.example.timecapsule.model.StoredBlob;
+
+import java.time.Instant;
+
+public interface StoredBlobRepositoryCustom {
+
+    /**
+     * Adds one reference to the blob, creating it if needed, and records {@code owner} (if not
+     * null) as having uploaded it. A pending deletion claim is cleared, so its file is kept.
+     *
+     * @return the blob as it was before, or null if it did not exist
+     */
+    StoredBlob addReference(String sha256, long size, String owner, Instant now);
+
+    /**
+     * Adds one reference to a live blob that {@code owner} uploaded before.
+     *
+     * @return the updated blob, or null if there is no such blob for this owner
+     */
+    StoredBlob addOwnedReference(String sha256, String owner, Instant now);
+
+    /** Drops one reference; returns the references left, or -1 if the blob is unknown. */
+    long release(String sha256, Instant now);
+
+    /**
+     * Claims the deletion of a blob nothing references any more; only one caller can win, and
+     * {@link #addReference} revokes the claim.
+     */
+    boolean claimDeletion(String sha256, String token);
+
+    /** Removes the blob if it is still unreferenced and the deletion claim is still {@code token}'s. */
+    boolean removeIfClaimed(String sha256, String token);
+
+    /** Gives up a deletion claim that is still {@code token}'s. */
+    void abandonDeletion(String sha256, String token);
+}
@@ -0,0 +1,79 @@
+package com.example.timecapsule.repository;
+
+import com.example.timecapsule.model.StoredBlob;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+public class StoredBlobRepositoryCustomImpl implements StoredBlobRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    public StoredBlobRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public StoredBlob addReference(String sha256, long size, String owner, Instant now) {
+        Update update = new Update()
+                .inc("refCount", 1)
+                .set("updatedAt", now)
+                .setOnInsert("size", size)
+                .setOnInsert("createdAt", now)
+                .unset("deleting");
+        if (owner != null) {
+            update.addToSet("owners", owner);
+        }
+        return mongoTemplate.findAndModify(Query.query(where("_id").is(sha256)), update,
+                FindAndModifyOptions.options().upsert(true).returnNew(false), StoredBlob.class);
+    }
+
+    @Override
+    public StoredBlob addOwnedReference(String sha256, String owner, Instant now) {
+        Query query = Query.query(where("_id").is(sha256)
+                .and("refCount").gt(0)
+                .and("owners").is(owner));
+        Update update = new Update()
+                .inc("refCount", 1)
+                .set("updatedAt", now);
+        return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), StoredBlob.class);
+    }
+
+    @Override
+    public long release(String sha256, Instant now) {
+        Query query = Query.query(where("_id").is(sha256).and("refCount").gt(0));
+        Update update = new Update()
+                .inc("refCount", -1)
+                .set("updatedAt", now);
+        StoredBlob blob = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), StoredBlob.class);
+        return blob == null ? -1 : blob.getRefCount();
+    }
+
+    @Override
+    public boolean claimDeletion(String sha256, String token) {
+        Query query = Query.query(where("_id").is(sha256)
+                .and("refCount").lte(0)
+                .and("deleting").exists(false));
+        return mongoTemplate.updateFirst(query, new Update().set("deleting", token), StoredBlob.class)
+                .getModifiedCount() == 1;
+    }
+
+    @Override
+    public boolean removeIfClaimed(String sha256, String token) {
+        Query query = Query.query(where("_id").is(sha256)
+                .and("refCount").lte(0)
+                .and("deleting").is(token));
+        return mongoTemplate.remove(query, StoredBlob.class).getDeletedCount() == 1;
+    }
+
+    @Override
+    public void abandonDeletion(String sha256, String token) {
+        Query query = Query.query(where("_id").is(sha256).and("deleting").is(token));
+        mongoTemplate.updateFirst(query, new Update().unset("deleting"), StoredBlob.class);
+    }
+}
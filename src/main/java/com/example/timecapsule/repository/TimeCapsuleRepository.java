@@ -2,17 +2,23 @@ package com.example.timecapsule.repository;
 
 import com.example.timecapsule.model.TimeCapsule;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 
-public interface TimeCapsuleRepository extends MongoRepository<TimeCapsule, String> {
+public interface TimeCapsuleRepository extends MongoRepository<TimeCapsule, String>, TimeCapsuleRepositoryCustom {
 
     List<TimeCapsule> findByStatus(TimeCapsule.CapsuleStatus status);
     List<TimeCapsule> findByUnlockDateBeforeAndStatus(Instant now, TimeCapsule.CapsuleStatus status);
     List<TimeCapsule> findByOwnerUsername(String username);
     List<TimeCapsule> findByStatusAndUnlockDateBefore(TimeCapsule.CapsuleStatus status, Instant now);
     Optional<TimeCapsule> findByPublicAccessToken(String publicAccessToken); // New method to find by token
+    Optional<TimeCapsule> findByRecipientsAccessToken(String accessToken); // per-recipient link of a multi-recipient capsule
+
+    // Only id and unlockDate are loaded, enough to place capsules on the unlock timing wheel
+    @Query(value = "{ 'status': ?0, 'unlockDate': { $gte: ?1, $lt: ?2 } }", fields = "{ '_id': 1, 'unlockDate': 1 }")
+    List<TimeCapsule> findUnlockScheduleByStatusAndUnlockDateBetween(TimeCapsule.CapsuleStatus status, Instant from, Instant horizon);
 
 }
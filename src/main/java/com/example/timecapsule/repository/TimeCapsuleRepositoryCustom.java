@@ -0,0 +1,86 @@
+package com.example.timecapsule.repository;
+
+import com.example.timecapsule.model.FileMetadata;
+import com.example.timecapsule.model.TimeCapsule;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+public interface TimeCapsuleRepositoryCustom {
+
+    /**
+     * Atomically claims one capsule for unlocking if it is LOCKED and due, or if an earlier
+     * UNLOCKING claim has expired. The capsule moves to UNLOCKING with the given lease.
+     * Claimed capsules are returned without their file metadata.
+     */
+    Optional<TimeCapsule> claimForUnlock(String capsuleId, String claimOwner, Instant now, Instant leaseUntil);
+
+    /** Re-claims the earliest UNLOCKING capsule whose claim lease has expired. */
+    Optional<TimeCapsule> claimNextExpired(String claimOwner, Instant now, Instant leaseUntil);
+
+    /**
+     * Reclaims an UNLOCKED capsule whose notification never reached the outbox because the node
+     * that held its claim stopped before the lease ran out.
+     */
+    Optional<TimeCapsule> claimNextUnnotified(String claimOwner, Instant now, Instant leaseUntil);
+
+    /**
+     * Unlocks a batch of capsules in a single bulk write. Each capsule gets its own public access
+     * token through a field-level $set, so file metadata is never rewritten. Only capsules still
+     * claimed by {@code claimOwner} are touched.
+     *
+     * @param accessTokensById public access token to assign, keyed by capsule id
+     * @return ids of the capsules that have been unlocked
+     */
+    Set<String> unlockBatch(Map<String, String> accessTokensById, String claimOwner);
+
+    /** Releases the claims on unlocked capsules once their notifications are in the outbox. */
+    long releaseClaims(Collection<String> capsuleIds, String claimOwner);
+
+    /**
+     * Records that the unlock notification for a capsule has been delivered. For a capsule with
+     * several recipients this only succeeds once none of them is still pending.
+     */
+    boolean markNotified(String capsuleId);
+
+    /** Distinct topics of LOCKED capsules unlocking in {@code [from, to)}, for quote prefetching. */
+    List<String> findTopicsUnlockingBetween(Instant from, Instant to);
+
+    /** Records delivery to one recipient of a multi-recipient capsule. */
+    boolean markRecipientNotified(String capsuleId, String recipientEmail, Instant notifiedAt);
+
+    /**
+     * Appends file entries to a capsule that is still LOCKED with a single $push, so the fields the
+     * unlock pipeline writes are never touched.
+     *
+     * @return false if the capsule is gone or no longer LOCKED
+     */
+    boolean addFilesIfLocked(String capsuleId, List<FileMetadata> files);
+
+    /**
+     * Applies an owner's edit to a capsule that is still LOCKED as field-level $set, or $unset for
+     * null values, instead of saving the whole document over the pipeline's writes.
+     *
+     * @return false if the capsule is gone or no longer LOCKED
+     */
+    boolean updateIfLocked(String capsuleId, Map<String, Object> fields);
+
+    /**
+     * Removes the file entries with this stored and original name from a capsule that is still
+     * LOCKED, in one atomic $pull. Only the caller whose update removed the entries gets a count
+     * above zero, so each entry's storage reference is released exactly once.
+     *
+     * @return the number of entries removed
+     */
+    int removeFilesIfLocked(String capsuleId, String fileName, String originalName);
+
+    /**
+     * Deletes a capsule of {@code ownerUsername} in one findAndRemove and returns it as it was, so
+     * only the caller that actually removed it releases the storage references of its files.
+     */
+    Optional<TimeCapsule> removeOwned(String capsuleId, String ownerUsername);
+}
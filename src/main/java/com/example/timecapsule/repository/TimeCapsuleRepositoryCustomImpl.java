@@ -0,0 +1,196 @@
+package com.example.timecapsule.repository;
+
+import com.example.timecapsule.model.CapsuleRecipient;
+import com.example.timecapsule.model.FileMetadata;
+import com.example.timecapsule.model.TimeCapsule;
+import com.mongodb.bulk.BulkWriteResult;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+public class TimeCapsuleRepositoryCustomImpl implements TimeCapsuleRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    public TimeCapsuleRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Optional<TimeCapsule> claimForUnlock(String capsuleId, String claimOwner, Instant now, Instant leaseUntil) {
+        Query query = Query.query(new Criteria().andOperator(where("_id").is(capsuleId), claimableForUnlock(now)));
+        return claim(query, TimeCapsule.CapsuleStatus.UNLOCKING, claimOwner, leaseUntil);
+    }
+
+    @Override
+    public Optional<TimeCapsule> claimNextExpired(String claimOwner, Instant now, Instant leaseUntil) {
+        Query query = Query.query(where("status").is(TimeCapsule.CapsuleStatus.UNLOCKING)
+                .and("claimExpiresAt").lt(now)).with(Sort.by("claimExpiresAt"));
+        return claim(query, TimeCapsule.CapsuleStatus.UNLOCKING, claimOwner, leaseUntil);
+    }
+
+    @Override
+    public Optional<TimeCapsule> claimNextUnnotified(String claimOwner, Instant now, Instant leaseUntil) {
+        Query query = Query.query(where("status").is(TimeCapsule.CapsuleStatus.UNLOCKED)
+                .and("claimExpiresAt").lt(now));
+        return claim(query, TimeCapsule.CapsuleStatus.UNLOCKED, claimOwner, leaseUntil);
+    }
+
+    @Override
+    public Set<String> unlockBatch(Map<String, String> accessTokensById, String claimOwner) {
+        if (accessTokensById.isEmpty()) {
+            return Set.of();
+        }
+
+        BulkOperations bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, TimeCapsule.class);
+        accessTokensById.forEach((id, token) -> bulkOps.updateOne(
+                Query.query(where("_id").is(id)
+                        .and("status").is(TimeCapsule.CapsuleStatus.UNLOCKING)
+                        .and("claimedBy").is(claimOwner)),
+                touch(new Update()
+                        .set("status", TimeCapsule.CapsuleStatus.UNLOCKED)
+                        .set("publicAccessToken", token))));
+        BulkWriteResult result = bulkOps.execute();
+
+        if (result.getModifiedCount() == accessTokensById.size()) {
+            return accessTokensById.keySet();
+        }
+
+        // Some claims were lost or capsules deleted concurrently: read back which ones carry our token
+        Query ours = Query.query(where("_id").in(accessTokensById.keySet())
+                .and("publicAccessToken").in(accessTokensById.values()));
+        ours.fields().include("_id");
+        Set<String> unlocked = new HashSet<>();
+        for (TimeCapsule capsule : mongoTemplate.find(ours, TimeCapsule.class)) {
+            unlocked.add(capsule.getId());
+        }
+        return unlocked;
+    }
+
+    @Override
+    public long releaseClaims(Collection<String> capsuleIds, String claimOwner) {
+        if (capsuleIds.isEmpty()) {
+            return 0;
+        }
+        Query query = Query.query(where("_id").in(capsuleIds)
+                .and("status").is(TimeCapsule.CapsuleStatus.UNLOCKED)
+                .and("claimedBy").is(claimOwner));
+        Update update = touch(new Update()
+                .unset("claimedBy")
+                .unset("claimExpiresAt"));
+        return mongoTemplate.updateMulti(query, update, TimeCapsule.class).getModifiedCount();
+    }
+
+    @Override
+    public boolean markNotified(String capsuleId) {
+        Query query = Query.query(where("_id").is(capsuleId)
+                .and("status").is(TimeCapsule.CapsuleStatus.UNLOCKED)
+                .and("recipients").not().elemMatch(where("deliveryStatus").is(CapsuleRecipient.DeliveryStatus.PENDING)));
+        Update update = touch(Update.update("status", TimeCapsule.CapsuleStatus.NOTIFIED));
+        return mongoTemplate.updateFirst(query, update, TimeCapsule.class).getModifiedCount() == 1;
+    }
+
+    @Override
+    public List<String> findTopicsUnlockingBetween(Instant from, Instant to) {
+        Query query = Query.query(where("status").is(TimeCapsule.CapsuleStatus.LOCKED)
+                .and("unlockDate").gte(from).lt(to));
+        return mongoTemplate.findDistinct(query, "topic", TimeCapsule.class, String.class);
+    }
+
+    @Override
+    public boolean markRecipientNotified(String capsuleId, String recipientEmail, Instant notifiedAt) {
+        Query query = Query.query(where("_id").is(capsuleId)
+                .and("recipients").elemMatch(where("email").is(recipientEmail)
+                        .and("deliveryStatus").is(CapsuleRecipient.DeliveryStatus.PENDING)));
+        Update update = touch(new Update()
+                .set("recipients.$.deliveryStatus", CapsuleRecipient.DeliveryStatus.NOTIFIED)
+                .set("recipients.$.notifiedAt", notifiedAt));
+        return mongoTemplate.updateFirst(query, update, TimeCapsule.class).getModifiedCount() == 1;
+    }
+
+    @Override
+    public boolean addFilesIfLocked(String capsuleId, List<FileMetadata> files) {
+        if (files.isEmpty()) {
+            return mongoTemplate.exists(lockedCapsule(capsuleId), TimeCapsule.class);
+        }
+        Update update = touch(new Update().push("fileMetadataList").each(files.toArray()));
+        return mongoTemplate.updateFirst(lockedCapsule(capsuleId), update, TimeCapsule.class).getMatchedCount() == 1;
+    }
+
+    @Override
+    public boolean updateIfLocked(String capsuleId, Map<String, Object> fields) {
+        Update update = touch(new Update());
+        fields.forEach((field, value) -> {
+            if (value == null) {
+                update.unset(field);
+            } else {
+                update.set(field, value);
+            }
+        });
+        return mongoTemplate.updateFirst(lockedCapsule(capsuleId), update, TimeCapsule.class).getMatchedCount() == 1;
+    }
+
+    @Override
+    public int removeFilesIfLocked(String capsuleId, String fileName, String originalName) {
+        // FileMetadata keeps its historical capitalized field name
+        Criteria entry = where("FileName").is(fileName).and("originalName").is(originalName);
+        Query query = lockedCapsule(capsuleId).addCriteria(where("fileMetadataList").elemMatch(entry));
+        query.fields().include("fileMetadataList");
+        Update update = touch(new Update().pull("fileMetadataList", Query.query(entry)));
+
+        TimeCapsule before = mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(false), TimeCapsule.class);
+        if (before == null || before.getFileMetadataList() == null) {
+            return 0;
+        }
+        return (int) before.getFileMetadataList().stream()
+                .filter(m -> fileName.equals(m.getFileName()) && Objects.equals(originalName, m.getOriginalName()))
+                .count();
+    }
+
+    @Override
+    public Optional<TimeCapsule> removeOwned(String capsuleId, String ownerUsername) {
+        Query query = Query.query(where("_id").is(capsuleId).and("ownerUsername").is(ownerUsername));
+        return Optional.ofNullable(mongoTemplate.findAndRemove(query, TimeCapsule.class));
+    }
+
+    /** Every write moves updatedAt, which the capsule views use as their ETag and Last-Modified. */
+    private static Update touch(Update update) {
+        return update.currentDate("updatedAt");
+    }
+
+    private static Query lockedCapsule(String capsuleId) {
+        return Query.query(where("_id").is(capsuleId).and("status").is(TimeCapsule.CapsuleStatus.LOCKED));
+    }
+
+    private Criteria claimableForUnlock(Instant now) {
+        return new Criteria().orOperator(
+                where("status").is(TimeCapsule.CapsuleStatus.LOCKED).and("unlockDate").lte(now),
+                where("status").is(TimeCapsule.CapsuleStatus.UNLOCKING).and("claimExpiresAt").lt(now));
+    }
+
+    private Optional<TimeCapsule> claim(Query query, TimeCapsule.CapsuleStatus status, String claimOwner, Instant leaseUntil) {
+        Update update = touch(new Update()
+                .set("status", status)
+                .set("claimedBy", claimOwner)
+                .set("claimExpiresAt", leaseUntil));
+        query.fields().exclude("fileMetadataList"); // the pipeline never needs file metadata
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), TimeCapsule.class));
+    }
+}
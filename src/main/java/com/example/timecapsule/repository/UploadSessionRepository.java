@@ -0,0 +1,12 @@
+package com.example.timecapsule.repository;
+
+import com.example.timecapsule.model.UploadSession;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface UploadSessionRepository extends MongoRepository<UploadSession, String>, UploadSessionRepositoryCustom {
+
+    List<UploadSession> findByExpiresAtBefore(Instant now);
+}
@@ -0,0 +1,31 @@
+package com.example.timecapsule.repository;
+
+import java.time.Instant;
+
+public interface UploadSessionRepositoryCustom {
+
+    /**
+     * Moves the committed offset of an OPEN session from {@code expectedOffset} to {@code newOffset}
+     * and extends its expiry. Fails if another request committed first.
+     */
+    boolean advanceOffset(String sessionId, long expectedOffset, long newOffset, Instant now, Instant expiresAt);
+
+    /**
+     * Moves a fully written OPEN session to COMPLETING for the request that attaches it; only one
+     * caller can win. {@code leaseUntil} becomes its expiry, so a request that dies half-way is
+     * cleaned up by the purge.
+     */
+    boolean claimCompletion(String sessionId, long totalSize, Instant now, Instant leaseUntil);
+
+    /**
+     * Records on a COMPLETING session the name its file was stored under, before the file is
+     * attached, so a completion that dies half-way can be told apart from one that attached it.
+     */
+    boolean recordStoredFile(String sessionId, String storedFileName, Instant now);
+
+    /** Gives a COMPLETING session back to the client, e.g. when storing the file failed. */
+    boolean reopen(String sessionId, Instant now, Instant expiresAt);
+
+    /** Marks a COMPLETING session COMPLETED once its file is attached; it is purged after {@code expiresAt}. */
+    boolean markCompleted(String sessionId, Instant now, Instant expiresAt);
+}
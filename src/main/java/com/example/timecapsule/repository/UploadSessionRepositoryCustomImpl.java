@@ -0,0 +1,68 @@
+package com.example.timecapsule.repository;
+
+import com.example.timecapsule.model.UploadSession;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+public class UploadSessionRepositoryCustomImpl implements UploadSessionRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    public UploadSessionRepositoryCustomImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public boolean advanceOffset(String sessionId, long expectedOffset, long newOffset, Instant now, Instant expiresAt) {
+        Query query = Query.query(where("_id").is(sessionId)
+                .and("status").is(UploadSession.Status.OPEN)
+                .and("committedOffset").is(expectedOffset));
+        Update update = new Update()
+                .set("committedOffset", newOffset)
+                .set("updatedAt", now)
+                .set("expiresAt", expiresAt);
+        return mongoTemplate.updateFirst(query, update, UploadSession.class).getModifiedCount() == 1;
+    }
+
+    @Override
+    public boolean claimCompletion(String sessionId, long totalSize, Instant now, Instant leaseUntil) {
+        Query query = Query.query(where("_id").is(sessionId)
+                .and("status").is(UploadSession.Status.OPEN)
+                .and("committedOffset").is(totalSize));
+        return moveTo(query, UploadSession.Status.COMPLETING, now, leaseUntil);
+    }
+
+    @Override
+    public boolean recordStoredFile(String sessionId, String storedFileName, Instant now) {
+        Query query = Query.query(where("_id").is(sessionId).and("status").is(UploadSession.Status.COMPLETING));
+        Update update = new Update()
+                .set("storedFileName", storedFileName)
+                .set("updatedAt", now);
+        return mongoTemplate.updateFirst(query, update, UploadSession.class).getModifiedCount() == 1;
+    }
+
+    @Override
+    public boolean reopen(String sessionId, Instant now, Instant expiresAt) {
+        Query query = Query.query(where("_id").is(sessionId).and("status").is(UploadSession.Status.COMPLETING));
+        return moveTo(query, UploadSession.Status.OPEN, now, expiresAt);
+    }
+
+    @Override
+    public boolean markCompleted(String sessionId, Instant now, Instant expiresAt) {
+        Query query = Query.query(where("_id").is(sessionId).and("status").is(UploadSession.Status.COMPLETING));
+        return moveTo(query, UploadSession.Status.COMPLETED, now, expiresAt);
+    }
+
+    private boolean moveTo(Query query, UploadSession.Status status, Instant now, Instant expiresAt) {
+        Update update = new Update()
+                .set("status", status)
+                .set("updatedAt", now)
+                .set("expiresAt", expiresAt);
+        return mongoTemplate.updateFirst(query, update, UploadSession.class).getModifiedCount() == 1;
+    }
+}
@@ -1,93 +1,217 @@
 package com.example.timecapsule.scheduler;
 
+import com.example.timecapsule.config.SchedulingConfig;
+import com.example.timecapsule.model.CapsuleNotification;
 import com.example.timecapsule.model.TimeCapsule;
+import com.example.timecapsule.repository.CapsuleNotificationRepository;
 import com.example.timecapsule.repository.TimeCapsuleRepository;
-import com.example.timecapsule.service.EmailService;
-import com.example.timecapsule.service.QuoteService;
+import com.example.timecapsule.service.CapsuleClaimService;
+import com.example.timecapsule.service.DispatchThrottle;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Detect and unlock stages of the unlock pipeline: due capsules are claimed, unlocked in bulk and
+ * handed to the notification outbox, which {@link com.example.timecapsule.service.EmailSchedulerService}
+ * drains. Every stage can be re-run after a crash without duplicating work.
+ */
 @Component
 public class CapsuleUnlockScheduler {
 
     private static final Logger logger = LoggerFactory.getLogger(CapsuleUnlockScheduler.class);
 
     private final TimeCapsuleRepository capsuleRepository;
-    private final EmailService emailService;
-    private final QuoteService quoteService;
+    private final CapsuleClaimService claimService;
+    private final CapsuleNotificationRepository notificationRepository;
+    private final UnlockTimingWheel timingWheel;
+    private final DispatchThrottle dispatchThrottle;
+    private final ScheduledJobGuard jobGuard;
+    private final Timer batchTimer;
+    private final Counter unlockedCounter;
+
+    @Value("${capsule.unlock.batch-size:500}")
+    private int batchSize = 500;
+
+    @Value("${capsule.unlock.refill-ms:60000}")
+    private long refillMs = 60_000;
+
+    @Value("${capsule.unlock.reclaim-ms:30000}")
+    private long reclaimMs = 30_000;
 
     public CapsuleUnlockScheduler(TimeCapsuleRepository capsuleRepository,
-                                  EmailService emailService,
-                                  QuoteService quoteService) {
+                                  CapsuleClaimService claimService,
+                                  CapsuleNotificationRepository notificationRepository,
+                                  UnlockTimingWheel timingWheel,
+                                  DispatchThrottle dispatchThrottle,
+                                  ScheduledJobGuard jobGuard,
+                                  MeterRegistry meterRegistry) {
         this.capsuleRepository = capsuleRepository;
-        this.emailService = emailService;
-        this.quoteService = quoteService;
+        this.claimService = claimService;
+        this.notificationRepository = notificationRepository;
+        this.timingWheel = timingWheel;
+        this.dispatchThrottle = dispatchThrottle;
+        this.jobGuard = jobGuard;
+        this.batchTimer = Timer.builder("capsule.unlock.batch")
+                .description("Time spent writing one bulk unlock batch")
+                .register(meterRegistry);
+        this.unlockedCounter = meterRegistry.counter("capsule.unlock.unlocked");
+        timingWheel.onDue(this::unlockDue);
+    }
+
+    public void setBatchSize(int batchSize) { // this is for testing
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Loads the capsules unlocking inside the next window into the timing wheel. Only id and
+     * unlock date are fetched; the wheel then fires each capsule at its exact unlock instant.
+     * Capsules that are already overdue are left to {@link UnlockBacklogDrain}.
+     */
+    @Scheduled(fixedRateString = "${capsule.unlock.refill-ms:60000}", scheduler = SchedulingConfig.UNLOCK_SCHEDULER)
+    public void refillTimingWheel() {
+        jobGuard.run("unlock-refill", ScheduledJobGuard.Trigger.FIXED_RATE, Duration.ofMillis(refillMs), this::refill);
     }
 
-    @Scheduled(fixedRate = 10000) // Every 10 seconds
-    public void unlockAndNotify() {
-        logger.info("Running scheduled task: Checking for capsules to unlock...");
+    private void refill() {
+        Instant now = Instant.now();
+        Instant horizon = now.plus(timingWheel.getWindow());
+        timingWheel.advanceHorizon(horizon);
+
+        List<TimeCapsule> upcoming = capsuleRepository
+                .findUnlockScheduleByStatusAndUnlockDateBetween(TimeCapsule.CapsuleStatus.LOCKED, now, horizon);
+        for (TimeCapsule capsule : upcoming) {
+            timingWheel.track(capsule.getId(), capsule.getUnlockDate());
+        }
 
-        List<TimeCapsule> readyCapsules = capsuleRepository
-                .findByUnlockDateBeforeAndStatus(Instant.now(), TimeCapsule.CapsuleStatus.LOCKED);
+        logger.debug("Timing wheel refilled with {} capsules unlocking before {}.", upcoming.size(), horizon);
+    }
 
-        if (readyCapsules.isEmpty()) {
-            logger.info("No capsules found ready to unlock.");
+    /**
+     * Called by the timing wheel with the ids whose unlock date has been reached. Each id is
+     * claimed first, so when several nodes fire for the same capsule only one of them unlocks it.
+     */
+    public void unlockDue(List<String> capsuleIds) {
+        List<TimeCapsule> claimed = claimService.claim(capsuleIds);
+        if (claimed.isEmpty()) {
             return;
         }
 
-        logger.info("Found {} capsules ready to unlock.", readyCapsules.size());
+        logger.info("Claimed {} capsules ready to unlock.", claimed.size());
+        unlockAndNotify(claimed);
+    }
+
+    /**
+     * Safety net for other nodes' crashes: picks up capsules whose claim lease expired, either
+     * before they were unlocked or before their notification was queued.
+     */
+    @Scheduled(fixedRateString = "${capsule.unlock.reclaim-ms:30000}", scheduler = SchedulingConfig.UNLOCK_SCHEDULER)
+    public void reclaimExpiredClaims() {
+        jobGuard.run("unlock-reclaim", ScheduledJobGuard.Trigger.FIXED_RATE, Duration.ofMillis(reclaimMs), this::reclaim);
+    }
+
+    private void reclaim() {
+        List<TimeCapsule> claimed;
+        while (!(claimed = claimService.claimExpired(batchSize)).isEmpty()) {
+            logger.info("Reclaimed {} capsules for unlocking.", claimed.size());
+            unlockAndNotify(claimed);
+        }
+        while (!(claimed = claimService.claimUnnotified(batchSize)).isEmpty()) {
+            logger.info("Reclaimed {} unlocked capsules whose notification was not queued.", claimed.size());
+            enqueueNotifications(claimed);
+        }
+    }
+
+    private void unlockAndNotify(List<TimeCapsule> claimed) {
+        for (int from = 0; from < claimed.size(); from += batchSize) {
+            List<TimeCapsule> batch = claimed.subList(from, Math.min(from + batchSize, claimed.size()));
+            enqueueNotifications(unlockBatch(batch));
+        }
+    }
+
+    /**
+     * Flips a batch of capsules to UNLOCKED with one bulk write and returns the ones that were
+     * actually unlocked by this call.
+     */
+    List<TimeCapsule> unlockBatch(List<TimeCapsule> batch) {
+        Map<String, String> accessTokensById = new LinkedHashMap<>();
+        for (TimeCapsule capsule : batch) {
+            accessTokensById.put(capsule.getId(), UUID.randomUUID().toString());
+        }
+
+        long start = System.nanoTime();
+        Set<String> unlockedIds;
+        try {
+            unlockedIds = claimService.unlock(accessTokensById);
+        } catch (Exception e) {
+            logger.error("Failed to unlock batch of {} capsules: {}", batch.size(), e.getMessage(), e);
+            return List.of();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        batchTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        unlockedCounter.increment(unlockedIds.size());
+
+        logger.info("Unlocked {}/{} capsules in one bulk write ({} ms).",
+                unlockedIds.size(), batch.size(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
 
-        for (TimeCapsule capsule : readyCapsules) {
-            try {
-                // Generate public access token and update status
-                String publicAccessToken = UUID.randomUUID().toString();
-                capsule.setPublicAccessToken(publicAccessToken);
+        List<TimeCapsule> unlocked = new ArrayList<>();
+        for (TimeCapsule capsule : batch) {
+            if (unlockedIds.contains(capsule.getId())) {
+                capsule.setPublicAccessToken(accessTokensById.get(capsule.getId()));
                 capsule.setStatus(TimeCapsule.CapsuleStatus.UNLOCKED);
-                capsuleRepository.save(capsule);
-
-                logger.info("Capsule ID {} unlocked. Token: {}", capsule.getId(), publicAccessToken);
-
-                // Build frontend link
-                String publicViewerLink = String.format("http://localhost:3000/capsules/view/%s", publicAccessToken);
-
-                // Fetch quote based on topic
-                String quote;
-                String topic = capsule.getTopic() != null ? capsule.getTopic() : "life";
-                try {
-                    quote = quoteService.getQuote(topic);
-                    logger.info("Quote for topic '{}': {}", topic, quote);
-                } catch (Exception e) {
-                    quote = "“Cherish yesterday, dream tomorrow, live today.”";
-                    logger.warn("Failed to fetch quote from Gemini: {}", e.getMessage());
-                }
+                unlocked.add(capsule);
+            }
+        }
+        return unlocked;
+    }
 
-                // Compose the email
-                String subject = "🎁 Your Digital Time Capsule Is Ready!";
-                String body = String.format(
-                        "Hi %s,\n\nYour digital time capsule from %s is now unlocked and ready to access! " +
-                                "Click the link below to view your memories:\n\n%s\n\n" +
-                                "✨ Quote on '%s' ✨\n%s\n\nEnjoy!",
-                        capsule.getRecipientEmail(),
-                        capsule.getOwnerUsername(),
-                        publicViewerLink,
-                        topic,
-                        quote
-                );
-
-                // Send the email
-                emailService.sendSimpleMessage(capsule.getRecipientEmail(), subject, body);
-                logger.info("Email sent to {}", capsule.getRecipientEmail());
-
-            } catch (Exception e) {
-                logger.error("Failed to process capsule {}: {}", capsule.getId(), e.getMessage(), e);
+    /**
+     * Writes the outbox records for freshly unlocked capsules, then releases their claims. If the
+     * node dies in between, the capsules are reclaimed and the idempotent enqueue simply repeats.
+     * Each notification is due at its slot in the dispatch smoothing window, not all at once.
+     */
+    void enqueueNotifications(List<TimeCapsule> unlocked) {
+        if (unlocked.isEmpty()) {
+            return;
+        }
+        try {
+            List<CapsuleNotification> notifications = new ArrayList<>();
+            List<String> capsuleIds = new ArrayList<>();
+            Instant now = Instant.now();
+            for (TimeCapsule capsule : unlocked) {
+                // Fan-out: one outbox record per recipient, all written in the same bulk upsert
+                for (CapsuleNotification notification : CapsuleNotification.forRecipients(capsule)) {
+                    Instant slot = dispatchThrottle.dispatchAt(
+                            capsule.getId() + notification.getRecipientEmail(), capsule.getUnlockDate(), now);
+                    notification.setNextAttemptAt(slot);
+                    if (slot.isAfter(now)) {
+                        notification.setDeferredUntil(slot); // a digest must not undo the smoothing
+                    }
+                    notifications.add(notification);
+                }
+                capsuleIds.add(capsule.getId());
             }
+            int queued = notificationRepository.enqueueAll(notifications);
+            claimService.release(capsuleIds);
+            logger.info("Queued {} unlock notifications for {} capsules ({} already queued).",
+                    queued, unlocked.size(), notifications.size() - queued);
+        } catch (Exception e) {
+            logger.error("Failed to queue notifications for {} capsules: {}", unlocked.size(), e.getMessage(), e);
         }
     }
 }
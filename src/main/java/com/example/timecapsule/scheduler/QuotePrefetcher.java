@@ -0,0 +1,83 @@
+package com.example.timecapsule.scheduler;
+
+import com.example.timecapsule.config.SchedulingConfig;
+import com.example.timecapsule.repository.CapsuleNotificationRepository;
+import com.example.timecapsule.repository.TimeCapsuleRepository;
+import com.example.timecapsule.service.QuoteCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Warms the quote cache for capsules that unlock within the lookahead, and for notifications
+ * still waiting in the outbox, so the sender only ever reads a prepared quote. Each topic is
+ * fetched at most once per run however many capsules share it, in one batched request.
+ */
+@Component
+public class QuotePrefetcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(QuotePrefetcher.class);
+
+    private final TimeCapsuleRepository capsuleRepository;
+    private final CapsuleNotificationRepository notificationRepository;
+    private final QuoteCache quoteCache;
+    private final ScheduledJobGuard jobGuard;
+    private final Counter prefetchedCounter;
+    private final Counter failureCounter;
+
+    @Value("${capsule.quotes.prefetch.lookahead-ms:900000}")
+    private long lookaheadMs = 900_000;
+
+    @Value("${capsule.quotes.prefetch.interval-ms:60000}")
+    private long intervalMs = 60_000;
+
+    public QuotePrefetcher(TimeCapsuleRepository capsuleRepository,
+                           CapsuleNotificationRepository notificationRepository,
+                           QuoteCache quoteCache,
+                           ScheduledJobGuard jobGuard,
+                           MeterRegistry meterRegistry) {
+        this.capsuleRepository = capsuleRepository;
+        this.notificationRepository = notificationRepository;
+        this.quoteCache = quoteCache;
+        this.jobGuard = jobGuard;
+        this.prefetchedCounter = meterRegistry.counter("capsule.quotes.prefetched");
+        this.failureCounter = meterRegistry.counter("capsule.quotes.prefetch.failures");
+    }
+
+    public void setLookaheadMs(long lookaheadMs) { // this is for testing
+        this.lookaheadMs = lookaheadMs;
+    }
+
+    @Scheduled(fixedDelayString = "${capsule.quotes.prefetch.interval-ms:60000}", scheduler = SchedulingConfig.QUOTE_SCHEDULER)
+    public void prefetch() {
+        jobGuard.run("quote-prefetch", ScheduledJobGuard.Trigger.FIXED_DELAY, Duration.ofMillis(intervalMs), () -> prefetchTopics(Instant.now()));
+    }
+
+    void prefetchTopics(Instant now) {
+        Instant horizon = now.plusMillis(lookaheadMs);
+        Set<String> topics = new LinkedHashSet<>();
+        // Capsules without a topic are quoted on the default one
+        topics.add(QuoteCache.normalize(null));
+        capsuleRepository.findTopicsUnlockingBetween(now, horizon).forEach(t -> topics.add(QuoteCache.normalize(t)));
+        notificationRepository.findTopicsDueBefore(horizon).forEach(t -> topics.add(QuoteCache.normalize(t)));
+
+        // One batched Gemini request for every topic that needs a quote
+        Set<String> failed = quoteCache.warmAll(topics);
+        prefetchedCounter.increment(topics.size() - failed.size());
+        if (!failed.isEmpty()) {
+            // The sender falls back to the local quote; the next run tries again
+            failureCounter.increment(failed.size());
+            logger.warn("Failed to prefetch quotes for {}.", failed);
+        }
+        logger.debug("Prefetched quotes for {} topics ({} failed).", topics.size() - failed.size(), failed.size());
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.timecapsule.scheduler;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Wraps the body of every scheduled job. A run is skipped while the previous run of the same job
+ * is still going, and so are the catch-up runs a fixed-rate schedule fires back to back after an
+ * overrun: a fixed-rate run that starts before an interval has passed since the previous start is
+ * coalesced. Records run duration, lag behind the schedule and skips; lag is measured from the
+ * previous start for fixed-rate jobs and from the previous end for fixed-delay jobs, matching how
+ * Spring computes their next run.
+ */
+@Component
+public class ScheduledJobGuard {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScheduledJobGuard.class);
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, JobState> jobs = new ConcurrentHashMap<>();
+    private LongSupplier nanoClock = System::nanoTime;
+
+    /** How the job is scheduled, i.e. its {@code @Scheduled} attribute. */
+    public enum Trigger {
+        FIXED_RATE,
+        FIXED_DELAY
+    }
+
+    public ScheduledJobGuard(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    void setNanoClock(LongSupplier nanoClock) { // this is for testing
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Runs {@code body} unless it would overlap or merely catch up on a previous run.
+     *
+     * @param trigger how the job is scheduled, which decides when its next run was due
+     * @return true if the body ran
+     */
+    public boolean run(String job, Trigger trigger, Duration interval, Runnable body) {
+        JobState state = jobs.computeIfAbsent(job, this::newState);
+        if (!state.running.compareAndSet(false, true)) {
+            skip(job, "overlap");
+            return false;
+        }
+
+        try {
+            long start = nanoClock.getAsLong();
+            long intervalNanos = interval.toNanos();
+            boolean fixedRate = trigger == Trigger.FIXED_RATE;
+            // Only a run that comes before the next one is due is a catch-up; a tenth of the interval
+            // allows for the scheduler firing a regular run slightly early
+            if (fixedRate && state.lastStart != 0 && start < state.lastStart + intervalNanos - intervalNanos / 10) {
+                skip(job, "coalesced");
+                return false;
+            }
+            if (state.lastStart != 0) {
+                // A fixed-delay run is due an interval after the previous one ended, not started
+                long due = (fixedRate ? state.lastStart : state.lastEnd) + intervalNanos;
+                state.lagTimer.record(Math.max(start - due, 0), TimeUnit.NANOSECONDS);
+            }
+            state.lastStart = start;
+
+            try {
+                body.run();
+            } catch (Exception e) {
+                logger.error("Scheduled job {} failed: {}", job, e.getMessage(), e);
+            } finally {
+                state.lastEnd = nanoClock.getAsLong();
+                state.durationTimer.record(state.lastEnd - start, TimeUnit.NANOSECONDS);
+            }
+            return true;
+        } finally {
+            state.running.set(false);
+        }
+    }
+
+    private void skip(String job, String reason) {
+        logger.debug("Skipped a run of {} ({}).", job, reason);
+        meterRegistry.counter("capsule.job.skipped", "job", job, "reason", reason).increment();
+    }
+
+    private JobState newState(String job) {
+        return new JobState(
+                Timer.builder("capsule.job.duration").tag("job", job)
+                        .description("Run time of a scheduled job")
+                        .register(meterRegistry),
+                Timer.builder("capsule.job.lag").tag("job", job)
+                        .description("How late a scheduled job started compared to its interval")
+                        .register(meterRegistry));
+    }
+
+    private static final class JobState {
+        private final AtomicBoolean running = new AtomicBoolean();
+        private final Timer durationTimer;
+        private final Timer lagTimer;
+        private volatile long lastStart;
+        private volatile long lastEnd;
+
+        private JobState(Timer durationTimer, Timer lagTimer) {
+            this.durationTimer = durationTimer;
+            this.lagTimer = lagTimer;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.timecapsule.scheduler;
+
+import com.example.timecapsule.config.SchedulingConfig;
+import com.example.timecapsule.model.SchedulerCheckpoint;
+import com.example.timecapsule.model.TimeCapsule;
+import com.example.timecapsule.repository.SchedulerCheckpointRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Catch-up mode for capsules that are already overdue, e.g. after an outage. Instead of loading
+ * the whole backlog, it walks a Mongo cursor over id and unlockDate only and hands fixed-size
+ * pages to the unlock stage, saving a checkpoint after each page, so memory stays flat no matter
+ * how large the backlog is.
+ */
+@Component
+public class UnlockBacklogDrain {
+
+    private static final Logger logger = LoggerFactory.getLogger(UnlockBacklogDrain.class);
+
+    static final String CHECKPOINT_ID = "unlock-backlog";
+
+    private final MongoTemplate mongoTemplate;
+    private final SchedulerCheckpointRepository checkpointRepository;
+    private final CapsuleUnlockScheduler unlockScheduler;
+    private final ScheduledJobGuard jobGuard;
+
+    @Value("${capsule.unlock.backlog-page-size:500}")
+    private int pageSize = 500;
+
+    @Value("${capsule.unlock.backlog-drain-ms:30000}")
+    private long drainMs = 30_000;
+
+    public UnlockBacklogDrain(MongoTemplate mongoTemplate,
+                              SchedulerCheckpointRepository checkpointRepository,
+                              CapsuleUnlockScheduler unlockScheduler,
+                              ScheduledJobGuard jobGuard) {
+        this.mongoTemplate = mongoTemplate;
+        this.checkpointRepository = checkpointRepository;
+        this.unlockScheduler = unlockScheduler;
+        this.jobGuard = jobGuard;
+    }
+
+    public void setPageSize(int pageSize) { // this is for testing
+        this.pageSize = pageSize;
+    }
+
+    @Scheduled(fixedDelayString = "${capsule.unlock.backlog-drain-ms:30000}", scheduler = SchedulingConfig.BACKLOG_SCHEDULER)
+    public void drain() {
+        jobGuard.run("unlock-backlog", ScheduledJobGuard.Trigger.FIXED_DELAY, Duration.ofMillis(drainMs), this::drainBacklog);
+    }
+
+    private void drainBacklog() {
+        SchedulerCheckpoint checkpoint = checkpointRepository.findById(CHECKPOINT_ID).orElse(null);
+        int drained = 0;
+
+        try (Stream<TimeCapsule> overdue = mongoTemplate.stream(backlogQuery(Instant.now(), checkpoint), TimeCapsule.class)) {
+            Iterator<TimeCapsule> cursor = overdue.iterator();
+            List<String> page = new ArrayList<>(pageSize);
+            TimeCapsule last = null;
+            while (cursor.hasNext()) {
+                last = cursor.next();
+                page.add(last.getId());
+                if (page.size() == pageSize) {
+                    drained += flush(page, last);
+                }
+            }
+            if (!page.isEmpty()) {
+                drained += flush(page, last);
+            }
+        }
+
+        // A full pass finished: start from the beginning next time so skipped capsules are retried
+        if (checkpoint != null || drained > 0) {
+            checkpointRepository.deleteById(CHECKPOINT_ID);
+        }
+        if (drained > 0) {
+            logger.info("Backlog drain handed {} overdue capsules to the unlock stage.", drained);
+        }
+    }
+
+    private int flush(List<String> page, TimeCapsule last) {
+        int size = page.size();
+        unlockScheduler.unlockDue(new ArrayList<>(page));
+        checkpointRepository.save(new SchedulerCheckpoint(CHECKPOINT_ID, last.getUnlockDate(), last.getId()));
+        page.clear();
+        return size;
+    }
+
+    Query backlogQuery(Instant now, SchedulerCheckpoint checkpoint) {
+        Criteria criteria = where("status").is(TimeCapsule.CapsuleStatus.LOCKED).and("unlockDate").lte(now);
+        if (checkpoint != null && checkpoint.getLastUnlockDate() != null) {
+            criteria = new Criteria().andOperator(criteria, new Criteria().orOperator(
+                    where("unlockDate").gt(checkpoint.getLastUnlockDate()),
+                    where("unlockDate").is(checkpoint.getLastUnlockDate()).and("_id").gt(checkpoint.getLastCapsuleId())));
+        }
+
+        Query query = Query.query(criteria)
+                .with(Sort.by("unlockDate", "_id"))
+                .cursorBatchSize(pageSize);
+        query.fields().include("unlockDate");
+        return query;
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.timecapsule.scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Holds the capsules that unlock inside the current look-ahead window, ordered by unlock date,
+ * and wakes up exactly when the earliest one is due instead of polling Mongo on a fixed rate.
+ * Capsules further out are loaded by {@link CapsuleUnlockScheduler} as the window advances.
+ */
+@Component
+public class UnlockTimingWheel {
+
+    private static final Logger logger = LoggerFactory.getLogger(UnlockTimingWheel.class);
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "capsule-unlock-wheel");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(
+            Comparator.comparing(Entry::unlockDate).thenComparing(Entry::capsuleId));
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    @Value("${capsule.unlock.window-ms:300000}")
+    private long windowMs;
+
+    private Instant horizon = Instant.EPOCH;
+    private ScheduledFuture<?> wakeUp;
+    private Instant wakeUpAt;
+    private volatile Consumer<List<String>> dueHandler = ids -> { };
+
+    public void setWindowMs(long windowMs) { // this is for testing
+        this.windowMs = windowMs;
+    }
+
+    public Duration getWindow() {
+        return Duration.ofMillis(windowMs);
+    }
+
+    /** Registers the callback that receives the ids of capsules whose unlock date has been reached. */
+    public void onDue(Consumer<List<String>> dueHandler) {
+        this.dueHandler = dueHandler;
+    }
+
+    /** Moves the look-ahead horizon forward; capsules unlocking before it are expected to be tracked. */
+    public synchronized void advanceHorizon(Instant horizon) {
+        if (horizon.isAfter(this.horizon)) {
+            this.horizon = horizon;
+        }
+    }
+
+    public synchronized Instant getHorizon() {
+        return horizon;
+    }
+
+    /**
+     * Adds or moves a capsule. Capsules beyond the current horizon are dropped from the wheel
+     * and will be picked up again by the next refill.
+     */
+    public synchronized void track(String capsuleId, Instant unlockDate) {
+        if (capsuleId == null || unlockDate == null) {
+            return;
+        }
+        removeEntry(capsuleId);
+        if (!unlockDate.isBefore(horizon)) {
+            return;
+        }
+        Entry entry = new Entry(capsuleId, unlockDate);
+        entries.put(capsuleId, entry);
+        queue.add(entry);
+        scheduleWakeUp();
+    }
+
+    public synchronized void untrack(String capsuleId) {
+        if (removeEntry(capsuleId)) {
+            scheduleWakeUp();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private boolean removeEntry(String capsuleId) {
+        Entry existing = entries.remove(capsuleId);
+        if (existing == null) {
+            return false;
+        }
+        queue.remove(existing);
+        return true;
+    }
+
+    private void scheduleWakeUp() {
+        Entry head = queue.peek();
+        if (head == null) {
+            cancelWakeUp();
+            return;
+        }
+        if (wakeUp != null && wakeUpAt != null && !wakeUpAt.isAfter(head.unlockDate())) {
+            return; // already waking up early enough
+        }
+        cancelWakeUp();
+        long delayMs = Math.max(0, Duration.between(Instant.now(), head.unlockDate()).toMillis());
+        wakeUpAt = head.unlockDate();
+        wakeUp = executor.schedule(this::fireDue, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelWakeUp() {
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+            wakeUp = null;
+            wakeUpAt = null;
+        }
+    }
+
+    private void fireDue() {
+        List<String> due = new ArrayList<>();
+        synchronized (this) {
+            wakeUp = null;
+            wakeUpAt = null;
+            Instant now = Instant.now();
+            while (!queue.isEmpty() && !queue.peek().unlockDate().isAfter(now)) {
+                Entry entry = queue.poll();
+                entries.remove(entry.capsuleId());
+                due.add(entry.capsuleId());
+            }
+        }
+
+        if (!due.isEmpty()) {
+            logger.debug("Timing wheel fired for {} capsules.", due.size());
+            try {
+                dueHandler.accept(due);
+            } catch (Exception e) {
+                logger.error("Failed to handle {} due capsules: {}", due.size(), e.getMessage(), e);
+            }
+        }
+
+        synchronized (this) {
+            scheduleWakeUp();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private record Entry(String capsuleId, Instant unlockDate) {
+    }
+}
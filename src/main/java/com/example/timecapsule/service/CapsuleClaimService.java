@@ -0,0 +1,106 @@
+package com.example.timecapsule.service;
+
+import com.example.timecapsule.model.TimeCapsule;
+import com.example.timecapsule.repository.TimeCapsuleRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Lets several app instances share the due capsules without unlocking one twice.
+ * Each capsule is claimed with findAndModify under a lease; if a node dies while holding claims,
+ * another node picks them up once the lease expires.
+ */
+@Service
+public class CapsuleClaimService {
+
+    private final TimeCapsuleRepository capsuleRepository;
+    private final String nodeId;
+
+    @Value("${capsule.unlock.lease-ms:120000}")
+    private long leaseMs = 120_000;
+
+    public CapsuleClaimService(TimeCapsuleRepository capsuleRepository,
+                               @Value("${capsule.unlock.node-id:}") String nodeId) {
+        this.capsuleRepository = capsuleRepository;
+        this.nodeId = (nodeId == null || nodeId.isBlank()) ? defaultNodeId() : nodeId;
+    }
+
+    public void setLeaseMs(long leaseMs) { // this is for testing
+        this.leaseMs = leaseMs;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /** Claims the given capsules; ids that are not due or already claimed elsewhere are skipped. */
+    public List<TimeCapsule> claim(Collection<String> capsuleIds) {
+        Instant now = Instant.now();
+        List<TimeCapsule> claimed = new ArrayList<>();
+        for (String capsuleId : capsuleIds) {
+            capsuleRepository.claimForUnlock(capsuleId, nodeId, now, leaseUntil(now)).ifPresent(claimed::add);
+        }
+        return claimed;
+    }
+
+    /** Claims up to {@code limit} UNLOCKING capsules whose previous claim expired. */
+    public List<TimeCapsule> claimExpired(int limit) {
+        Instant now = Instant.now();
+        List<TimeCapsule> claimed = new ArrayList<>();
+        while (claimed.size() < limit) {
+            var next = capsuleRepository.claimNextExpired(nodeId, now, leaseUntil(now));
+            if (next.isEmpty()) {
+                break;
+            }
+            claimed.add(next.get());
+        }
+        return claimed;
+    }
+
+    /** Claims up to {@code limit} capsules that were unlocked but never handed to the outbox. */
+    public List<TimeCapsule> claimUnnotified(int limit) {
+        Instant now = Instant.now();
+        List<TimeCapsule> claimed = new ArrayList<>();
+        while (claimed.size() < limit) {
+            var next = capsuleRepository.claimNextUnnotified(nodeId, now, leaseUntil(now));
+            if (next.isEmpty()) {
+                break;
+            }
+            claimed.add(next.get());
+        }
+        return claimed;
+    }
+
+    public Set<String> unlock(Map<String, String> accessTokensById) {
+        return capsuleRepository.unlockBatch(accessTokensById, nodeId);
+    }
+
+    public long release(Collection<String> capsuleIds) {
+        return capsuleRepository.releaseClaims(capsuleIds, nodeId);
+    }
+
+    /** Lease end for a claim taken now; used by other stages that claim with the same node id. */
+    public Instant leaseUntil(Instant now) {
+        return now.plus(Duration.ofMillis(leaseMs));
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "node";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.timecapsule.service;
+
+import com.example.timecapsule.config.SchedulingConfig;
+import com.example.timecapsule.model.FileMetadata;
+import com.example.timecapsule.model.TimeCapsule;
+import com.example.timecapsule.model.UploadSession;
+import com.example.timecapsule.repository.TimeCapsuleRepository;
+import com.example.timecapsule.repository.UploadSessionRepository;
+import com.example.timecapsule.scheduler.ScheduledJobGuard;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Resumable uploads: a session is started for one file, its bytes arrive as chunks at explicit
+ * offsets and are written with positional writes straight into the final file, and finalizing
+ * attaches the file to the capsule. The committed offset only moves once a chunk is forced to
+ * disk, so after a dropped connection the client asks for it and continues from there.
+ * Completing claims the session first, records the name the file was stored under and appends the
+ * file entry to a still LOCKED capsule with one atomic push; the session is only marked COMPLETED
+ * after that push succeeded.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadService.class);
+
+    private static final String NOT_EDITABLE = "Capsule can no longer be changed: it has been unlocked.";
+
+    private final UploadSessionRepository sessionRepository;
+    private final TimeCapsuleRepository capsuleRepository;
+    private final FileStorageService fileStorageService;
+    private final ScheduledJobGuard jobGuard;
+
+    @Value("${file.upload.max-size-bytes:5368709120}")
+    private long maxSizeBytes = 5L * 1024 * 1024 * 1024;
+
+    @Value("${file.upload.session-ttl-ms:86400000}")
+    private long sessionTtlMs = 86_400_000;
+
+    @Value("${file.upload.complete-lease-ms:600000}")
+    private long completeLeaseMs = 600_000;
+
+    @Value("${file.upload.purge-ms:3600000}")
+    private long purgeMs = 3_600_000;
+
+    @Value("${file.upload.write-buffer-bytes:262144}")
+    private int writeBufferBytes = 256 * 1024;
+
+    public ChunkedUploadService(UploadSessionRepository sessionRepository,
+                                TimeCapsuleRepository capsuleRepository,
+                                FileStorageService fileStorageService,
+                                ScheduledJobGuard jobGuard) {
+        this.sessionRepository = sessionRepository;
+        this.capsuleRepository = capsuleRepository;
+        this.fileStorageService = fileStorageService;
+        this.jobGuard = jobGuard;
+    }
+
+    public void setMaxSizeBytes(long maxSizeBytes) { // this is for testing
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    public UploadSession start(String capsuleId, String username, String originalName, String contentType, long totalSize) {
+        if (totalSize <= 0 || totalSize > maxSizeBytes) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "File size must be between 1 and " + maxSizeBytes + " bytes.");
+        }
+        ownedCapsule(capsuleId, username);
+
+        Instant now = Instant.now();
+        UploadSession session = new UploadSession();
+        session.setId(UUID.randomUUID().toString());
+        session.setCapsuleId(capsuleId);
+        session.setOwnerUsername(username);
+        session.setOriginalName(originalName);
+        session.setContentType(contentType);
+        session.setTotalSize(totalSize);
+        session.setFileName(FileStorageService.uniqueFileName(originalName));
+        session.setCommittedOffset(0);
+        session.setStatus(UploadSession.Status.OPEN);
+        session.setCreatedAt(now);
+        session.setUpdatedAt(now);
+        session.setExpiresAt(now.plusMillis(sessionTtlMs));
+        return sessionRepository.save(session);
+    }
+
+    public UploadSession getSession(String sessionId, String username) {
+        UploadSession session = sessionRepository.findById(sessionId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload session not found."));
+        if (!session.getOwnerUsername().equals(username)) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Access denied: not your upload.");
+        }
+        return session;
+    }
+
+    /**
+     * Writes one chunk at {@code offset}, which must be the committed offset. Bytes that arrived
+     * before the client went away are kept and committed.
+     *
+     * @param length the chunk size if the client declared it, or -1
+     * @return the new committed offset
+     */
+    public long writeChunk(String sessionId, String username, long offset, long length, InputStream body) throws IOException {
+        UploadSession session = getSession(sessionId, username);
+        if (session.getStatus() != UploadSession.Status.OPEN) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload is already complete.");
+        }
+        if (offset != session.getCommittedOffset()) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "Expected offset " + session.getCommittedOffset() + " but got " + offset + ".");
+        }
+        long remaining = session.getTotalSize() - offset;
+        if (length > remaining) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Chunk runs past the declared file size.");
+        }
+
+        long position = offset;
+        IOException interrupted = null;
+        try (FileChannel out = FileChannel.open(fileStorageService.pathFor(session.getFileName()),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ReadableByteChannel in = Channels.newChannel(body);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(writeBufferBytes);
+            try {
+                while (position < session.getTotalSize()) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), session.getTotalSize() - position));
+                    if (in.read(buffer) < 0) {
+                        break;
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        position += out.write(buffer, position);
+                    }
+                }
+            } catch (IOException e) {
+                // Client went away mid-chunk: keep what was written so it can resume from there
+                interrupted = e;
+            }
+            out.force(false);
+        }
+
+        Instant now = Instant.now();
+        if (position > offset
+                && !sessionRepository.advanceOffset(sessionId, offset, position, now, now.plusMillis(sessionTtlMs))) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Another chunk was committed at offset " + offset + ".");
+        }
+        if (interrupted != null) {
+            logger.info("Upload {} interrupted at offset {}: {}", sessionId, position, interrupted.getMessage());
+            throw interrupted;
+        }
+        return position;
+    }
+
+    /** Attaches the fully uploaded file to its capsule. */
+    public FileMetadata complete(String sessionId, String username) throws IOException {
+        UploadSession session = getSession(sessionId, username);
+        if (session.getStatus() != UploadSession.Status.OPEN) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload is already complete.");
+        }
+        if (session.getCommittedOffset() != session.getTotalSize()) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload is incomplete: "
+                    + session.getCommittedOffset() + " of " + session.getTotalSize() + " bytes received.");
+        }
+        TimeCapsule capsule = ownedCapsule(session.getCapsuleId(), username);
+        if (capsule.getStatus() != TimeCapsule.CapsuleStatus.LOCKED) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, NOT_EDITABLE);
+        }
+        Instant now = Instant.now();
+        if (!sessionRepository.claimCompletion(sessionId, session.getTotalSize(), now, now.plusMillis(completeLeaseMs))) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload is already complete.");
+        }
+
+        // The bytes arrived over several requests, so the digest (if wanted) is taken from the file
+        FileMetadata metadata;
+        try {
+            metadata = fileStorageService.deduplicate(new FileMetadata(session.getFileName(),
+                    session.getOriginalName(), session.getContentType(), session.getTotalSize(),
+                    fileStorageService.pathFor(session.getFileName()).toString(), null), username);
+        } catch (IOException | RuntimeException e) {
+            sessionRepository.reopen(sessionId, Instant.now(), Instant.now().plusMillis(sessionTtlMs));
+            throw e;
+        }
+
+        // In content-addressed mode the stored name is the digest, so it is remembered before the
+        // push: the purge needs it to find the attached entry, or to release the blob reference
+        boolean recorded;
+        try {
+            recorded = sessionRepository.recordStoredFile(sessionId, metadata.getFileName(), Instant.now());
+        } catch (RuntimeException e) {
+            fileStorageService.deleteFile(metadata.getFileName());
+            throw e;
+        }
+        if (!recorded) {
+            // The lease ran out and the purge took the session
+            fileStorageService.deleteFile(metadata.getFileName());
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload session expired before it was completed.");
+        }
+
+        if (!capsuleRepository.addFilesIfLocked(capsule.getId(), List.of(metadata))) {
+            // Unlocked (or deleted) while the file was being stored: it will never be attached
+            fileStorageService.deleteFile(metadata.getFileName());
+            sessionRepository.deleteById(sessionId);
+            throw new ResponseStatusException(HttpStatus.CONFLICT, NOT_EDITABLE);
+        }
+        Instant done = Instant.now();
+        sessionRepository.markCompleted(sessionId, done, done.plusMillis(sessionTtlMs));
+        return metadata;
+    }
+
+    public void abort(String sessionId, String username) throws IOException {
+        UploadSession session = getSession(sessionId, username);
+        if (session.getStatus() != UploadSession.Status.OPEN) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Upload is already complete.");
+        }
+        discard(session);
+    }
+
+    @Scheduled(fixedDelayString = "${file.upload.purge-ms:3600000}", scheduler = SchedulingConfig.UPLOAD_SCHEDULER)
+    public void purgeExpiredSessions() {
+        jobGuard.run("upload-purge", ScheduledJobGuard.Trigger.FIXED_DELAY, Duration.ofMillis(purgeMs), () -> {
+            for (UploadSession session : sessionRepository.findByExpiresAtBefore(Instant.now())) {
+                try {
+                    if (session.getStatus() == UploadSession.Status.COMPLETED || isAttached(session)) {
+                        sessionRepository.deleteById(session.getId()); // the file belongs to the capsule now
+                    } else {
+                        discard(session);
+                    }
+                } catch (IOException e) {
+                    logger.warn("Failed to purge upload {}: {}", session.getId(), e.getMessage());
+                }
+            }
+        });
+    }
+
+    /** Whether a completion that never finished got as far as attaching the file in place. */
+    private boolean isAttached(UploadSession session) {
+        String storedFileName = session.getStoredFileName();
+        return session.getStatus() == UploadSession.Status.COMPLETING
+                && storedFileName != null
+                && capsuleRepository.findById(session.getCapsuleId())
+                .map(TimeCapsule::getFileMetadataList)
+                .filter(files -> files.stream().anyMatch(file -> storedFileName.equals(file.getFileName())
+                        && Objects.equals(session.getOriginalName(), file.getOriginalName())))
+                .isPresent();
+    }
+
+    /** Drops an upload that was never attached: its partial file, or the stored file (blob reference) of a dead completion. */
+    private void discard(UploadSession session) throws IOException {
+        if (session.getStoredFileName() != null) {
+            fileStorageService.deleteFile(session.getStoredFileName());
+        }
+        Files.deleteIfExists(fileStorageService.pathFor(session.getFileName()));
+        sessionRepository.deleteById(session.getId());
+    }
+
+    private TimeCapsule ownedCapsule(String capsuleId, String username) {
+        TimeCapsule capsule = capsuleRepository.findById(capsuleId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Capsule not found."));
+        if (!capsule.getOwnerUsername().equals(username)) {
+            throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Unauthorized to upload to this capsule");
+        }
+        return capsule;
+    }
+}
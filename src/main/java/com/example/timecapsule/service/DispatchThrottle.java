@@ -0,0 +1,114 @@
+package com.example.timecapsule.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Smooths the side effects of an unlock (quote, email, recipient clicks) over time. Date-only
+ * capsules all unlock at 23:59:59.999 IST; their visibility flips on time, but each notification
+ * is due at a stable offset inside the smoothing window, and the sender never exceeds the
+ * configured dispatches per second.
+ */
+@Component
+public class DispatchThrottle {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final Counter dispatchedCounter;
+    private final Timer waitTimer;
+
+    @Value("${capsule.dispatch.smoothing-window-ms:300000}")
+    private long smoothingWindowMs = 300_000;
+
+    @Value("${capsule.dispatch.max-per-second:50}")
+    private int maxPerSecond = 50;
+
+    private long nextFreeAt = System.nanoTime() - NANOS_PER_SECOND;
+    private long currentSecond;
+    private long currentSecondCount;
+    private long lastSecondCount;
+
+    public DispatchThrottle(MeterRegistry meterRegistry) {
+        this.dispatchedCounter = meterRegistry.counter("capsule.dispatch.sent");
+        this.waitTimer = Timer.builder("capsule.dispatch.wait")
+                .description("Time a notification waited for the dispatch rate ceiling")
+                .register(meterRegistry);
+        Gauge.builder("capsule.dispatch.per-second", this, DispatchThrottle::getLastSecondCount)
+                .description("Notifications dispatched during the last full second")
+                .register(meterRegistry);
+    }
+
+    public void setSmoothingWindowMs(long smoothingWindowMs) { // this is for testing
+        this.smoothingWindowMs = smoothingWindowMs;
+    }
+
+    public void setMaxPerSecond(int maxPerSecond) { // this is for testing
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    /**
+     * When a notification should go out: its unlock date plus an offset hashed from
+     * {@code dispatchKey}, so a re-queued notification keeps the same slot. Never before now.
+     * The unlock scheduler keys by capsule id plus recipient email, which spreads every
+     * (capsule, recipient) pair on its own rather than sending all recipients of a capsule at once.
+     */
+    public Instant dispatchAt(String dispatchKey, Instant unlockDate, Instant now) {
+        Instant base = unlockDate != null ? unlockDate : now;
+        long offsetMs = smoothingWindowMs > 0 ? Math.floorMod(dispatchKey.hashCode(), smoothingWindowMs) : 0;
+        Instant slot = base.plus(Duration.ofMillis(offsetMs));
+        return slot.isAfter(now) ? slot : now;
+    }
+
+    /**
+     * Blocks until the rate ceiling lets one more notification out. Up to one second's worth of
+     * dispatches may go out back to back after an idle period.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        waitTimer.record(Math.max(waitNanos, 0), TimeUnit.NANOSECONDS);
+        recordDispatch();
+    }
+
+    private synchronized long reserve() {
+        if (maxPerSecond <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long interval = NANOS_PER_SECOND / maxPerSecond;
+        nextFreeAt = Math.max(nextFreeAt, now - NANOS_PER_SECOND + interval);
+        long waitNanos = nextFreeAt - now;
+        nextFreeAt += interval;
+        return waitNanos;
+    }
+
+    private synchronized void recordDispatch() {
+        rollSecond();
+        currentSecondCount++;
+        dispatchedCounter.increment();
+    }
+
+    synchronized long getLastSecondCount() {
+        rollSecond();
+        return lastSecondCount;
+    }
+
+    private void rollSecond() {
+        long second = System.currentTimeMillis() / 1000;
+        if (second != currentSecond) {
+            lastSecondCount = second == currentSecond + 1 ? currentSecondCount : 0;
+            currentSecond = second;
+            currentSecondCount = 0;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.timecapsule.service;
+
+import com.example.timecapsule.config.SchedulingConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket per recipient domain in front of the SMTP sends. Each domain starts at the initial
+ * rate; a 4xx deferral halves it and a slow send cuts it by a quarter, while every fast, accepted
+ * send adds a little back (AIMD). Callers never wait on a bucket: mail for a domain without a
+ * token is parked for {@link #parkDelay(String)} and the rest keeps flowing.
+ * <p>
+ * Domains come from user input, so buckets are swept once idle: one back at the initial rate is
+ * dropped after {@code idle-ms}, since a fresh bucket behaves the same, while a slowed one keeps
+ * its lowered rate for {@code slowed-idle-ms}. A bucket with parked mail still to come due is
+ * not idle.
+ */
+@Component
+public class DomainRateLimiter {
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Counter throttledCounter;
+    private final Counter deferralCounter;
+
+    @Value("${capsule.smtp.domain.initial-per-second:5}")
+    private double initialPerSecond = 5;
+
+    @Value("${capsule.smtp.domain.min-per-second:0.2}")
+    private double minPerSecond = 0.2;
+
+    @Value("${capsule.smtp.domain.max-per-second:50}")
+    private double maxPerSecond = 50;
+
+    @Value("${capsule.smtp.domain.increase-per-second:0.5}")
+    private double increasePerSecond = 0.5;
+
+    @Value("${capsule.smtp.domain.slow-ms:2000}")
+    private long slowMs = 2000;
+
+    @Value("${capsule.smtp.domain.idle-ms:600000}")
+    private long idleMs = 600_000;
+
+    @Value("${capsule.smtp.domain.slowed-idle-ms:3600000}")
+    private long slowedIdleMs = 3_600_000;
+
+    public DomainRateLimiter(MeterRegistry meterRegistry) {
+        this.throttledCounter = meterRegistry.counter("capsule.smtp.domain.throttled");
+        this.deferralCounter = meterRegistry.counter("capsule.smtp.domain.deferrals");
+        Gauge.builder("capsule.smtp.domain.slowed", this, DomainRateLimiter::slowedDomains)
+                .description("Recipient domains currently sent to below the initial rate")
+                .register(meterRegistry);
+        Gauge.builder("capsule.smtp.domain.tracked", buckets, Map::size)
+                .description("Recipient domains with a token bucket")
+                .register(meterRegistry);
+    }
+
+    public void setInitialPerSecond(double initialPerSecond) { // this is for testing
+        this.initialPerSecond = initialPerSecond;
+    }
+
+    public void setSlowMs(long slowMs) { // this is for testing
+        this.slowMs = slowMs;
+    }
+
+    public void setIdleMs(long idleMs) { // this is for testing
+        this.idleMs = idleMs;
+    }
+
+    public void setSlowedIdleMs(long slowedIdleMs) { // this is for testing
+        this.slowedIdleMs = slowedIdleMs;
+    }
+
+    public static String domainOf(String email) {
+        if (email == null) {
+            return "";
+        }
+        int at = email.lastIndexOf('@');
+        return email.substring(at + 1).trim().toLowerCase(Locale.ROOT);
+    }
+
+    /** Takes a token for the domain if one is available; never blocks. */
+    public boolean tryAcquire(String domain) {
+        boolean acquired = bucket(domain).tryAcquire();
+        if (!acquired) {
+            throttledCounter.increment();
+        }
+        return acquired;
+    }
+
+    /** How long until the domain has a token again. */
+    public Duration retryAfter(String domain) {
+        return bucket(domain).retryAfter();
+    }
+
+    /**
+     * How long to park one more message for the domain. Each call takes the next free slot at the
+     * domain's rate, so the n-th parked message comes due about n / rate from now instead of all
+     * of them waking up together when the next single token arrives.
+     */
+    public Duration parkDelay(String domain) {
+        return bucket(domain).reserveSlot();
+    }
+
+    /** An accepted send; {@code latency} is the average time per message of its SMTP batch. */
+    public void onSuccess(String domain, Duration latency) {
+        Bucket bucket = bucket(domain);
+        if (latency.toMillis() > slowMs) {
+            bucket.adjust(bucket.getRate() * 0.75);
+        } else {
+            bucket.adjust(bucket.getRate() + increasePerSecond);
+        }
+    }
+
+    /** The domain answered with a temporary (4xx) rejection, e.g. greylisting or rate limiting. */
+    public void onDeferral(String domain) {
+        deferralCounter.increment();
+        Bucket bucket = bucket(domain);
+        bucket.adjust(bucket.getRate() / 2);
+        bucket.drain();
+    }
+
+    public double getRate(String domain) {
+        return bucket(domain).getRate();
+    }
+
+    /**
+     * Drops the buckets of domains nothing was sent to for a while. A send racing the sweep may
+     * still use the bucket it already looked up; at worst that domain starts afresh one token early.
+     */
+    @Scheduled(fixedDelayString = "${capsule.smtp.domain.sweep-ms:60000}", scheduler = SchedulingConfig.NOTIFY_SCHEDULER)
+    public void evictIdle() {
+        long now = System.nanoTime();
+        buckets.entrySet().removeIf(entry -> {
+            Bucket bucket = entry.getValue();
+            long idleFor = bucket.idleNanos(now);
+            return idleFor >= TimeUnit.MILLISECONDS.toNanos(slowedIdleMs)
+                    || idleFor >= TimeUnit.MILLISECONDS.toNanos(idleMs) && bucket.getRate() >= initialPerSecond;
+        });
+    }
+
+    private Bucket bucket(String domain) {
+        return buckets.computeIfAbsent(domain, d -> new Bucket(initialPerSecond));
+    }
+
+    private double slowedDomains() {
+        return buckets.values().stream().filter(b -> b.getRate() < initialPerSecond).count();
+    }
+
+    private final class Bucket {
+        private double rate;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+        private long lastSlot = lastRefill; // the latest time handed out to parked mail
+
+        private Bucket(double rate) {
+            this.rate = rate;
+            this.tokens = Math.max(rate, 1);
+        }
+
+        synchronized boolean tryAcquire() {
+            refill();
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized Duration retryAfter() {
+            refill();
+            double missing = Math.max(1 - tokens, 0);
+            return Duration.ofNanos((long) (missing / rate * TimeUnit.SECONDS.toNanos(1)));
+        }
+
+        synchronized Duration reserveSlot() {
+            refill();
+            long now = lastRefill;
+            long firstFree = now + (long) (Math.max(1 - tokens, 0) / rate * TimeUnit.SECONDS.toNanos(1));
+            long next = lastSlot + (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+            lastSlot = firstFree - next >= 0 ? firstFree : next;
+            return Duration.ofNanos(lastSlot - now);
+        }
+
+        synchronized void adjust(double newRate) {
+            refill();
+            rate = Math.min(Math.max(newRate, minPerSecond), maxPerSecond);
+        }
+
+        synchronized void drain() {
+            tokens = 0;
+        }
+
+        synchronized double getRate() {
+            return rate;
+        }
+
+        /** Time since the bucket was last used or its last parked slot came due, whichever is later. */
+        synchronized long idleNanos(long now) {
+            long lastActive = lastSlot - lastRefill > 0 ? lastSlot : lastRefill;
+            return now - lastActive;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            double capacity = Math.max(rate, 1);
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+        }
+    }
+}
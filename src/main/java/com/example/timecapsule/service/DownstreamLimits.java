@@ -0,0 +1,84 @@
+package com.example.timecapsule.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps how many concurrent calls the unlock pipeline makes to each external system, so fanning
+ * work out over many threads cannot overload Mongo, Gemini or the SMTP server.
+ */
+@Component
+public class DownstreamLimits {
+
+    public enum Downstream {
+        MONGO,
+        GEMINI,
+        SMTP
+    }
+
+    private final Map<Downstream, Semaphore> permits = new EnumMap<>(Downstream.class);
+    private final Map<Downstream, Integer> limits = new EnumMap<>(Downstream.class);
+    private final Map<Downstream, Counter> rejected = new EnumMap<>(Downstream.class);
+
+    public DownstreamLimits(@Value("${capsule.limits.mongo:16}") int mongo,
+                            @Value("${capsule.limits.gemini:8}") int gemini,
+                            @Value("${capsule.limits.smtp:4}") int smtp,
+                            MeterRegistry meterRegistry) {
+        register(Downstream.MONGO, mongo, meterRegistry);
+        register(Downstream.GEMINI, gemini, meterRegistry);
+        register(Downstream.SMTP, smtp, meterRegistry);
+    }
+
+    private void register(Downstream downstream, int limit, MeterRegistry meterRegistry) {
+        Semaphore semaphore = new Semaphore(limit, true);
+        permits.put(downstream, semaphore);
+        limits.put(downstream, limit);
+        Gauge.builder("capsule.downstream.in-flight", semaphore, s -> limit - s.availablePermits())
+                .tag("downstream", downstream.name().toLowerCase())
+                .register(meterRegistry);
+        rejected.put(downstream, meterRegistry.counter("capsule.downstream.rejected",
+                "downstream", downstream.name().toLowerCase()));
+    }
+
+    public <T> T call(Downstream downstream, Callable<T> call) throws Exception {
+        Semaphore semaphore = permits.get(downstream);
+        semaphore.acquire();
+        try {
+            return call.call();
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    /**
+     * Like {@link #call}, but acts as a bulkhead: if no permit frees up within {@code maxWait} the
+     * call is rejected with a {@link RejectedExecutionException} instead of queueing.
+     */
+    public <T> T tryCall(Downstream downstream, Duration maxWait, Callable<T> call) throws Exception {
+        Semaphore semaphore = permits.get(downstream);
+        if (!semaphore.tryAcquire(maxWait.toNanos(), TimeUnit.NANOSECONDS)) {
+            rejected.get(downstream).increment();
+            throw new RejectedExecutionException("Too many concurrent calls to " + downstream.name().toLowerCase());
+        }
+        try {
+            return call.call();
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    public int getLimit(Downstream downstream) {
+        return limits.get(downstream);
+    }
+}
@@ -1,56 +1,432 @@
 package com.example.timecapsule.service;
 
-import com.example.timecapsule.model.TimeCapsule;
+import com.example.timecapsule.config.SchedulingConfig;
+import com.example.timecapsule.model.CapsuleNotification;
+import com.example.timecapsule.repository.CapsuleNotificationRepository;
 import com.example.timecapsule.repository.TimeCapsuleRepository;
-import com.example.timecapsule.security.JwtUtils;
+import com.example.timecapsule.scheduler.ScheduledJobGuard;
+import com.example.timecapsule.service.DownstreamLimits.Downstream;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.SimpleMailMessage;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Sender stage of the unlock pipeline: drains the notification outbox filled by
+ * {@link com.example.timecapsule.scheduler.CapsuleUnlockScheduler}. Each notification is claimed
+ * before it is sent and marked SENT afterwards, so it goes out once even with several nodes.
+ * Emails are pushed in batches over one SMTP connection; failures back off exponentially and
+ * end up as DEAD_LETTER when they cannot be delivered.
+ */
 @Service
 public class EmailSchedulerService {
 
+    private static final Logger logger = LoggerFactory.getLogger(EmailSchedulerService.class);
+
+    static final String DEFAULT_TOPIC = "memories";
+    static final String FALLBACK_QUOTE = "“Cherish yesterday, dream tomorrow, live today.”";
+
+    private final CapsuleNotificationRepository notificationRepository;
     private final TimeCapsuleRepository capsuleRepository;
+    private final CapsuleClaimService claimService;
     private final EmailService emailService;
-    private final JwtUtils jwtUtils;
-    private final QuoteService quoteService;
+    private final QuoteCache quoteCache;
+    private final QuoteCorpus quoteCorpus;
+    private final DownstreamLimits limits;
+    private final DispatchThrottle dispatchThrottle;
+    private final DomainRateLimiter domainLimiter;
+    private final ExecutorService executor;
+    private final ScheduledJobGuard jobGuard;
+    private final Timer latencyTimer;
+    private final Counter failureCounter;
+    private final Counter deadLetterCounter;
+    private final Counter digestCounter;
+
+    @Value("${capsule.notify.batch-size:100}")
+    private int batchSize = 100;
+
+    @Value("${capsule.notify.drain-ms:2000}")
+    private long drainMs = 2000;
+
+    @Value("${capsule.notify.retry-delay-ms:60000}")
+    private long retryDelayMs = 60_000;
+
+    @Value("${capsule.notify.max-retry-delay-ms:3600000}")
+    private long maxRetryDelayMs = 3_600_000;
+
+    @Value("${capsule.notify.max-attempts:8}")
+    private int maxAttempts = 8;
+
+    @Value("${capsule.notify.smtp-batch-size:50}")
+    private int smtpBatchSize = 50;
+
+    @Value("${capsule.notify.digest-window-ms:60000}")
+    private long digestWindowMs = 60_000;
+
+    @Value("${capsule.notify.max-digest-size:50}")
+    private int maxDigestSize = 50;
+
+    @Value("${capsule.notify.fetch-quote-on-miss:false}")
+    private boolean fetchQuoteOnMiss = false;
 
-    public EmailSchedulerService(TimeCapsuleRepository capsuleRepository,
+    @Value("${capsule.notify.viewer-url:http://localhost:3000/capsules/view/}")
+    private String viewerUrl = "http://localhost:3000/capsules/view/";
+
+    public EmailSchedulerService(CapsuleNotificationRepository notificationRepository,
+                                 TimeCapsuleRepository capsuleRepository,
+                                 CapsuleClaimService claimService,
                                  EmailService emailService,
-                                 JwtUtils jwtUtils,
-                                 QuoteService quoteService) {
+                                 QuoteCache quoteCache,
+                                 QuoteCorpus quoteCorpus,
+                                 DownstreamLimits limits,
+                                 DispatchThrottle dispatchThrottle,
+                                 DomainRateLimiter domainLimiter,
+                                 @Qualifier("capsuleNotifyExecutor") ExecutorService executor,
+                                 ScheduledJobGuard jobGuard,
+                                 MeterRegistry meterRegistry) {
+        this.notificationRepository = notificationRepository;
         this.capsuleRepository = capsuleRepository;
+        this.claimService = claimService;
         this.emailService = emailService;
-        this.jwtUtils = jwtUtils;
-        this.quoteService = quoteService;
+        this.quoteCache = quoteCache;
+        this.quoteCorpus = quoteCorpus;
+        this.limits = limits;
+        this.dispatchThrottle = dispatchThrottle;
+        this.domainLimiter = domainLimiter;
+        this.executor = executor;
+        this.jobGuard = jobGuard;
+        this.latencyTimer = Timer.builder("capsule.notify.latency")
+                .description("Time to quote, send and record one capsule notification")
+                .register(meterRegistry);
+        this.failureCounter = meterRegistry.counter("capsule.notify.failures");
+        this.deadLetterCounter = meterRegistry.counter("capsule.notify.dead-letter");
+        this.digestCounter = meterRegistry.counter("capsule.notify.digests");
     }
 
-    @Scheduled(fixedRate = 60_000) // Every minute
-    public void checkAndSendCapsules() {
-        Instant now = Instant.now();
-        List<TimeCapsule> dueCapsules = capsuleRepository
-                .findByUnlockDateBeforeAndStatus(now, TimeCapsule.CapsuleStatus.LOCKED);
+    public void setBatchSize(int batchSize) { // this is for testing
+        this.batchSize = batchSize;
+    }
 
-        for (TimeCapsule capsule : dueCapsules) {
-            try {
-                String token = jwtUtils.generateJwtToken(capsule.getId());
-                String secureLink = "https://your-domain.com/capsules/unlock?token=" + token;
+    public void setSmtpBatchSize(int smtpBatchSize) { // this is for testing
+        this.smtpBatchSize = smtpBatchSize;
+    }
 
-                // Use capsule topic, fallback to "memories"
-                String topic = capsule.getTopic() != null ? capsule.getTopic() : "memories";
-                String quote = quoteService.getQuote(topic);
+    public void setMaxAttempts(int maxAttempts) { // this is for testing
+        this.maxAttempts = maxAttempts;
+    }
 
-                // Send email
-                emailService.sendCapsuleUnlockEmail(capsule, secureLink, quote);
+    public void setDigestWindowMs(long digestWindowMs) { // this is for testing
+        this.digestWindowMs = digestWindowMs;
+    }
 
-                capsule.setStatus(TimeCapsule.CapsuleStatus.UNLOCKED);
-                capsuleRepository.save(capsule);
+    public void setFetchQuoteOnMiss(boolean fetchQuoteOnMiss) { // this is for testing
+        this.fetchQuoteOnMiss = fetchQuoteOnMiss;
+    }
+
+    @Scheduled(fixedDelayString = "${capsule.notify.drain-ms:2000}", scheduler = SchedulingConfig.NOTIFY_SCHEDULER)
+    public void drainOutbox() {
+        jobGuard.run("notify-drain", ScheduledJobGuard.Trigger.FIXED_DELAY, Duration.ofMillis(drainMs), this::drainClaimed);
+    }
 
+    private void drainClaimed() {
+        List<CapsuleNotification> claimed;
+        int parked;
+        do {
+            claimed = claimBatch();
+            parked = 0;
+            // Notifications for the same recipient are merged into one digest. Quotes are fetched
+            // in parallel, then the emails go out in SMTP batches per recipient domain that each
+            // reuse one connection. Mail for a throttled domain is parked instead.
+            // The whole batch is awaited so claims never outlive their lease; a failure is handled
+            // per group, so it never stops the rest of the batch from being sent and recorded.
+            List<CompletableFuture<PreparedEmail>> prepared = new ArrayList<>();
+            for (List<CapsuleNotification> group : coalesceByRecipient(claimed)) {
+                String domain = DomainRateLimiter.domainOf(group.get(0).getRecipientEmail());
+                if (domainLimiter.tryAcquire(domain)) {
+                    prepared.add(prepareAsync(group));
+                } else {
+                    group.forEach(notification -> park(notification, domain));
+                    parked += group.size();
+                }
+            }
+            Map<String, List<PreparedEmail>> byDomain = new LinkedHashMap<>();
+            prepared.stream().map(CompletableFuture::join).filter(Objects::nonNull).forEach(email -> byDomain
+                    .computeIfAbsent(DomainRateLimiter.domainOf(email.recipient()), d -> new ArrayList<>())
+                    .add(email));
+
+            List<CompletableFuture<Void>> sends = new ArrayList<>();
+            byDomain.forEach((domain, emails) -> {
+                for (int from = 0; from < emails.size(); from += smtpBatchSize) {
+                    List<PreparedEmail> chunk = emails.subList(from, Math.min(from + smtpBatchSize, emails.size()));
+                    sends.add(CompletableFuture.runAsync(() -> sendBatch(domain, chunk), executor)
+                            .exceptionally(e -> {
+                                // Outcomes are recorded per notification inside sendBatch; whatever
+                                // was not recorded is picked up again once its claim lease expires
+                                logger.error("SMTP batch for {} failed: {}", domain, unwrap(e).getMessage());
+                                return null;
+                            }));
+                }
+            });
+            CompletableFuture.allOf(sends.toArray(new CompletableFuture[0])).join();
+            // A batch that was mostly parked means the backlog is waiting on throttled domains;
+            // claiming more now would only park them too, so leave the rest for the next run
+        } while (claimed.size() == batchSize && parked * 2 <= claimed.size());
+    }
+
+    /**
+     * Groups the claimed notifications by recipient and pulls in that recipient's other
+     * notifications falling due within the digest window, so they share one email.
+     */
+    List<List<CapsuleNotification>> coalesceByRecipient(List<CapsuleNotification> claimed) {
+        Map<String, List<CapsuleNotification>> byRecipient = new LinkedHashMap<>();
+        for (CapsuleNotification notification : claimed) {
+            byRecipient.computeIfAbsent(notification.getRecipientEmail(), r -> new ArrayList<>()).add(notification);
+        }
+        if (digestWindowMs <= 0) {
+            return new ArrayList<>(byRecipient.values());
+        }
+
+        Instant now = Instant.now();
+        Instant dueBefore = now.plus(Duration.ofMillis(digestWindowMs));
+        Instant leaseUntil = claimService.leaseUntil(now);
+        for (Map.Entry<String, List<CapsuleNotification>> entry : byRecipient.entrySet()) {
+            List<CapsuleNotification> group = entry.getValue();
+            try {
+                while (group.size() < maxDigestSize) {
+                    Optional<CapsuleNotification> next = notificationRepository.claimNextForRecipient(
+                            entry.getKey(), claimService.getNodeId(), now, dueBefore, leaseUntil);
+                    if (next.isEmpty()) {
+                        break;
+                    }
+                    group.add(next.get());
+                }
             } catch (Exception e) {
-                System.err.println("Error sending email for capsule " + capsule.getId() + ": " + e.getMessage());
+                // The digest is an optimization; send what is already claimed
+                logger.warn("Failed to collect digest for {}: {}", entry.getKey(), e.getMessage());
+            }
+            if (group.size() > 1) {
+                digestCounter.increment();
             }
         }
+        return new ArrayList<>(byRecipient.values());
+    }
+
+    private CompletableFuture<PreparedEmail> prepareAsync(List<CapsuleNotification> group) {
+        CompletableFuture<PreparedEmail> future;
+        try {
+            future = CompletableFuture.supplyAsync(() -> prepare(group), executor);
+        } catch (RejectedExecutionException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return future.exceptionally(e -> {
+            // Rendering failed before anything was sent: back to the outbox with the usual backoff
+            Exception error = unwrap(e);
+            for (CapsuleNotification notification : group) {
+                try {
+                    handleFailure(notification, error);
+                } catch (Exception recordError) {
+                    logger.error("Failed to reschedule notification {}: {}", notification.getId(), recordError.getMessage());
+                }
+            }
+            return null;
+        });
+    }
+
+    private static Exception unwrap(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return cause instanceof Exception exception ? exception : new IllegalStateException(cause);
+    }
+
+    private void park(CapsuleNotification notification, String domain) {
+        try {
+            notificationRepository.park(notification.getId(), claimService.getNodeId(),
+                    Instant.now().plus(domainLimiter.parkDelay(domain)));
+            logger.debug("Parked notification {} while {} is throttled.", notification.getId(), domain);
+        } catch (Exception e) {
+            // The claim lease expires on its own and the notification is picked up again
+            logger.error("Failed to park notification {}: {}", notification.getId(), e.getMessage());
+        }
+    }
+
+    private List<CapsuleNotification> claimBatch() {
+        Instant now = Instant.now();
+        Instant leaseUntil = claimService.leaseUntil(now);
+        List<CapsuleNotification> claimed = new ArrayList<>();
+        while (claimed.size() < batchSize) {
+            Optional<CapsuleNotification> next = notificationRepository.claimNextDue(claimService.getNodeId(), now, leaseUntil);
+            if (next.isEmpty()) {
+                break;
+            }
+            claimed.add(next.get());
+        }
+        return claimed;
+    }
+
+    /**
+     * Waits for the dispatch rate ceiling, then takes the quote the prefetcher prepared and renders
+     * the email: a single unlock email, or a digest when the recipient has several capsules.
+     */
+    PreparedEmail prepare(List<CapsuleNotification> group) {
+        try {
+            dispatchThrottle.acquire();
+        } catch (InterruptedException e) {
+            // Shutting down; the claim lease expires and another run sends it
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        long start = System.nanoTime();
+        CapsuleNotification first = group.get(0);
+
+        // Use capsule topic, fallback to "memories"; a digest mixing topics uses the default
+        boolean mixedTopics = group.stream().anyMatch(n -> !Objects.equals(first.getTopic(), n.getTopic()));
+        String quoteTopic = first.getTopic() != null && !mixedTopics ? first.getTopic() : DEFAULT_TOPIC;
+        String quote = quoteFor(quoteTopic);
+
+        SimpleMailMessage message;
+        if (group.size() == 1) {
+            message = emailService.buildCapsuleUnlockEmail(first.getRecipientEmail(), first.getOwnerUsername(),
+                    quoteTopic, viewerUrl + first.getPublicAccessToken(), quote);
+        } else {
+            List<EmailService.CapsuleLink> links = group.stream()
+                    .map(n -> new EmailService.CapsuleLink(n.getOwnerUsername(), viewerUrl + n.getPublicAccessToken()))
+                    .toList();
+            message = emailService.buildCapsuleDigestEmail(first.getRecipientEmail(), links, quoteTopic, quote);
+        }
+        return new PreparedEmail(group, message, start);
+    }
+
+    /**
+     * The prepared quote for the topic. A topic the prefetcher has not warmed gets a quote from
+     * the offline corpus rather than holding the send on Gemini, unless fetch-quote-on-miss is
+     * set; it is warmed in the background for the next email.
+     */
+    private String quoteFor(String topic) {
+        Optional<String> prepared = quoteCache.getPreparedQuote(topic);
+        if (prepared.isPresent()) {
+            return prepared.get();
+        }
+        if (!fetchQuoteOnMiss) {
+            quoteCache.warmAsync(topic);
+            logger.debug("No prepared quote for topic '{}', using the corpus.", topic);
+            return localQuote(topic);
+        }
+        try {
+            // QuoteService applies the Gemini deadline, circuit breaker and bulkhead
+            return quoteCache.getQuote(topic);
+        } catch (Exception e) {
+            logger.warn("Failed to fetch quote for topic '{}': {}", topic, e.getMessage());
+            return localQuote(topic);
+        }
+    }
+
+    private String localQuote(String topic) {
+        return quoteCorpus.lookup(topic).orElse(FALLBACK_QUOTE);
+    }
+
+    void sendBatch(String domain, List<PreparedEmail> batch) {
+        Map<SimpleMailMessage, Exception> failures;
+        long sendStart = System.nanoTime();
+        try {
+            List<SimpleMailMessage> messages = batch.stream().map(PreparedEmail::message).toList();
+            failures = limits.call(Downstream.SMTP, () -> emailService.sendBatch(messages));
+        } catch (Exception e) {
+            failures = new IdentityHashMap<>();
+            for (PreparedEmail email : batch) {
+                failures.put(email.message(), e);
+            }
+        }
+        try {
+            adaptDomainRate(domain, batch.size(), failures.values(), System.nanoTime() - sendStart);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to adapt the send rate for {}: {}", domain, e.getMessage());
+        }
+
+        for (PreparedEmail email : batch) {
+            Exception error = failures.get(email.message());
+            for (CapsuleNotification notification : email.notifications()) {
+                try {
+                    if (error == null) {
+                        limits.call(Downstream.MONGO, () -> {
+                            Instant sentAt = Instant.now();
+                            notificationRepository.markSent(notification.getId(), claimService.getNodeId(), sentAt);
+                            capsuleRepository.markRecipientNotified(notification.getCapsuleId(), notification.getRecipientEmail(), sentAt);
+                            return capsuleRepository.markNotified(notification.getCapsuleId());
+                        });
+                        logger.info("Unlock email for capsule {} sent to {}", notification.getCapsuleId(), notification.getRecipientEmail());
+                    } else {
+                        handleFailure(notification, error);
+                    }
+                } catch (Exception e) {
+                    // The claim lease expires on its own and the notification is picked up again
+                    logger.error("Failed to record outcome of notification {}: {}", notification.getId(), e.getMessage());
+                } finally {
+                    latencyTimer.record(System.nanoTime() - email.startNanos(), TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+    }
+
+    private void adaptDomainRate(String domain, int sent, Collection<Exception> failures, long elapsedNanos) {
+        boolean deferred = failures.stream().map(EmailService::smtpReplyCode).anyMatch(code -> code >= 400 && code < 500);
+        if (deferred) {
+            domainLimiter.onDeferral(domain);
+        } else if (failures.size() < sent) {
+            domainLimiter.onSuccess(domain, Duration.ofNanos(elapsedNanos / sent));
+        }
+    }
+
+    /**
+     * Retries with exponential backoff; a permanent SMTP rejection or too many attempts moves
+     * the notification to the dead-letter state instead.
+     */
+    private void handleFailure(CapsuleNotification notification, Exception error) {
+        failureCounter.increment();
+        logger.error("Error sending email for capsule {}: {}", notification.getCapsuleId(), error.getMessage());
+
+        Instant now = Instant.now();
+        if (EmailService.isPermanentFailure(error) || notification.getAttempts() >= maxAttempts) {
+            deadLetterCounter.increment();
+            logger.warn("Notification {} moved to dead letter after {} attempts.", notification.getId(), notification.getAttempts());
+            notificationRepository.deadLetter(notification.getId(), claimService.getNodeId(), now, error.getMessage());
+        } else {
+            notificationRepository.reschedule(notification.getId(), claimService.getNodeId(),
+                    now.plus(retryDelay(notification.getAttempts())), error.getMessage());
+        }
+    }
+
+    /** Delay before the next attempt: the base retry delay doubled per attempt, capped. */
+    Duration retryDelay(int attempts) {
+        int doublings = Math.min(Math.max(attempts - 1, 0), 20);
+        return Duration.ofMillis(Math.min(retryDelayMs << doublings, maxRetryDelayMs));
+    }
+
+    record PreparedEmail(List<CapsuleNotification> notifications, SimpleMailMessage message, long startNanos) {
+
+        String recipient() {
+            return notifications.get(0).getRecipientEmail();
+        }
     }
 }
@@ -1,11 +1,19 @@
 package com.example.timecapsule.service;
 
 import com.example.timecapsule.model.TimeCapsule;
+import jakarta.mail.MessagingException;
+import org.eclipse.angus.mail.smtp.SMTPAddressFailedException;
+import org.eclipse.angus.mail.smtp.SMTPSendFailedException;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
 
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
 @Service
 public class EmailService {
 
@@ -23,39 +31,121 @@ public class EmailService {
     }
 
     public void sendCapsuleUnlockEmail(TimeCapsule capsule, String secureLink, String quote) {
-        String recipient = capsule.getRecipientEmail();
-        String subject = "🎁 A Digital Time Capsule Just Arrived!";
+        sendCapsuleUnlockEmail(capsule.getRecipientEmail(), capsule.getOwnerUsername(), capsule.getTopic(), secureLink, quote);
+    }
 
-        String body = """
-        Hello!
+    public void sendCapsuleUnlockEmail(String recipient, String ownerUsername, String topic, String viewerLink, String quote) {
+        SimpleMailMessage message = buildCapsuleUnlockEmail(recipient, ownerUsername, topic, viewerLink, quote);
+        sendSimpleMessage(recipient, message.getSubject(), message.getText());
+    }
 
-        You’ve received a digital time capsule from the past 🎉.
-        Click below to view the contents:
+    public SimpleMailMessage buildCapsuleUnlockEmail(String recipient, String ownerUsername, String topic, String viewerLink, String quote) {
+        String subject = "🎁 Your Digital Time Capsule Is Ready!";
+        String body = String.format(
+                "Hi %s,\n\nYour digital time capsule from %s is now unlocked and ready to access! " +
+                        "Click the link below to view your memories:\n\n%s\n\n" +
+                        "✨ Quote on '%s' ✨\n%s\n\nEnjoy!",
+                recipient,
+                ownerUsername,
+                viewerLink,
+                topic != null ? topic : "memories",
+                quote != null ? quote : ""
+        );
+
+        return buildMessage(recipient, subject, body);
+    }
 
-        %s
 
-        %s
+    /**
+     * One email listing several capsules unlocked for the same recipient, instead of one email
+     * (and one quote) per capsule.
+     */
+    public SimpleMailMessage buildCapsuleDigestEmail(String recipient, List<CapsuleLink> capsules, String topic, String quote) {
+        String subject = String.format("🎁 %d Digital Time Capsules Are Ready!", capsules.size());
+        StringBuilder links = new StringBuilder();
+        for (CapsuleLink capsule : capsules) {
+            links.append(String.format("• From %s: %s\n", capsule.ownerUsername(), capsule.viewerLink()));
+        }
+        String body = String.format(
+                "Hi %s,\n\n%d digital time capsules are now unlocked and ready to access! " +
+                        "Click the links below to view your memories:\n\n%s\n" +
+                        "✨ Quote on '%s' ✨\n%s\n\nEnjoy!",
+                recipient,
+                capsules.size(),
+                links,
+                topic != null ? topic : "memories",
+                quote != null ? quote : ""
+        );
+
+        return buildMessage(recipient, subject, body);
+    }
 
-        Best,
-        Time Capsule Team
-        """.formatted(secureLink, (quote != null && !quote.isBlank()) ? "\n✨ Quote:\n" + quote : "");
+    public void sendSimpleMessage(String recipientEmail, String subject, String body) {
+        mailSender.send(buildMessage(recipientEmail, subject, body));
+    }
 
-        SimpleMailMessage message = new SimpleMailMessage();
-        message.setTo(recipient);
-        message.setFrom(fromEmail);
-        message.setSubject(subject);
-        message.setText(body);
+    /**
+     * Sends the messages over a single SMTP connection instead of one connection (and TLS
+     * handshake) per message. A message that is rejected does not stop the others.
+     *
+     * @return the messages that failed, with their error; empty if all were accepted
+     */
+    public Map<SimpleMailMessage, Exception> sendBatch(List<SimpleMailMessage> messages) {
+        Map<SimpleMailMessage, Exception> failures = new IdentityHashMap<>();
+        if (messages.isEmpty()) {
+            return failures;
+        }
+        try {
+            mailSender.send(messages.toArray(new SimpleMailMessage[0]));
+        } catch (MailSendException e) {
+            Map<Object, Exception> failedMessages = e.getFailedMessages();
+            for (SimpleMailMessage message : messages) {
+                if (failedMessages.isEmpty()) {
+                    failures.put(message, e);
+                } else if (failedMessages.containsKey(message)) {
+                    failures.put(message, failedMessages.get(message));
+                }
+            }
+        } catch (RuntimeException e) {
+            messages.forEach(message -> failures.put(message, e));
+        }
+        return failures;
+    }
 
-        mailSender.send(message);
+    /**
+     * SMTP reply code behind a send failure (e.g. 450 or 550), or -1 if the server never answered
+     * with one, as on a connection error.
+     */
+    public static int smtpReplyCode(Throwable error) {
+        Throwable current = error;
+        while (current != null) {
+            if (current instanceof SMTPAddressFailedException addressFailed) {
+                return addressFailed.getReturnCode();
+            }
+            if (current instanceof SMTPSendFailedException sendFailed) {
+                return sendFailed.getReturnCode();
+            }
+            Throwable next = current instanceof MessagingException messaging ? messaging.getNextException() : null;
+            current = next != null ? next : current.getCause();
+        }
+        return -1;
     }
 
+    /** A 5xx reply means the message will never be accepted, so retrying is pointless. */
+    public static boolean isPermanentFailure(Throwable error) {
+        int code = smtpReplyCode(error);
+        return code >= 500 && code < 600;
+    }
 
-    public void sendSimpleMessage(String recipientEmail, String subject, String body) {
+    public record CapsuleLink(String ownerUsername, String viewerLink) {
+    }
+
+    private SimpleMailMessage buildMessage(String recipientEmail, String subject, String body) {
         SimpleMailMessage message = new SimpleMailMessage();
         message.setTo(recipientEmail);
         message.setFrom(fromEmail);
         message.setSubject(subject);
         message.setText(body);
-        mailSender.send(message);
+        return message;
     }
 }
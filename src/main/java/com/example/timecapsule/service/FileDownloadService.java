@@ -0,0 +1,277 @@
+package com.example.timecapsule.service;
+
+import com.example.timecapsule.model.FileMetadata;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Serves stored files with HTTP range support: {@code Range} for one or several byte ranges
+ * (206, multipart/byteranges for several), {@code If-Range} so a resumed download never mixes two
+ * versions of a file, and 416 for ranges past the end. On Tomcat a whole file or a single range is
+ * handed to the connector's sendfile, so the kernel copies it from disk to socket. That is the only
+ * zero-copy path: everything else (other containers, small bodies, multipart/byteranges) has to go
+ * through the servlet output stream and is copied with one buffer of {@code file.download.buffer-bytes}
+ * per response.
+ *
+ * <p>Stored files never change once written, so their entity tag comes from the metadata (digest,
+ * or the unique stored name and size) and their modification time is given by the caller; a
+ * matching {@code If-None-Match} or {@code If-Modified-Since} is answered with 304 before the file
+ * is even looked at.
+ */
+@Service
+public class FileDownloadService {
+
+    // Tomcat's sendfile contract (the same attributes its DefaultServlet uses)
+    static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // More ranges than this (after merging) are answered with the whole file
+    private static final int MAX_RANGES = 16;
+
+    @Value("${file.download.sendfile:true}")
+    private boolean sendfileEnabled = true;
+
+    @Value("${file.download.sendfile-min-bytes:49152}")
+    private long sendfileMinBytes = 48 * 1024;
+
+    @Value("${file.download.buffer-bytes:65536}")
+    private int bufferBytes = 64 * 1024;
+
+    public void setSendfileEnabled(boolean sendfileEnabled) { // this is for testing
+        this.sendfileEnabled = sendfileEnabled;
+    }
+
+    /** Strong entity tag of a stored file, known without touching the disk. */
+    public static String entityTag(FileMetadata metadata) {
+        String version = metadata.getSha256() != null
+                ? metadata.getSha256()
+                : metadata.getFileName() + "-" + Long.toHexString(metadata.getSize());
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Answers a matching {@code If-None-Match} or {@code If-Modified-Since} with 304 from the
+     * validators alone.
+     *
+     * @param lastModified the same modification time later passed to {@link #serve}
+     * @return true if the response is complete
+     */
+    public boolean notModified(String etag, long lastModified, HttpServletRequest request, HttpServletResponse response) {
+        return (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null || request.getHeader(HttpHeaders.IF_MODIFIED_SINCE) != null)
+                && new ServletWebRequest(request, response).checkNotModified(etag, lastModified)
+                && response.getStatus() == HttpServletResponse.SC_NOT_MODIFIED;
+    }
+
+    /**
+     * Writes the file, or the requested ranges of it, as the response, after the conditional
+     * headers (If-None-Match, If-Modified-Since, If-Match, If-Unmodified-Since) are evaluated.
+     * {@code cacheControl} (if not null) is only sent with a 200, 206 or 304, never with a 412 or
+     * 416. Other headers not describing the body (e.g. Content-Disposition) are left to the caller.
+     *
+     * @param modifiedAt when the stored content last changed, in epoch milliseconds
+     */
+    public void serve(File file, String contentType, String etag, long modifiedAt, String cacheControl,
+                      HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long length = file.length();
+        long lastModified = modifiedAt / 1000 * 1000; // HTTP dates have second precision
+        boolean head = "HEAD".equals(request.getMethod());
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        // Sets ETag and Last-Modified, and the 304 or 412 status when a condition says so
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            if (response.getStatus() == HttpServletResponse.SC_NOT_MODIFIED) {
+                cacheable(response, cacheControl);
+            }
+            return;
+        }
+
+        List<long[]> ranges = requestedRanges(request, etag, lastModified, length);
+        if (ranges == null) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            cacheable(response, cacheControl);
+            response.setContentType(contentType);
+            response.setContentLengthLong(length);
+            if (!head) {
+                send(file, 0, length, request, response);
+            }
+            return;
+        }
+        if (ranges.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        cacheable(response, cacheControl);
+        if (ranges.size() == 1) {
+            long[] range = ranges.get(0);
+            response.setContentType(contentType);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, contentRange(range, length));
+            response.setContentLengthLong(range[1] - range[0] + 1);
+            if (!head) {
+                send(file, range[0], range[1] - range[0] + 1, request, response);
+            }
+            return;
+        }
+
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        List<byte[]> partHeaders = new ArrayList<>();
+        long contentLength = 0;
+        for (long[] range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(range, length) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + range[1] - range[0] + 1;
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closing.length;
+
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLengthLong(contentLength);
+        if (head) {
+            return;
+        }
+        OutputStream out = response.getOutputStream();
+        byte[] buffer = new byte[bufferBytes];
+        try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (int i = 0; i < ranges.size(); i++) {
+                long[] range = ranges.get(i);
+                out.write(partHeaders.get(i));
+                copy(source, range[0], range[1] - range[0] + 1, out, buffer);
+            }
+        }
+        out.write(closing);
+    }
+
+    /**
+     * The ranges to serve as inclusive [start, end] pairs, sorted and merged; null to serve the
+     * whole file (no usable Range, or a stale If-Range), empty if none can be satisfied.
+     */
+    List<long[]> requestedRanges(HttpServletRequest request, String etag, long lastModified, long length) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null) {
+            return null;
+        }
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRangeMatches(ifRange.trim(), etag, lastModified)) {
+            return null;
+        }
+
+        List<HttpRange> parsed;
+        try {
+            parsed = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            return null; // a Range header that cannot be parsed is ignored
+        }
+
+        List<long[]> satisfiable = new ArrayList<>();
+        for (HttpRange range : parsed) {
+            try {
+                long start = range.getRangeStart(length);
+                long end = range.getRangeEnd(length);
+                if (start < length && start <= end) {
+                    satisfiable.add(new long[]{start, end});
+                }
+            } catch (IllegalArgumentException e) {
+                // not satisfiable for this length
+            }
+        }
+
+        satisfiable.sort(Comparator.comparingLong(range -> range[0]));
+        List<long[]> merged = new ArrayList<>();
+        for (long[] range : satisfiable) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && range[0] <= last[1] + 1) {
+                last[1] = Math.max(last[1], range[1]);
+            } else {
+                merged.add(range);
+            }
+        }
+        return merged.size() > MAX_RANGES ? null : merged;
+    }
+
+    /** If-Range holds our strong entity tag or the Last-Modified date we sent; weak tags never match. */
+    private static boolean ifRangeMatches(String ifRange, String etag, long lastModified) {
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            Instant date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return date.toEpochMilli() == lastModified;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private void send(File file, long start, long count, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (sendfileEnabled && count >= sendfileMinBytes && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            // The connector writes the file once the request returns, kernel to socket
+            request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + count);
+            return;
+        }
+        try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            copy(source, start, count, response.getOutputStream(), new byte[(int) Math.min(bufferBytes, Math.max(count, 1))]);
+        }
+    }
+
+    /**
+     * Copies {@code count} bytes from {@code start} with positional reads into {@code buffer}. A
+     * servlet output stream is not a channel the kernel can write to, so transferTo into it would
+     * only add a second copy through its own temporary buffer.
+     */
+    private static void copy(FileChannel source, long start, long count, OutputStream out, byte[] buffer) throws IOException {
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        long position = start;
+        long end = start + count;
+        while (position < end) {
+            wrapped.clear().limit((int) Math.min(buffer.length, end - position));
+            int read = source.read(wrapped, position);
+            if (read <= 0) {
+                throw new IOException("File ended before byte " + end + " could be sent");
+            }
+            out.write(buffer, 0, read);
+            position += read;
+        }
+    }
+
+    private static void cacheable(HttpServletResponse response, String cacheControl) {
+        if (cacheControl != null) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        }
+    }
+
+    private static String contentRange(long[] range, long length) {
+        return "bytes " + range[0] + "-" + range[1] + "/" + length;
+    }
+}
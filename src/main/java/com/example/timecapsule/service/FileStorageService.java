@@ -1,57 +1,240 @@
 package com.example.timecapsule.service;
 
 import com.example.timecapsule.model.FileMetadata;
+import com.example.timecapsule.model.StoredBlob;
+import com.example.timecapsule.repository.StoredBlobRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.regex.Pattern;
 
+/**
+ * Stores capsule files in the upload directory. In content-addressed mode every file ends up under
+ * its SHA-256, so identical bytes are kept once however often they are uploaded; a {@link StoredBlob}
+ * counts the FileMetadata entries that point at it, and {@link #deleteFile} only removes the file
+ * with the last one. Reference changes for one digest are serialized on this node.
+ */
 @Service
 public class FileStorageService {
 
+    private static final Logger logger = LoggerFactory.getLogger(FileStorageService.class);
+
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+
+    private final StoredBlobRepository blobRepository;
+    private final Object[] digestLocks = new Object[64];
+
     @Value("${file.upload-dir}")
     private String uploadDir;
+
+    @Value("${file.upload.write-buffer-bytes:262144}")
+    private int writeBufferBytes = 256 * 1024;
+
+    @Value("${file.storage.content-addressed:true}")
+    private boolean contentAddressed = true;
+
+    public FileStorageService(StoredBlobRepository blobRepository) {
+        this.blobRepository = blobRepository;
+        for (int i = 0; i < digestLocks.length; i++) {
+            digestLocks[i] = new Object();
+        }
+    }
+
     public void setUploadDir(String uploadDir) { //this is for testing
         this.uploadDir = uploadDir;
     }
 
+    public void setContentAddressed(boolean contentAddressed) { // this is for testing
+        this.contentAddressed = contentAddressed;
+    }
 
     public FileMetadata storeFile(MultipartFile file) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return storeStream(null, file.getOriginalFilename(), file.getContentType(), in, Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Copies the stream into a new file under a unique name, hashing and counting the bytes in the
+     * same pass, so every byte is read once and written once. A partial file is removed on failure.
+     * In content-addressed mode the file is then folded into its blob.
+     *
+     * @param owner the uploading user, who may later attach the same bytes by hash; may be null
+     * @param maxBytes the largest accepted file; a longer stream fails with 413
+     */
+    public FileMetadata storeStream(String owner, String originalFilename, String contentType, InputStream in, long maxBytes) throws IOException {
         // Generate a unique filename to avoid conflicts
-        String originalFilename = file.getOriginalFilename();
+        String uniqueFileName = uniqueFileName(originalFilename);
+        Path filePath = pathFor(uniqueFileName);
+
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[writeBufferBytes];
+        long size = 0;
+        try (FileChannel out = FileChannel.open(filePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                size += read;
+                if (size > maxBytes) {
+                    throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                            "File " + originalFilename + " is larger than " + maxBytes + " bytes.");
+                }
+                digest.update(buffer, 0, read);
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                while (chunk.hasRemaining()) {
+                    out.write(chunk);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(filePath);
+            throw e;
+        }
+
+        // Prepare metadata to return
+        FileMetadata metadata = new FileMetadata();
+        metadata.setFileName(uniqueFileName);
+        metadata.setOriginalName(originalFilename);
+        metadata.setContentType(contentType);
+        metadata.setSize(size);
+        metadata.setStoragePath(filePath.toString());
+        metadata.setSha256(HexFormat.of().formatHex(digest.digest()));
+
+        return deduplicate(metadata, owner);
+    }
+
+    /**
+     * In content-addressed mode, turns a freshly stored file into a reference to the blob with the
+     * same content: the file becomes the blob if it is new and is deleted otherwise. The digest is
+     * computed first if the metadata has none. Without content addressing it is returned as is.
+     */
+    public FileMetadata deduplicate(FileMetadata stored, String owner) throws IOException {
+        if (!contentAddressed) {
+            return stored;
+        }
+        Path storedPath = pathFor(stored.getFileName());
+        if (stored.getSha256() == null) {
+            stored.setSha256(hashFile(storedPath));
+        }
+
+        String sha256 = stored.getSha256();
+        Path blobPath = pathFor(sha256);
+        synchronized (lockFor(sha256)) {
+            StoredBlob previous = blobRepository.addReference(sha256, stored.getSize(), owner, Instant.now());
+            try {
+                if (previous == null || previous.getRefCount() <= 0 || !Files.exists(blobPath)) {
+                    Files.move(storedPath, blobPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    Files.delete(storedPath);
+                    logger.debug("Stored {} as another reference to blob {}", stored.getOriginalName(), sha256);
+                }
+            } catch (IOException | RuntimeException e) {
+                blobRepository.release(sha256, Instant.now());
+                throw e;
+            }
+        }
+        stored.setFileName(sha256);
+        stored.setStoragePath(blobPath.toString());
+        return stored;
+    }
+
+    /**
+     * Attaches content the user uploaded before without sending the bytes again. Only the user's
+     * own blobs qualify, so a digest alone never gives access to someone else's file.
+     *
+     * @return metadata referencing the blob, or empty if the bytes have to be uploaded
+     */
+    public Optional<FileMetadata> referenceExisting(String sha256, String owner, String originalFilename, String contentType) throws IOException {
+        if (!contentAddressed || !isDigest(sha256)) {
+            return Optional.empty();
+        }
+        Path blobPath = pathFor(sha256);
+        synchronized (lockFor(sha256)) {
+            StoredBlob blob = blobRepository.addOwnedReference(sha256, owner, Instant.now());
+            if (blob == null) {
+                return Optional.empty();
+            }
+            if (!Files.exists(blobPath)) {
+                blobRepository.release(sha256, Instant.now());
+                return Optional.empty();
+            }
+            return Optional.of(new FileMetadata(sha256, originalFilename, contentType, blob.getSize(), blobPath.toString(), sha256));
+        }
+    }
+
+    private String hashFile(Path path) throws IOException {
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(writeBufferBytes);
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private Object lockFor(String sha256) {
+        return digestLocks[Math.floorMod(sha256.hashCode(), digestLocks.length)];
+    }
+
+    private static boolean isDigest(String fileName) {
+        return fileName != null && SHA256_HEX.matcher(fileName).matches();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JRE ships SHA-256
+        }
+    }
+
+    /** A unique stored filename keeping the original file's extension. */
+    public static String uniqueFileName(String originalFilename) {
         String fileExtension = "";
 
         if (originalFilename != null && originalFilename.contains(".")) {
             fileExtension = originalFilename.substring(originalFilename.lastIndexOf("."));
         }
+        // Never let a client-supplied name put path separators into the stored name
+        if (!fileExtension.matches("\\.[A-Za-z0-9]{1,16}")) {
+            fileExtension = "";
+        }
 
-        String uniqueFileName = UUID.randomUUID().toString() + fileExtension;
+        return UUID.randomUUID().toString() + fileExtension;
+    }
 
+    /** Where a stored file lives, creating the upload directory if needed. */
+    public Path pathFor(String fileName) throws IOException {
         // Make sure upload directory exists
         Path uploadPath = Paths.get(uploadDir);
         if (!Files.exists(uploadPath)) {
             Files.createDirectories(uploadPath);
         }
-
-        // Save the file locally
-        Path filePath = uploadPath.resolve(uniqueFileName);
-        file.transferTo(filePath.toFile());
-
-        // Prepare metadata to return
-        FileMetadata metadata = new FileMetadata();
-        metadata.setFileName(uniqueFileName);
-        metadata.setOriginalName(originalFilename);
-        metadata.setContentType(file.getContentType());
-        metadata.setSize(file.getSize());
-        metadata.setStoragePath(filePath.toString());
-
-        return metadata;
+        return uploadPath.resolve(fileName);
     }
 
     public FileMetadata saveFile(MultipartFile file) {
@@ -63,17 +246,21 @@ public class FileStorageService {
     }
 
     public File loadFile(String fileName) {
-        Path filePath = Paths.get(uploadDir).resolve(fileName).normalize();
-        File file = filePath.toFile();
-        if (file.exists() && file.isFile()) {
-            return file;
-        } else {
-            throw new RuntimeException("File not found: " + fileName);
-        }
+        return findFile(fileName).orElseThrow(() -> new RuntimeException("File not found: " + fileName));
+    }
+
+    /** The stored file, or empty if it is not on disk. */
+    public Optional<File> findFile(String fileName) {
+        File file = Paths.get(uploadDir).resolve(fileName).normalize().toFile();
+        return file.isFile() ? Optional.of(file) : Optional.empty();
     }
 
     // NEW: Method to delete a file from storage
     public void deleteFile(String fileName) throws IOException {
+        if (isDigest(fileName)) {
+            releaseBlob(fileName);
+            return;
+        }
         Path filePath = Paths.get(uploadDir).resolve(fileName).normalize();
         File file = filePath.toFile();
         if (file.exists() && file.isFile()) {
@@ -84,4 +271,51 @@ public class FileStorageService {
             System.out.println("Warning: Attempted to delete non-existent file: " + fileName);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Drops one reference to a blob and deletes its file once nothing references it. The lock only
+     * covers this node, and another node may reference the blob again at any point: so the deletion
+     * is claimed, the file is moved aside to a name only this call knows, and it is only deleted if
+     * the blob could still be removed under that claim. Otherwise it is moved back, or dropped if the
+     * new uploader has already put the same bytes in place.
+     */
+    private void releaseBlob(String sha256) throws IOException {
+        synchronized (lockFor(sha256)) {
+            long remaining = blobRepository.release(sha256, Instant.now());
+            if (remaining > 0) {
+                return;
+            }
+            String token = UUID.randomUUID().toString();
+            if (!blobRepository.claimDeletion(sha256, token)) {
+                return;
+            }
+
+            Path blobPath = pathFor(sha256);
+            Path aside = pathFor(sha256 + ".deleting-" + token);
+            boolean movedAside = true;
+            try {
+                Files.move(blobPath, aside, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException e) {
+                movedAside = false;
+            } catch (IOException e) {
+                blobRepository.abandonDeletion(sha256, token);
+                throw e;
+            }
+
+            if (blobRepository.removeIfClaimed(sha256, token)) {
+                Files.deleteIfExists(aside);
+                return;
+            }
+            // Referenced again in the meantime, so the bytes are still needed
+            logger.debug("Blob {} was referenced again while being deleted; keeping it", sha256);
+            if (movedAside) {
+                try {
+                    Files.move(aside, blobPath);
+                } catch (FileAlreadyExistsException e) {
+                    Files.delete(aside);
+                }
+            }
+            blobRepository.abandonDeletion(sha256, token);
+        }
+    }
+}
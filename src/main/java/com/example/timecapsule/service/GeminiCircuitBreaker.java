@@ -0,0 +1,144 @@
+package com.example.timecapsule.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Circuit breaker for the Gemini calls. It opens once the failure rate over the last
+ * {@code window-size} calls reaches the threshold; while open, callers are turned away at once and
+ * use their local quote instead of waiting on a timeout. After {@code open-ms} a single trial call
+ * is let through, and its outcome closes or re-opens the circuit.
+ */
+@Component
+public class GeminiCircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(GeminiCircuitBreaker.class);
+
+    /** Exported as the ordinal: 0 closed, 1 open, 2 half-open. */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final Deque<Boolean> outcomes = new ArrayDeque<>();
+    private final Counter rejectedCounter;
+    private final Counter openedCounter;
+
+    private State state = State.CLOSED;
+    private Instant openedAt;
+    private boolean trialInFlight;
+    private Clock clock = Clock.systemUTC();
+
+    @Value("${gemini.circuit.window-size:20}")
+    private int windowSize = 20;
+
+    @Value("${gemini.circuit.minimum-calls:5}")
+    private int minimumCalls = 5;
+
+    @Value("${gemini.circuit.failure-rate-threshold:0.5}")
+    private double failureRateThreshold = 0.5;
+
+    @Value("${gemini.circuit.open-ms:30000}")
+    private long openMs = 30_000;
+
+    public GeminiCircuitBreaker(MeterRegistry meterRegistry) {
+        this.rejectedCounter = meterRegistry.counter("capsule.gemini.circuit.rejected");
+        this.openedCounter = meterRegistry.counter("capsule.gemini.circuit.opened");
+        Gauge.builder("capsule.gemini.circuit.state", this, breaker -> breaker.getState().ordinal())
+                .description("Gemini circuit state: 0 closed, 1 open, 2 half-open")
+                .register(meterRegistry);
+    }
+
+    public void setClock(Clock clock) { // this is for testing
+        this.clock = clock;
+    }
+
+    public void setMinimumCalls(int minimumCalls) { // this is for testing
+        this.minimumCalls = minimumCalls;
+    }
+
+    /** Whether a call may go out now; a denied call should fall back without touching Gemini. */
+    public synchronized boolean tryAcquirePermission() {
+        if (state == State.OPEN && Duration.between(openedAt, clock.instant()).toMillis() >= openMs) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        boolean permitted = switch (state) {
+            case CLOSED -> true;
+            case OPEN -> false;
+            case HALF_OPEN -> !trialInFlight;
+        };
+        if (state == State.HALF_OPEN && permitted) {
+            trialInFlight = true;
+        }
+        if (!permitted) {
+            rejectedCounter.increment();
+        }
+        return permitted;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            logger.info("Gemini trial call succeeded, closing the circuit.");
+            state = State.CLOSED;
+            trialInFlight = false;
+            outcomes.clear();
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (outcomes.size() >= minimumCalls && failureRate() >= failureRateThreshold) {
+                open();
+            }
+        }
+    }
+
+    /** A permitted call that never reached Gemini, e.g. turned away by the bulkhead. */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failed) {
+        outcomes.addLast(failed);
+        while (outcomes.size() > windowSize) {
+            outcomes.removeFirst();
+        }
+    }
+
+    private double failureRate() {
+        return (double) outcomes.stream().filter(failed -> failed).count() / outcomes.size();
+    }
+
+    private void open() {
+        logger.warn("Gemini circuit opened; quotes fall back to the local quote for {} ms.", openMs);
+        state = State.OPEN;
+        openedAt = clock.instant();
+        trialInFlight = false;
+        outcomes.clear();
+        openedCounter.increment();
+    }
+}
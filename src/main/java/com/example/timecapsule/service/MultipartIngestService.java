@@ -0,0 +1,371 @@
+package com.example.timecapsule.service;
+
+import com.example.timecapsule.model.FileMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a multipart request body straight off the socket: form fields are kept in memory (they
+ * are small and bounded), and every file part is streamed into its final place in storage as it
+ * arrives, so nothing is spooled to a temp file first. Size and SHA-256 are computed on the way.
+ *
+ * <p>In parallel mode the request thread only reads: each file part is handed over in chunks to a
+ * writer on the storage executor, so hashing, writing and deduplicating one part overlap with
+ * receiving the next. A few chunks per part are in flight at most, and the number of parts being
+ * written is capped per request and across all requests. A request is all or nothing: if any part
+ * fails, every file it stored is removed.
+ */
+@Service
+public class MultipartIngestService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MultipartIngestService.class);
+
+    private static final int CHUNKS_IN_FLIGHT = 4;
+    private static final byte[] END_OF_PART = new byte[0];
+
+    private final FileStorageService fileStorageService;
+    private final ExecutorService storageExecutor;
+    private final Semaphore globalWriters;
+
+    @Value("${file.upload.max-size-bytes:5368709120}")
+    private long maxFileBytes = 5L * 1024 * 1024 * 1024;
+
+    @Value("${file.upload.max-field-bytes:65536}")
+    private int maxFieldBytes = 64 * 1024;
+
+    @Value("${file.upload.read-buffer-bytes:65536}")
+    private int readBufferBytes = 64 * 1024;
+
+    @Value("${file.upload.parallel.enabled:true}")
+    private boolean parallel = true;
+
+    @Value("${file.upload.parallel.max-per-request:4}")
+    private int maxWritersPerRequest = 4;
+
+    public MultipartIngestService(FileStorageService fileStorageService,
+                                  @Qualifier("capsuleStorageExecutor") ExecutorService storageExecutor,
+                                  @Value("${file.upload.parallel.max-global:8}") int maxWritersGlobal) {
+        this.fileStorageService = fileStorageService;
+        this.storageExecutor = storageExecutor;
+        this.globalWriters = new Semaphore(maxWritersGlobal, true);
+    }
+
+    public void setParallel(boolean parallel) { // this is for testing
+        this.parallel = parallel;
+    }
+
+    public void setMaxFileBytes(long maxFileBytes) { // this is for testing
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    /** Form fields and the stored files of one request. */
+    public record MultipartUpload(Map<String, String> fields, Map<String, List<FileMetadata>> files) {
+
+        public String field(String name) {
+            return fields.get(name);
+        }
+
+        public List<FileMetadata> files(String name) {
+            return files.getOrDefault(name, List.of());
+        }
+
+        public List<FileMetadata> allFiles() {
+            return files.values().stream().flatMap(List::stream).toList();
+        }
+    }
+
+    /**
+     * Parses the body and stores its file parts; empty file parts are skipped. If anything fails,
+     * the files stored so far are deleted again.
+     *
+     * @param owner the uploading user
+     */
+    public MultipartUpload ingest(String owner, String contentType, InputStream body) throws IOException {
+        String boundary = StreamingMultipartReader.boundaryOf(contentType);
+        if (boundary == null) {
+            throw new ResponseStatusException(HttpStatus.UNSUPPORTED_MEDIA_TYPE, "Expected a multipart/form-data request.");
+        }
+        StreamingMultipartReader reader = new StreamingMultipartReader(body, boundary, readBufferBytes);
+        return parallel ? ingestParallel(owner, reader) : ingestSequential(owner, reader);
+    }
+
+    private MultipartUpload ingestSequential(String owner, StreamingMultipartReader reader) throws IOException {
+        Map<String, String> fields = new HashMap<>();
+        Map<String, List<FileMetadata>> files = new HashMap<>();
+        try {
+            StreamingMultipartReader.Part part;
+            while ((part = reader.next()) != null) {
+                if (part.getName() == null) {
+                    continue;
+                }
+                if (!part.isFile()) {
+                    fields.put(part.getName(), readField(part));
+                    continue;
+                }
+                FileMetadata metadata = fileStorageService.storeStream(owner, part.getFileName(), part.getContentType(),
+                        part.getBody(), maxFileBytes);
+                if (metadata.getSize() == 0) {
+                    fileStorageService.deleteFile(metadata.getFileName());
+                    continue;
+                }
+                files.computeIfAbsent(part.getName(), name -> new ArrayList<>()).add(metadata);
+            }
+        } catch (IOException | RuntimeException e) {
+            discard(files.values().stream().flatMap(List::stream).toList());
+            throw e;
+        }
+        return new MultipartUpload(fields, files);
+    }
+
+    private MultipartUpload ingestParallel(String owner, StreamingMultipartReader reader) throws IOException {
+        Map<String, String> fields = new HashMap<>();
+        List<String> partNames = new ArrayList<>();
+        List<Future<FileMetadata>> writes = new ArrayList<>();
+        Semaphore requestWriters = new Semaphore(maxWritersPerRequest);
+        Throwable failure = null;
+        try {
+            StreamingMultipartReader.Part part;
+            byte[] buffer = new byte[readBufferBytes];
+            while ((part = reader.next()) != null) {
+                if (part.getName() == null) {
+                    continue;
+                }
+                if (!part.isFile()) {
+                    fields.put(part.getName(), readField(part));
+                    continue;
+                }
+
+                acquire(requestWriters);
+                PartPipe pipe = new PartPipe();
+                String fileName = part.getFileName();
+                String partContentType = part.getContentType();
+                Future<FileMetadata> write;
+                try {
+                    write = storageExecutor.submit(() -> {
+                        try {
+                            acquire(globalWriters);
+                            try {
+                                return fileStorageService.storeStream(owner, fileName, partContentType, pipe, maxFileBytes);
+                            } finally {
+                                globalWriters.release();
+                            }
+                        } finally {
+                            pipe.writerDone = true;
+                            requestWriters.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    requestWriters.release();
+                    throw e;
+                }
+                partNames.add(part.getName());
+                writes.add(write);
+
+                try {
+                    int read;
+                    while ((read = part.getBody().read(buffer)) >= 0) {
+                        if (read > 0) {
+                            pipe.put(Arrays.copyOf(buffer, read));
+                        }
+                    }
+                    pipe.put(END_OF_PART);
+                } catch (IOException | RuntimeException e) {
+                    pipe.abort(e instanceof IOException io ? io : new IOException(e));
+                    throw e;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+
+        // Wait for every writer, even after a failure, so nothing is left half written
+        Map<String, List<FileMetadata>> files = new HashMap<>();
+        List<FileMetadata> stored = new ArrayList<>();
+        for (int i = 0; i < writes.size(); i++) {
+            try {
+                FileMetadata metadata = await(writes.get(i));
+                if (metadata.getSize() == 0) {
+                    fileStorageService.deleteFile(metadata.getFileName());
+                    continue;
+                }
+                stored.add(metadata);
+                files.computeIfAbsent(partNames.get(i), name -> new ArrayList<>()).add(metadata);
+            } catch (IOException | RuntimeException e) {
+                // A writer's own error explains a reader failure better than "writer stopped"
+                if (failure == null || failure instanceof PartPipe.WriterGoneException) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+
+        if (failure != null) {
+            discard(stored);
+            if (failure instanceof IOException io) {
+                throw io;
+            }
+            throw (RuntimeException) failure;
+        }
+        return new MultipartUpload(fields, files);
+    }
+
+    private static FileMetadata await(Future<FileMetadata> write) throws IOException {
+        try {
+            return write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            write.cancel(true);
+            throw new InterruptedIOException("Interrupted while storing upload");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException("Storing upload failed", cause);
+        }
+    }
+
+    private static void acquire(Semaphore semaphore) throws InterruptedIOException {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to store upload");
+        }
+    }
+
+    /** Deletes stored files of a request that was rejected after it was read. */
+    public void discard(List<FileMetadata> stored) {
+        for (FileMetadata metadata : stored) {
+            try {
+                fileStorageService.deleteFile(metadata.getFileName());
+            } catch (IOException e) {
+                logger.warn("Failed to delete {} of a rejected upload: {}", metadata.getFileName(), e.getMessage());
+            }
+        }
+    }
+
+    private String readField(StreamingMultipartReader.Part part) throws IOException {
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = part.getBody().read(buffer)) >= 0) {
+            if (value.size() + read > maxFieldBytes) {
+                throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                        "Form field " + part.getName() + " is larger than " + maxFieldBytes + " bytes.");
+            }
+            value.write(buffer, 0, read);
+        }
+        return value.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Hands one part's bytes from the reading thread to its writer. The queue holds a few chunks,
+     * so a slow disk slows down reading instead of filling the heap.
+     */
+    private static final class PartPipe extends InputStream {
+
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CHUNKS_IN_FLIGHT);
+        private volatile IOException aborted;
+        private volatile boolean writerDone;
+        private byte[] current;
+        private int offset;
+        private boolean ended;
+
+        /** Reader side: queues a chunk, failing if the writer has already stopped. */
+        void put(byte[] chunk) throws IOException {
+            try {
+                while (!chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                    if (writerDone) {
+                        throw new WriterGoneException();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while handing over upload data");
+            }
+        }
+
+        /** Reader side: the request failed, so the writer must not finish the file. */
+        void abort(IOException cause) {
+            aborted = cause;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (ended) {
+                return -1;
+            }
+            while (current == null || offset == current.length) {
+                current = next();
+                offset = 0;
+                if (current == END_OF_PART) {
+                    ended = true;
+                    return -1;
+                }
+            }
+            int n = Math.min(len, current.length - offset);
+            System.arraycopy(current, offset, b, off, n);
+            offset += n;
+            return n;
+        }
+
+        private byte[] next() throws IOException {
+            try {
+                while (true) {
+                    if (aborted != null) {
+                        throw new IOException("Upload aborted", aborted);
+                    }
+                    byte[] chunk = chunks.poll(100, TimeUnit.MILLISECONDS);
+                    if (chunk != null) {
+                        return chunk;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for upload data");
+            }
+        }
+
+        /** The writer stopped early; its own error is the one to report. */
+        static final class WriterGoneException extends IOException {
+            WriterGoneException() {
+                super("Storing the file part stopped early");
+            }
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package com.example.timecapsule.service;
+
+import com.example.timecapsule.model.QuoteCacheEntry;
+import com.example.timecapsule.repository.QuoteCacheRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Quote cache in front of {@link QuoteService}, keyed by normalized topic. Each topic holds a small
+ * pool of quotes that is served round-robin. After {@code refresh-after} an entry is still served
+ * but a background refresh adds a new quote to the pool; after {@code expire-after} it is dropped.
+ * Entries are also written to Mongo so a restarted node starts warm. Least recently used topics
+ * are evicted once {@code max-topics} is reached. A corpus stand-in that {@link QuoteService}
+ * returned because Gemini failed is served, but never stored in Mongo or mixed into a real pool, and
+ * it is refreshed after {@code fallback-refresh-after} so Gemini is asked again soon.
+ */
+@Component
+public class QuoteCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(QuoteCache.class);
+
+    static final String DEFAULT_TOPIC = "memories";
+
+    private final QuoteService quoteService;
+    private final QuoteCacheRepository cacheRepository;
+    private final Map<String, Entry> entries;
+    private final Map<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private final ExecutorService refreshExecutor;
+    private final Counter hitCounter;
+    private final Counter staleCounter;
+    private final Counter missCounter;
+
+    private Executor executor;
+    private Clock clock = Clock.systemUTC();
+
+    @Value("${capsule.quotes.cache.max-topics:500}")
+    private int maxTopics = 500;
+
+    @Value("${capsule.quotes.cache.pool-size:5}")
+    private int poolSize = 5;
+
+    @Value("${capsule.quotes.cache.refresh-after-ms:3600000}")
+    private long refreshAfterMs = 3_600_000;
+
+    @Value("${capsule.quotes.cache.fallback-refresh-after-ms:60000}")
+    private long fallbackRefreshAfterMs = 60_000;
+
+    @Value("${capsule.quotes.cache.expire-after-ms:86400000}")
+    private long expireAfterMs = 86_400_000;
+
+    @Value("${capsule.quotes.cache.mongo-enabled:true}")
+    private boolean mongoEnabled = true;
+
+    public QuoteCache(QuoteService quoteService, QuoteCacheRepository cacheRepository, MeterRegistry meterRegistry) {
+        this.quoteService = quoteService;
+        this.cacheRepository = cacheRepository;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxTopics;
+            }
+        };
+        this.refreshExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "quote-cache-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor = refreshExecutor;
+        this.hitCounter = meterRegistry.counter("capsule.quotes.cache", "result", "hit");
+        this.staleCounter = meterRegistry.counter("capsule.quotes.cache", "result", "stale");
+        this.missCounter = meterRegistry.counter("capsule.quotes.cache", "result", "miss");
+        Gauge.builder("capsule.quotes.cache.topics", this, QuoteCache::size)
+                .description("Topics currently held in the quote cache")
+                .register(meterRegistry);
+    }
+
+    public void setExecutor(Executor executor) { // this is for testing
+        this.executor = executor;
+    }
+
+    public void setClock(Clock clock) { // this is for testing
+        this.clock = clock;
+    }
+
+    public void setMongoEnabled(boolean mongoEnabled) { // this is for testing
+        this.mongoEnabled = mongoEnabled;
+    }
+
+    public void setMaxTopics(int maxTopics) { // this is for testing
+        this.maxTopics = maxTopics;
+    }
+
+    public static String normalize(String topic) {
+        if (topic == null || topic.isBlank()) {
+            return DEFAULT_TOPIC;
+        }
+        return topic.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * A quote for the topic. Only a miss waits for Gemini; concurrent misses on the same topic
+     * share one request. Failures are not cached and reach the caller.
+     */
+    public String getQuote(String topic) {
+        String key = normalize(topic);
+        Instant now = clock.instant();
+
+        Entry entry = get(key);
+        if (entry != null && !entry.isExpired(now)) {
+            if (entry.needsRefresh(now)) {
+                staleCounter.increment();
+                refreshAsync(key, entry);
+            } else {
+                hitCounter.increment();
+            }
+            return entry.next();
+        }
+
+        missCounter.increment();
+        return load(key).next();
+    }
+
+    /**
+     * Quote prepared ahead of time by {@link com.example.timecapsule.scheduler.QuotePrefetcher}.
+     * Never waits on Gemini, unlike {@link #getQuote(String)}.
+     */
+    public Optional<String> getPreparedQuote(String topic) {
+        Optional<String> quote = peek(topic);
+        (quote.isPresent() ? hitCounter : missCounter).increment();
+        return quote;
+    }
+
+    /** Warms the topic in the background, for a topic the prefetcher missed. */
+    public void warmAsync(String topic) {
+        String key = normalize(topic);
+        executor.execute(() -> {
+            try {
+                warm(key);
+            } catch (Exception e) {
+                logger.warn("Failed to load quotes for '{}': {}", key, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Makes sure the topic is cached and not due for a refresh, calling Gemini if needed. Used by
+     * the prefetcher, off the unlock path.
+     */
+    public void warm(String topic) {
+        String key = normalize(topic);
+        Entry entry = get(key);
+        Instant now = clock.instant();
+        if (entry == null || entry.isExpired(now)) {
+            load(key);
+        } else if (entry.needsRefresh(now) && entry.startRefresh()) {
+            refresh(key, entry);
+        }
+    }
+
+    /**
+     * {@link #warm(String)} for many topics at once: the ones that need a quote are asked for in
+     * one batched Gemini request.
+     *
+     * @return the topics that could not be warmed
+     */
+    public Set<String> warmAll(Collection<String> topics) {
+        Instant now = clock.instant();
+        Map<String, Entry> due = new LinkedHashMap<>();
+        for (String topic : topics) {
+            String key = normalize(topic);
+            Entry entry = get(key);
+            if (entry == null || entry.isExpired(now)) {
+                Optional<Entry> stored = loadFromMongo(key);
+                if (stored.isPresent()) {
+                    put(key, stored.get());
+                } else {
+                    due.put(key, null);
+                }
+            } else if (entry.needsRefresh(now) && !due.containsKey(key) && entry.startRefresh()) {
+                due.put(key, entry);
+            }
+        }
+        if (due.isEmpty()) {
+            return Set.of();
+        }
+
+        Set<String> failed = new LinkedHashSet<>();
+        try {
+            Map<String, String> quotes = quoteService.getQuotes(due.keySet());
+            due.forEach((key, entry) -> {
+                String quote = quotes.get(key);
+                if (quote == null) {
+                    failed.add(key);
+                    return;
+                }
+                Entry warmed = fetched(key, entry, quote);
+                if (warmed != entry) {
+                    put(key, warmed);
+                    persist(key, warmed);
+                }
+            });
+        } catch (RuntimeException e) {
+            logger.warn("Failed to fetch quotes for {} topics: {}", due.size(), e.getMessage());
+            failed.addAll(due.keySet());
+        } finally {
+            due.values().stream().filter(Objects::nonNull).forEach(Entry::endRefresh);
+        }
+        return failed;
+    }
+
+    /** Quote for the topic only if one is cached, never calling Gemini. */
+    public Optional<String> peek(String topic) {
+        Entry entry = get(normalize(topic));
+        if (entry == null || entry.isExpired(clock.instant())) {
+            return Optional.empty();
+        }
+        return Optional.of(entry.next());
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        entries.put(key, entry);
+    }
+
+    private Entry load(String key) {
+        CompletableFuture<Entry> future = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = loading.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException runtime ? runtime : e;
+            }
+        }
+
+        try {
+            Entry entry = loadFromMongo(key).orElse(null);
+            if (entry == null) {
+                entry = fetched(key, null, quoteService.getQuote(key));
+                persist(key, entry);
+            }
+            put(key, entry);
+            future.complete(entry);
+            return entry;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    private Optional<Entry> loadFromMongo(String key) {
+        if (!mongoEnabled) {
+            return Optional.empty();
+        }
+        try {
+            return cacheRepository.findById(key)
+                    .filter(stored -> stored.getQuotes() != null && !stored.getQuotes().isEmpty())
+                    .map(stored -> new Entry(stored.getQuotes(), stored.getFetchedAt(), false))
+                    .filter(entry -> !entry.isExpired(clock.instant()));
+        } catch (Exception e) {
+            logger.warn("Failed to read cached quotes for '{}': {}", key, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private void refreshAsync(String key, Entry entry) {
+        if (!entry.startRefresh()) {
+            return; // a refresh is already running
+        }
+        executor.execute(() -> refresh(key, entry));
+    }
+
+    private void refresh(String key, Entry entry) {
+        try {
+            Entry refreshed = fetched(key, entry, quoteService.getQuote(key));
+            if (refreshed != entry) {
+                put(key, refreshed);
+                persist(key, refreshed);
+            }
+        } catch (Exception e) {
+            // Keep serving the stale pool; the next request tries again
+            logger.warn("Failed to refresh quotes for '{}': {}", key, e.getMessage());
+        } finally {
+            entry.endRefresh();
+        }
+    }
+
+    /**
+     * The entry after fetching {@code quote}. A Gemini quote joins the pool, replacing a fallback
+     * pool; a fallback only stands in while there is nothing better, so a real pool is kept as is
+     * (still due for a refresh) and is returned unchanged.
+     */
+    private Entry fetched(String key, Entry previous, String quote) {
+        Instant now = clock.instant();
+        if (quoteService.isFallback(key, quote)) {
+            return previous != null && !previous.fallback ? previous : new Entry(List.of(quote), now, true);
+        }
+        return previous == null || previous.fallback
+                ? new Entry(List.of(quote), now, false)
+                : previous.withQuote(quote, poolSize, now);
+    }
+
+    private void persist(String key, Entry entry) {
+        if (!mongoEnabled || entry.fallback) {
+            return; // a fallback must not outlive this node's short refresh interval
+        }
+        executor.execute(() -> {
+            try {
+                cacheRepository.save(new QuoteCacheEntry(key, entry.quotes, entry.fetchedAt));
+            } catch (Exception e) {
+                logger.warn("Failed to store cached quotes for '{}': {}", key, e.getMessage());
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+
+    private final class Entry {
+        private final List<String> quotes;
+        private final Instant fetchedAt;
+        private final boolean fallback;
+        private int nextIndex;
+        private boolean refreshing;
+
+        private Entry(List<String> quotes, Instant fetchedAt, boolean fallback) {
+            this.quotes = List.copyOf(quotes);
+            this.fetchedAt = fetchedAt;
+            this.fallback = fallback;
+        }
+
+        synchronized String next() {
+            String quote = quotes.get(nextIndex % quotes.size());
+            nextIndex++;
+            return quote;
+        }
+
+        boolean needsRefresh(Instant now) {
+            return Duration.between(fetchedAt, now).toMillis() >= (fallback ? fallbackRefreshAfterMs : refreshAfterMs);
+        }
+
+        boolean isExpired(Instant now) {
+            return Duration.between(fetchedAt, now).toMillis() >= expireAfterMs;
+        }
+
+        synchronized boolean startRefresh() {
+            if (refreshing) {
+                return false;
+            }
+            refreshing = true;
+            return true;
+        }
+
+        synchronized void endRefresh() {
+            refreshing = false;
+        }
+
+        /** The pool with a fresh quote added, dropping the oldest once it is full. */
+        Entry withQuote(String quote, int maxSize, Instant now) {
+            List<String> pool = new ArrayList<>(quotes);
+            pool.remove(quote);
+            pool.add(quote);
+            while (pool.size() > maxSize) {
+                pool.remove(0);
+            }
+            return new Entry(pool, now, false);
+        }
+    }
+}
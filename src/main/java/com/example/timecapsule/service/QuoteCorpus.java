@@ -0,0 +1,179 @@
+package com.example.timecapsule.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bundled quote corpus held in an inverted index (token to quote ids), so a relevant quote for a
+ * topic is found in microseconds without any network call. Tags count more than words of the
+ * quote itself; among equally good matches the quotes are served in turn. A topic that matches
+ * nothing gets a quote tagged {@code general}, or any quote.
+ */
+@Component
+public class QuoteCorpus {
+
+    private static final Logger logger = LoggerFactory.getLogger(QuoteCorpus.class);
+
+    private static final int TAG_WEIGHT = 3;
+    private static final int WORD_WEIGHT = 1;
+    private static final Set<String> STOP_WORDS = Set.of(
+            "the", "and", "for", "you", "your", "are", "but", "not", "with", "that", "this", "what",
+            "all", "our", "who", "was", "from", "have", "has", "its", "it's", "into", "one", "day",
+            "quote", "quotes", "about");
+
+    private final String[] quotes;
+    private final Set<String> quoteSet;
+    private final Map<String, int[]> tagPostings;
+    private final Map<String, int[]> wordPostings;
+    private final int[] generalIds;
+    private final AtomicInteger rotation = new AtomicInteger();
+
+    public QuoteCorpus(@Value("${capsule.quotes.corpus.location:classpath:quotes/corpus.txt}") Resource location) throws IOException {
+        List<String> texts = new ArrayList<>();
+        Map<String, List<Integer>> tags = new HashMap<>();
+        Map<String, List<Integer>> words = new HashMap<>();
+
+        if (location.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(location.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\\|");
+                    if (line.isBlank() || line.startsWith("#") || fields.length < 2) {
+                        continue;
+                    }
+                    int id = texts.size();
+                    String author = fields.length > 2 ? fields[2].trim() : "";
+                    texts.add("“" + fields[1].trim() + "”" + (author.isEmpty() ? "" : " — " + author));
+                    for (String tag : fields[0].split(",")) {
+                        tokens(tag).forEach(token -> post(tags, token, id));
+                    }
+                    tokens(fields[1]).forEach(token -> post(words, token, id));
+                }
+            }
+        } else {
+            logger.warn("Quote corpus {} not found; local quotes are unavailable.", location);
+        }
+
+        this.quotes = texts.toArray(String[]::new);
+        this.quoteSet = Set.copyOf(texts);
+        this.tagPostings = compact(tags);
+        this.wordPostings = compact(words);
+        this.generalIds = tagPostings.getOrDefault("general", new int[0]);
+        logger.info("Loaded {} quotes into the offline corpus ({} tags, {} words indexed).",
+                quotes.length, tagPostings.size(), wordPostings.size());
+    }
+
+    /** Corpus built from lines in the bundled file format. */
+    static QuoteCorpus of(String... lines) {
+        try {
+            return new QuoteCorpus(new ByteArrayResource(String.join("\n", lines).getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public int size() {
+        return quotes.length;
+    }
+
+    /** Whether the quote, as {@link #lookup} formats it, comes from this corpus. */
+    public boolean contains(String quote) {
+        return quote != null && quoteSet.contains(quote);
+    }
+
+    /** Whether one of the topic's words is a tag, i.e. the corpus has a quote written for it. */
+    public boolean hasTopic(String topic) {
+        return tokens(topic).stream().anyMatch(tagPostings::containsKey);
+    }
+
+    /** The best matching quote for the topic; empty only if the corpus is empty. */
+    public Optional<String> lookup(String topic) {
+        if (quotes.length == 0) {
+            return Optional.empty();
+        }
+
+        int[] scores = new int[quotes.length];
+        int best = 0;
+        for (String token : tokens(topic)) {
+            best = Math.max(best, score(tagPostings.get(token), TAG_WEIGHT, scores));
+            best = Math.max(best, score(wordPostings.get(token), WORD_WEIGHT, scores));
+        }
+
+        int[] candidates;
+        if (best > 0) {
+            int count = 0;
+            candidates = new int[quotes.length];
+            for (int id = 0; id < scores.length; id++) {
+                if (scores[id] == best) {
+                    candidates[count++] = id;
+                }
+            }
+            return Optional.of(quotes[candidates[Math.floorMod(rotation.getAndIncrement(), count)]]);
+        }
+        if (generalIds.length > 0) {
+            return Optional.of(quotes[generalIds[Math.floorMod(rotation.getAndIncrement(), generalIds.length)]]);
+        }
+        return Optional.of(quotes[Math.floorMod(rotation.getAndIncrement(), quotes.length)]);
+    }
+
+    private static int score(int[] ids, int weight, int[] scores) {
+        int best = 0;
+        if (ids != null) {
+            for (int id : ids) {
+                scores[id] += weight;
+                best = Math.max(best, scores[id]);
+            }
+        }
+        return best;
+    }
+
+    /** Lower-cased words of three letters or more without stop words, with a plural "s" removed. */
+    static Set<String> tokens(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text == null) {
+            return tokens;
+        }
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}']+")) {
+            word = word.replaceAll("^'+|'+$", "");
+            if (word.length() < 3 || STOP_WORDS.contains(word)) {
+                continue;
+            }
+            if (word.length() > 3 && word.endsWith("s") && !word.endsWith("ss")) {
+                word = word.substring(0, word.length() - 1);
+            }
+            tokens.add(word);
+        }
+        return tokens;
+    }
+
+    private static void post(Map<String, List<Integer>> postings, String token, int id) {
+        List<Integer> ids = postings.computeIfAbsent(token, t -> new ArrayList<>());
+        if (ids.isEmpty() || ids.get(ids.size() - 1) != id) {
+            ids.add(id);
+        }
+    }
+
+    private static Map<String, int[]> compact(Map<String, List<Integer>> postings) {
+        Map<String, int[]> compacted = new HashMap<>(postings.size() * 2);
+        postings.forEach((token, ids) -> compacted.put(token, ids.stream().mapToInt(Integer::intValue).toArray()));
+        return compacted;
+    }
+}
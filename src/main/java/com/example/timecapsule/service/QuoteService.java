@@ -1,54 +1,414 @@
 package com.example.timecapsule.service;
 
+import com.example.timecapsule.service.DownstreamLimits.Downstream;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Inspirational quotes from Gemini. In batching mode, topics requested within a short window are
+ * asked for in one structured prompt and the JSON answer is split back to the waiting callers.
+ * Requests go out over the pooled keep-alive client from
+ * {@link com.example.timecapsule.config.OutboundHttpClientConfig}, with its connect and read
+ * timeouts, and through {@link GeminiCircuitBreaker} and the GEMINI bulkhead, so a slow or
+ * failing Gemini makes callers fall back quickly instead of hanging. The single batch thread only
+ * cuts batches; each batch is sent from a small pool sized to the GEMINI bulkhead, so one slow
+ * answer never holds back the window timer of the next batch.
+ * The offline {@link QuoteCorpus} answers instead of Gemini in PRIMARY mode, for topics it has
+ * quotes written for in HYBRID mode, and whenever Gemini fails in every mode.
+ */
 @Service
 public class QuoteService {
 
+    private static final Logger logger = LoggerFactory.getLogger(QuoteService.class);
+
+    public enum CorpusMode {
+        /** Quotes only come from the corpus; Gemini is not called. */
+        PRIMARY,
+        /** Gemini first; the corpus answers when it fails, times out or the circuit is open. */
+        FALLBACK,
+        /** The corpus answers topics it has tagged quotes for, Gemini the rest. */
+        HYBRID
+    }
+
+    static final String DEFAULT_QUOTE = "Here’s a quote to brighten your day.";
+
     @Value("${gemini.api.key}")
     private String geminiApiKey;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    @Value("${gemini.base-url:https://generativelanguage.googleapis.com/v1beta}")
+    private String baseUrl = "https://generativelanguage.googleapis.com/v1beta";
+
+    @Value("${gemini.model:gemini-2.0-flash}")
+    private String model = "gemini-2.0-flash";
+
+    @Value("${gemini.batch.enabled:true}")
+    private boolean batchingEnabled = true;
+
+    @Value("${gemini.batch.window-ms:50}")
+    private long batchWindowMs = 50;
+
+    @Value("${gemini.batch.max-topics:20}")
+    private int maxBatchTopics = 20;
+
+    @Value("${gemini.bulkhead-wait-ms:100}")
+    private long bulkheadWaitMs = 100;
+
+    @Value("${gemini.call-timeout-ms:8000}")
+    private long callTimeoutMs = 8000;
+
+    @Value("${capsule.quotes.corpus.mode:FALLBACK}")
+    private CorpusMode corpusMode = CorpusMode.FALLBACK;
+
+    private final RestTemplate restTemplate;
+    private final DownstreamLimits limits;
+    private final GeminiCircuitBreaker circuitBreaker;
+    private final QuoteCorpus corpus;
+    private final MeterRegistry meterRegistry;
+    private final Object batchLock = new Object();
+    private final ScheduledExecutorService batchExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "gemini-batch");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ThreadPoolExecutor batchCallExecutor;
+    private Map<String, CompletableFuture<String>> pending = new LinkedHashMap<>();
+
+    public QuoteService(@Qualifier("geminiRestTemplate") RestTemplate restTemplate,
+                        DownstreamLimits limits,
+                        GeminiCircuitBreaker circuitBreaker,
+                        QuoteCorpus corpus,
+                        MeterRegistry meterRegistry) {
+        this.restTemplate = restTemplate;
+        this.limits = limits;
+        this.circuitBreaker = circuitBreaker;
+        this.corpus = corpus;
+        this.meterRegistry = meterRegistry;
+        // Bounded both ways: no more threads than the bulkhead lets through, and a short queue;
+        // batches beyond that fail their callers at once, who then fall back to the corpus
+        int threads = limits.getLimit(Downstream.GEMINI);
+        this.batchCallExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 4), r -> {
+                    Thread thread = new Thread(r, "gemini-call");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    public void setBaseUrl(String baseUrl) { // this is for testing
+        this.baseUrl = baseUrl;
+    }
+
+    public void setApiKey(String geminiApiKey) { // this is for testing
+        this.geminiApiKey = geminiApiKey;
+    }
+
+    public void setBatchingEnabled(boolean batchingEnabled) { // this is for testing
+        this.batchingEnabled = batchingEnabled;
+    }
+
+    public void setBatchWindowMs(long batchWindowMs) { // this is for testing
+        this.batchWindowMs = batchWindowMs;
+    }
+
+    public void setMaxBatchTopics(int maxBatchTopics) { // this is for testing
+        this.maxBatchTopics = maxBatchTopics;
+    }
+
+    public void setCallTimeoutMs(long callTimeoutMs) { // this is for testing
+        this.callTimeoutMs = callTimeoutMs;
+    }
+
+    public void setCorpusMode(CorpusMode corpusMode) { // this is for testing
+        this.corpusMode = corpusMode;
+    }
 
     public String getQuote(String topic) {
-        String url = "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.0-flash:generateContent?key=" + geminiApiKey;
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
+        Optional<String> local = localFirst(topic);
+        if (local.isPresent()) {
+            return local.get();
+        }
+        try {
+            return geminiQuote(topic);
+        } catch (RuntimeException e) {
+            Optional<String> fallback = corpusQuote(topic, "fallback");
+            if (fallback.isEmpty()) {
+                throw e;
+            }
+            logger.debug("Gemini failed for '{}', answering from the corpus: {}", topic, e.getMessage());
+            return fallback.get();
+        }
+    }
 
-        String prompt = "Give me an inspirational quote about " + topic;
+    /**
+     * Quotes for several topics: Gemini is asked in one request per {@code max-topics} topics, and
+     * topics it fails on or leaves out of its answer are filled from the corpus when possible.
+     */
+    public Map<String, String> getQuotes(Collection<String> topics) {
+        Map<String, String> quotes = new LinkedHashMap<>();
+        List<String> remote = new ArrayList<>();
+        for (String topic : new LinkedHashSet<>(topics)) {
+            localFirst(topic).ifPresentOrElse(quote -> quotes.put(topic, quote), () -> remote.add(topic));
+        }
+        if (remote.isEmpty()) {
+            return quotes;
+        }
+
+        try {
+            quotes.putAll(geminiQuotes(remote));
+        } catch (RuntimeException e) {
+            if (corpus.size() == 0) {
+                throw e;
+            }
+            logger.warn("Gemini failed for {} topics, answering from the corpus: {}", remote.size(), e.getMessage());
+        }
+        for (String topic : remote) {
+            if (!quotes.containsKey(topic)) {
+                corpusQuote(topic, "fallback").ifPresent(quote -> quotes.put(topic, quote));
+            }
+        }
+        return quotes;
+    }
+
+    /**
+     * Whether a quote this service returned for the topic is a corpus stand-in because Gemini
+     * failed, rather than the answer the configured mode intends for it. Callers caching quotes
+     * should not keep such a quote long.
+     */
+    public boolean isFallback(String topic, String quote) {
+        return switch (corpusMode) {
+            case PRIMARY -> false;
+            case HYBRID -> !corpus.hasTopic(topic) && corpus.contains(quote);
+            case FALLBACK -> corpus.contains(quote);
+        };
+    }
 
-        String requestBody = """
-            {
-              "contents": [
-                {
-                  "parts": [
-                    {
-                      "text": "%s"
-                    }
-                  ]
+    private Optional<String> localFirst(String topic) {
+        return switch (corpusMode) {
+            case PRIMARY -> corpusQuote(topic, "primary");
+            case HYBRID -> corpus.hasTopic(topic) ? corpusQuote(topic, "hybrid") : Optional.empty();
+            case FALLBACK -> Optional.empty();
+        };
+    }
+
+    private Optional<String> corpusQuote(String topic, String reason) {
+        Optional<String> quote = corpus.lookup(topic);
+        if (quote.isPresent()) {
+            meterRegistry.counter("capsule.quotes.corpus", "reason", reason).increment();
+        }
+        return quote;
+    }
+
+    private String geminiQuote(String topic) {
+        if (!batchingEnabled) {
+            return requestQuote(topic);
+        }
+
+        CompletableFuture<String> future;
+        synchronized (batchLock) {
+            future = pending.get(topic);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                pending.put(topic, future);
+                // Both flushes name the batch they are for, so the window timer of a batch that
+                // already went out full is a no-op instead of cutting the next batch short
+                Map<String, CompletableFuture<String>> batch = pending;
+                if (pending.size() == 1) {
+                    batchExecutor.schedule(() -> flushBatch(batch), batchWindowMs, TimeUnit.MILLISECONDS);
+                }
+                if (pending.size() >= maxBatchTopics) {
+                    batchExecutor.execute(() -> flushBatch(batch));
                 }
-              ]
             }
-            """.formatted(prompt);
+        }
+        try {
+            return future.get(callTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException runtime ? runtime : new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("No quote for '" + topic + "' within " + callTimeoutMs + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a quote", e);
+        }
+    }
+
+    /** Topics the model left out of its answer are missing from the result. */
+    private Map<String, String> geminiQuotes(Collection<String> topics) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(topics));
+        Map<String, String> quotes = new LinkedHashMap<>();
+        for (int i = 0; i < distinct.size(); i += maxBatchTopics) {
+            List<String> chunk = distinct.subList(i, Math.min(i + maxBatchTopics, distinct.size()));
+            quotes.putAll(chunk.size() == 1 ? Map.of(chunk.get(0), requestQuote(chunk.get(0))) : requestQuotes(chunk));
+        }
+        return quotes;
+    }
+
+    /**
+     * Runs on the batch thread: hands the pending topics to a call thread, unless {@code batch} was
+     * already flushed and a newer batch is pending.
+     */
+    private void flushBatch(Map<String, CompletableFuture<String>> batch) {
+        synchronized (batchLock) {
+            if (pending != batch) {
+                return;
+            }
+            pending = new LinkedHashMap<>();
+        }
+
+        try {
+            batchCallExecutor.execute(() -> answerBatch(batch));
+        } catch (RejectedExecutionException e) {
+            batch.values().forEach(future -> future.completeExceptionally(e));
+        }
+    }
+
+    private void answerBatch(Map<String, CompletableFuture<String>> batch) {
+        try {
+            Map<String, String> quotes = geminiQuotes(batch.keySet());
+            batch.forEach((topic, future) -> {
+                String quote = quotes.get(topic);
+                if (quote != null) {
+                    future.complete(quote);
+                } else {
+                    future.completeExceptionally(new IllegalStateException("No quote for '" + topic + "' in the batch answer"));
+                }
+            });
+        } catch (RuntimeException e) {
+            batch.values().forEach(future -> future.completeExceptionally(e));
+        }
+    }
 
-        HttpEntity<String> entity = new HttpEntity<>(requestBody, headers);
-        ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, entity, String.class);
+    private String requestQuote(String topic) {
+        String prompt = "Give me an inspirational quote about " + topic;
+        ResponseEntity<String> response = generateContent(prompt, false);
 
         if (response.getStatusCode().is2xxSuccessful()) {
-            JSONObject json = new JSONObject(response.getBody());
-            return json.getJSONArray("candidates")
-                    .getJSONObject(0)
-                    .getJSONObject("content")
-                    .getJSONArray("parts")
-                    .getJSONObject(0)
-                    .getString("text");
+            return responseText(response.getBody());
+        }
+
+        return DEFAULT_QUOTE;
+    }
+
+    private Map<String, String> requestQuotes(List<String> topics) {
+        StringBuilder prompt = new StringBuilder("Give me one short inspirational quote for each of these topics. "
+                + "Answer with a JSON object that maps each topic, exactly as written, to its quote.\n");
+        topics.forEach(topic -> prompt.append("- ").append(topic).append('\n'));
+        ResponseEntity<String> response = generateContent(prompt.toString(), true);
+
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            throw new IllegalStateException("Gemini answered " + response.getStatusCode());
+        }
+
+        // Match the answer back on the normalized topic, in case the model changed case or spacing
+        Map<String, String> requested = new LinkedHashMap<>();
+        topics.forEach(topic -> requested.put(QuoteCache.normalize(topic), topic));
+        JSONObject answer = new JSONObject(stripCodeFence(responseText(response.getBody())));
+        Map<String, String> quotes = new LinkedHashMap<>();
+        for (String key : answer.keySet()) {
+            String topic = requested.get(QuoteCache.normalize(key));
+            String quote = answer.optString(key, "").trim();
+            if (topic != null && !quote.isEmpty()) {
+                quotes.put(topic, quote);
+            }
+        }
+        return quotes;
+    }
+
+    private ResponseEntity<String> generateContent(String prompt, boolean jsonAnswer) {
+        if (!circuitBreaker.tryAcquirePermission()) {
+            record("rejected", 0);
+            throw new IllegalStateException("Gemini circuit is open");
+        }
+
+        String url = baseUrl + "/models/" + model + ":generateContent?key=" + geminiApiKey;
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        JSONObject requestBody = new JSONObject()
+                .put("contents", new JSONArray().put(new JSONObject()
+                        .put("parts", new JSONArray().put(new JSONObject().put("text", prompt)))));
+        if (jsonAnswer) {
+            requestBody.put("generationConfig", new JSONObject().put("responseMimeType", "application/json"));
+        }
+
+        HttpEntity<String> entity = new HttpEntity<>(requestBody.toString(), headers);
+        long start = System.nanoTime();
+        try {
+            ResponseEntity<String> response = limits.tryCall(Downstream.GEMINI, Duration.ofMillis(bulkheadWaitMs),
+                    () -> restTemplate.exchange(url, HttpMethod.POST, entity, String.class));
+            circuitBreaker.onSuccess();
+            record("success", start);
+            return response;
+        } catch (RejectedExecutionException e) {
+            circuitBreaker.onIgnored();
+            record("rejected", 0);
+            throw e;
+        } catch (Exception e) {
+            circuitBreaker.onFailure();
+            record("failure", start);
+            throw e instanceof RuntimeException runtime ? runtime : new IllegalStateException(e);
+        }
+    }
+
+    private void record(String outcome, long startNanos) {
+        Timer.builder("capsule.gemini.requests")
+                .tag("outcome", outcome)
+                .description("Gemini generateContent calls by outcome")
+                .register(meterRegistry)
+                .record(startNanos == 0 ? 0 : System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static String responseText(String body) {
+        JSONObject json = new JSONObject(body);
+        return json.getJSONArray("candidates")
+                .getJSONObject(0)
+                .getJSONObject("content")
+                .getJSONArray("parts")
+                .getJSONObject(0)
+                .getString("text");
+    }
+
+    private static String stripCodeFence(String text) {
+        String trimmed = text.trim();
+        if (trimmed.startsWith("```")) {
+            trimmed = trimmed.substring(trimmed.indexOf('\n') + 1);
+            int end = trimmed.lastIndexOf("```");
+            trimmed = end >= 0 ? trimmed.substring(0, end) : trimmed;
         }
+        return trimmed.trim();
+    }
 
-        return "Here’s a quote to brighten your day.";
+    @PreDestroy
+    public void shutdown() {
+        batchExecutor.shutdownNow();
+        batchCallExecutor.shutdownNow();
     }
 }
@@ -0,0 +1,255 @@
+package com.example.timecapsule.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Pull parser for a {@code multipart/form-data} body. Parts are handed out one at a time with a
+ * body stream that ends at the next boundary, so a part's bytes can be piped to their destination
+ * as they arrive instead of being spooled first. Only one buffer of {@code bufferSize} bytes is
+ * held, whatever the size of the request.
+ */
+public class StreamingMultipartReader {
+
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final byte[] buffer;
+    private int pos;
+    private int limit;
+    private boolean eof;
+    private boolean finished;
+    private Part current;
+
+    public StreamingMultipartReader(InputStream in, String boundary, int bufferSize) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.buffer = new byte[Math.max(bufferSize, MAX_HEADER_BYTES + delimiter.length)];
+        // The first boundary has no CRLF in front of it; pretend it has so every delimiter looks alike
+        this.buffer[0] = '\r';
+        this.buffer[1] = '\n';
+        this.limit = 2;
+    }
+
+    /** The boundary of a multipart content type, or null if it is not multipart. */
+    public static String boundaryOf(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/")) {
+            return null;
+        }
+        String boundary = parameter(contentType, "boundary");
+        return boundary == null || boundary.isEmpty() || boundary.length() > 70 ? null : boundary;
+    }
+
+    /**
+     * Advances to the next part, skipping whatever is left of the current one.
+     *
+     * @return the next part, or null after the closing boundary
+     */
+    public Part next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (current == null) {
+            // Skip the preamble up to the first boundary
+            skipToDelimiter();
+        } else {
+            current.body.skipRest();
+        }
+
+        if (!ensure(2)) {
+            throw new IOException("Unexpected end of multipart body after a boundary.");
+        }
+        if (buffer[pos] == '-' && buffer[pos + 1] == '-') {
+            finished = true;
+            current = null;
+            return null;
+        }
+        readLine(); // rest of the boundary line (transport padding)
+
+        String name = null;
+        String fileName = null;
+        String contentType = null;
+        int headerBytes = 0;
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            headerBytes += line.length();
+            if (headerBytes > MAX_HEADER_BYTES) {
+                throw new IOException("Multipart part headers are too large.");
+            }
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String header = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+            if (header.equals("content-disposition")) {
+                name = parameter(value, "name");
+                fileName = parameter(value, "filename");
+            } else if (header.equals("content-type")) {
+                contentType = value;
+            }
+        }
+        current = new Part(name, fileName, contentType, new PartInputStream());
+        return current;
+    }
+
+    private void skipToDelimiter() throws IOException {
+        PartInputStream preamble = new PartInputStream();
+        preamble.skipRest();
+    }
+
+    /** Makes at least {@code n} unread bytes available, unless the input ends first. */
+    private boolean ensure(int n) throws IOException {
+        while (limit - pos < n && !eof) {
+            if (pos > 0) {
+                System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+                limit -= pos;
+                pos = 0;
+            }
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                eof = true;
+            } else {
+                limit += read;
+            }
+        }
+        return limit - pos >= n;
+    }
+
+    /** A header line without its CRLF. */
+    private String readLine() throws IOException {
+        while (true) {
+            for (int i = pos; i + 1 < limit; i++) {
+                if (buffer[i] == '\r' && buffer[i + 1] == '\n') {
+                    String line = new String(buffer, pos, i - pos, StandardCharsets.UTF_8);
+                    pos = i + 2;
+                    return line;
+                }
+            }
+            if (limit - pos >= MAX_HEADER_BYTES) {
+                throw new IOException("Multipart header line is too long.");
+            }
+            if (!ensure(limit - pos + 1)) {
+                throw new IOException("Unexpected end of multipart headers.");
+            }
+        }
+    }
+
+    /** Index of a delimiter that lies wholly before {@code end} in the unread bytes, or -1. */
+    private int indexOfDelimiter(int end) {
+        outer:
+        for (int i = pos; i <= end - delimiter.length; i++) {
+            for (int j = 0; j < delimiter.length; j++) {
+                if (buffer[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static String parameter(String headerValue, String name) {
+        for (String param : headerValue.split(";")) {
+            int eq = param.indexOf('=');
+            if (eq > 0 && param.substring(0, eq).trim().equalsIgnoreCase(name)) {
+                String value = param.substring(eq + 1).trim();
+                if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /** Body of one part; reaches end of stream at the boundary that closes it. */
+    private class PartInputStream extends InputStream {
+
+        private boolean done;
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                // Only look as far as this read could return, so a large buffer is not rescanned
+                int end = (int) Math.min(limit, (long) pos + len + delimiter.length - 1);
+                int found = indexOfDelimiter(end);
+                if (found == pos) {
+                    pos += delimiter.length;
+                    done = true;
+                    return -1;
+                }
+                // Without a delimiter in sight, the last delimiter-1 bytes may still start one
+                int available = found >= 0 ? found - pos : end - pos - (delimiter.length - 1);
+                if (available > 0) {
+                    int n = Math.min(len, available);
+                    System.arraycopy(buffer, pos, b, off, n);
+                    pos += n;
+                    return n;
+                }
+                if (!ensure(limit - pos + 1)) {
+                    throw new IOException("Unexpected end of multipart body: missing closing boundary.");
+                }
+            }
+        }
+
+        void skipRest() throws IOException {
+            byte[] scratch = new byte[4096];
+            while (read(scratch, 0, scratch.length) >= 0) {
+                // discard
+            }
+        }
+    }
+
+    /** One part: form field or file, with its body stream. */
+    public static final class Part {
+
+        private final String name;
+        private final String fileName;
+        private final String contentType;
+        private final PartInputStream body;
+
+        private Part(String name, String fileName, String contentType, PartInputStream body) {
+            this.name = name;
+            this.fileName = fileName;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** The client's file name, or null for a plain form field. */
+        public String getFileName() {
+            return fileName;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public boolean isFile() {
+            return fileName != null;
+        }
+
+        public InputStream getBody() {
+            return body;
+        }
+    }
+}
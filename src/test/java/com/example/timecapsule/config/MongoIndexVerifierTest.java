@@ -0,0 +1,47 @@
+package com.example.timecapsule.config;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MongoIndexVerifierTest {
+
+    @Test
+    void testContainsStage_findsNestedCollectionScan() {
+        Document plan = new Document("stage", "SUBPLAN")
+                .append("inputStage", new Document("stage", "OR")
+                        .append("inputStages", List.of(
+                                new Document("stage", "IXSCAN"),
+                                new Document("stage", "COLLSCAN"))));
+
+        assertTrue(MongoIndexVerifier.containsStage(plan, "COLLSCAN"));
+    }
+
+    @Test
+    void testContainsStage_acceptsIndexScan() {
+        Document plan = new Document("stage", "FETCH")
+                .append("inputStage", new Document("stage", "IXSCAN").append("indexName", "status_unlockDate"));
+
+        assertFalse(MongoIndexVerifier.containsStage(plan, "COLLSCAN"));
+    }
+
+    @Test
+    void testAdditionalIndexes_partialIndexCoversLockedCapsulesOnly() {
+        IndexDefinition lockedIndex = MongoIndexVerifier.additionalIndexes().get(0);
+
+        assertEquals(new Document("unlockDate", 1), lockedIndex.getIndexKeys());
+        assertEquals(new Document("status", "LOCKED"),
+                lockedIndex.getIndexOptions().get("partialFilterExpression", Document.class));
+    }
+
+    @Test
+    void testHotQueries_coverSchedulerAndPublicLookups() {
+        List<String> names = MongoIndexVerifier.hotQueries().stream().map(MongoIndexVerifier.HotQuery::name).toList();
+
+        assertTrue(names.containsAll(List.of("due capsules", "public access token", "username", "email")));
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.timecapsule.config;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundHttpClientConfigTest {
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private Set<Integer> clientPorts;
+    private volatile CountDownLatch received; // opens when a request reached the server
+    private volatile CountDownLatch answer; // the server holds its answers until this opens
+    private SimpleMeterRegistry meterRegistry;
+    private String baseUrl;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        clientPorts = ConcurrentHashMap.newKeySet();
+        received = new CountDownLatch(1);
+        answer = new CountDownLatch(0);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            received.countDown();
+            try {
+                answer.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Test
+    void testSequentialRequestsReuseOneKeepAliveConnection() {
+        RestTemplate restTemplate = restTemplate(4);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("ok", restTemplate.postForObject(baseUrl + "/quote", "{}", String.class));
+        }
+
+        assertEquals(1, clientPorts.size(), "client ports " + clientPorts);
+        assertEquals(5, meterRegistry.timer("capsule.http.client.acquire", "host", "localhost").count());
+        assertEquals(0.0, meterRegistry.get("capsule.http.client.in-flight").tag("host", "localhost").gauge().value());
+    }
+
+    @Test
+    void testRequestsBeyondPerRouteLimitWaitThenFail() throws InterruptedException {
+        RestTemplate restTemplate = restTemplate(1);
+        answer = new CountDownLatch(1);
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(
+                () -> restTemplate.postForObject(baseUrl + "/quote", "{}", String.class));
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+
+        assertEquals(1.0, meterRegistry.get("capsule.http.client.utilization").tag("host", "localhost").gauge().value());
+        ResourceAccessException e = assertThrows(ResourceAccessException.class,
+                () -> restTemplate.postForObject(baseUrl + "/quote", "{}", String.class));
+        assertTrue(e.getMessage().contains("No free connection slot"));
+        answer.countDown();
+        assertEquals("ok", first.join());
+    }
+
+    @Test
+    void testSlotIsHeldUntilTheResponseIsClosed() {
+        RestTemplate restTemplate = restTemplate(4);
+
+        double inFlightWhileReading = restTemplate.execute(baseUrl + "/quote", HttpMethod.GET, null,
+                response -> meterRegistry.get("capsule.http.client.in-flight").tag("host", "localhost").gauge().value());
+
+        assertEquals(1.0, inFlightWhileReading);
+        assertEquals(0.0, meterRegistry.get("capsule.http.client.in-flight").tag("host", "localhost").gauge().value());
+    }
+
+    private RestTemplate restTemplate(int maxPerRoute) {
+        OutboundHttpClientConfig config = new OutboundHttpClientConfig();
+        return config.geminiRestTemplate(config.geminiHttpClient(true, 500),
+                5000, maxPerRoute, 300, meterRegistry);
+    }
+}
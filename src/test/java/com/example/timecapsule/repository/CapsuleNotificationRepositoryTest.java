@@ -0,0 +1,70 @@
+package com.example.timecapsule.repository;
+
+import com.example.timecapsule.model.CapsuleNotification;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataMongoTest
+class CapsuleNotificationRepositoryTest {
+
+    @Autowired
+    private CapsuleNotificationRepository repository;
+
+    @BeforeEach
+    void setup() {
+        repository.deleteAll();
+    }
+
+    @Test
+    void testClaimNextForRecipient_leavesRetriesInBackoff() {
+        Instant now = Instant.now();
+        repository.save(pending("retry", 2, now.plusSeconds(30)));
+        repository.save(pending("first", 0, now.plusSeconds(60)));
+
+        Optional<CapsuleNotification> claimed = repository.claimNextForRecipient("someone@example.com", "node-a",
+                now, now.plusSeconds(120), now.plusSeconds(300));
+
+        assertTrue(claimed.isPresent());
+        assertEquals("first", claimed.get().getId());
+        assertTrue(repository.claimNextForRecipient("someone@example.com", "node-a",
+                now, now.plusSeconds(120), now.plusSeconds(300)).isEmpty(), "the retry keeps its backoff");
+        assertTrue(repository.claimNextForRecipient("someone@example.com", "node-a",
+                now.plusSeconds(30), now.plusSeconds(120), now.plusSeconds(300)).isPresent(), "a due retry is claimed");
+    }
+
+    @Test
+    void testClaimNextForRecipient_leavesSmoothedAndParkedMailInItsSlot() {
+        Instant now = Instant.now();
+        CapsuleNotification smoothed = pending("smoothed", 0, now.plusSeconds(30));
+        smoothed.setDeferredUntil(now.plusSeconds(30));
+        repository.save(smoothed);
+        CapsuleNotification sending = pending("parked", 1, now);
+        sending.setStatus(CapsuleNotification.NotificationStatus.SENDING);
+        sending.setClaimedBy("node-a");
+        repository.save(sending);
+        assertTrue(repository.park("parked", "node-a", now.plusSeconds(40)));
+
+        assertTrue(repository.claimNextForRecipient("someone@example.com", "node-a",
+                now, now.plusSeconds(120), now.plusSeconds(300)).isEmpty(), "neither is pulled forward");
+        assertEquals(0, repository.findById("parked").orElseThrow().getAttempts());
+        assertEquals("smoothed", repository.claimNextForRecipient("someone@example.com", "node-a",
+                now.plusSeconds(30), now.plusSeconds(120), now.plusSeconds(300)).orElseThrow().getId());
+    }
+
+    private CapsuleNotification pending(String id, int attempts, Instant nextAttemptAt) {
+        CapsuleNotification notification = new CapsuleNotification();
+        notification.setId(id);
+        notification.setRecipientEmail("someone@example.com");
+        notification.setStatus(CapsuleNotification.NotificationStatus.PENDING);
+        notification.setAttempts(attempts);
+        notification.setNextAttemptAt(nextAttemptAt);
+        return notification;
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.timecapsule.repository;
 
+import com.example.timecapsule.model.FileMetadata;
 import com.example.timecapsule.model.TimeCapsule;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -7,7 +8,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
 
 import java.time.Instant;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -48,8 +51,70 @@ class TimeCapsuleRepositoryTest {
         var result = repository.findByPublicAccessToken("abc123token");
         assertTrue(result.isPresent());
     }
-}
 
+    @Test
+    void testFileEntriesAreAddedAndRemovedOnlyWhileLocked() {
+        TimeCapsule capsule = new TimeCapsule();
+        capsule.setOwnerUsername("testUser");
+        capsule.setFileMetadataList(List.of());
+        repository.save(capsule);
+        FileMetadata photo = new FileMetadata("abc.jpg", "photo.jpg", "image/jpeg", 10, "/uploads/abc.jpg", null);
 
+        assertTrue(repository.addFilesIfLocked(capsule.getId(), List.of(photo)));
+        assertEquals(1, repository.removeFilesIfLocked(capsule.getId(), "abc.jpg", "photo.jpg"));
+        assertEquals(0, repository.removeFilesIfLocked(capsule.getId(), "abc.jpg", "photo.jpg")); // a retried delete
+        assertTrue(repository.findById(capsule.getId()).orElseThrow().getFileMetadataList().isEmpty());
 
+        capsule.setStatus(TimeCapsule.CapsuleStatus.UNLOCKING);
+        repository.save(capsule);
+        assertFalse(repository.addFilesIfLocked(capsule.getId(), List.of(photo)));
+    }
 
+    @Test
+    void testWritesMoveUpdatedAt() {
+        TimeCapsule capsule = new TimeCapsule();
+        capsule.setOwnerUsername("testUser");
+        Instant hourAgo = Instant.now().minusSeconds(3600);
+        capsule.setUpdatedAt(hourAgo);
+        repository.save(capsule);
+
+        assertTrue(repository.updateIfLocked(capsule.getId(), Map.of("title", "New title")));
+
+        assertTrue(repository.findById(capsule.getId()).orElseThrow().getUpdatedAt().isAfter(hourAgo));
+    }
+
+    @Test
+    void testRemoveOwnedReturnsTheCapsuleOnlyToTheCallerThatRemovedIt() {
+        TimeCapsule capsule = new TimeCapsule();
+        capsule.setOwnerUsername("testUser");
+        capsule.setFileMetadataList(List.of(new FileMetadata("abc.jpg", "photo.jpg", "image/jpeg", 10, "/uploads/abc.jpg", null)));
+        repository.save(capsule);
+
+        assertTrue(repository.removeOwned(capsule.getId(), "someoneElse").isEmpty());
+        assertEquals(1, repository.removeOwned(capsule.getId(), "testUser").orElseThrow().getFileMetadataList().size());
+        assertTrue(repository.removeOwned(capsule.getId(), "testUser").isEmpty()); // a retried delete
+        assertFalse(repository.existsById(capsule.getId()));
+    }
+
+    @Test
+    void testUpdateIfLockedWritesOnlyTheGivenFields() {
+        TimeCapsule capsule = new TimeCapsule();
+        capsule.setOwnerUsername("testUser");
+        capsule.setTitle("Old title");
+        capsule.setTopic("friendship");
+        repository.save(capsule);
+
+        Map<String, Object> changes = new HashMap<>();
+        changes.put("title", "New title");
+        changes.put("recipients", null);
+        assertTrue(repository.updateIfLocked(capsule.getId(), changes));
+
+        TimeCapsule updated = repository.findById(capsule.getId()).orElseThrow();
+        assertEquals("New title", updated.getTitle());
+        assertEquals("friendship", updated.getTopic());
+
+        capsule.setStatus(TimeCapsule.CapsuleStatus.UNLOCKED);
+        repository.save(capsule);
+        assertFalse(repository.updateIfLocked(capsule.getId(), Map.of("title", "Too late")));
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.timecapsule.scheduler;
+
+import com.example.timecapsule.model.CapsuleNotification;
+import com.example.timecapsule.model.CapsuleRecipient;
+import com.example.timecapsule.model.TimeCapsule;
+import com.example.timecapsule.repository.CapsuleNotificationRepository;
+import com.example.timecapsule.repository.TimeCapsuleRepository;
+import com.example.timecapsule.service.CapsuleClaimService;
+import com.example.timecapsule.service.DispatchThrottle;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class CapsuleUnlockSchedulerTest {
+
+    private TimeCapsuleRepository capsuleRepository;
+    private CapsuleNotificationRepository notificationRepository;
+    private UnlockTimingWheel timingWheel;
+    private SimpleMeterRegistry meterRegistry;
+    private CapsuleUnlockScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        capsuleRepository = mock(TimeCapsuleRepository.class);
+        notificationRepository = mock(CapsuleNotificationRepository.class);
+        CapsuleClaimService claimService = new CapsuleClaimService(capsuleRepository, "node-a");
+        timingWheel = new UnlockTimingWheel();
+        meterRegistry = new SimpleMeterRegistry();
+
+        when(notificationRepository.enqueueAll(anyList())).thenAnswer(invocation -> invocation.<List<?>>getArgument(0).size());
+
+        DispatchThrottle dispatchThrottle = new DispatchThrottle(meterRegistry);
+        dispatchThrottle.setSmoothingWindowMs(60_000);
+
+        scheduler = new CapsuleUnlockScheduler(capsuleRepository, claimService, notificationRepository, timingWheel,
+                dispatchThrottle, new ScheduledJobGuard(meterRegistry), meterRegistry);
+        scheduler.setBatchSize(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        timingWheel.shutdown();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testUnlockDue_unlocksInBatchesAndQueuesNotifications() {
+        List<TimeCapsule> due = List.of(dueCapsule("c1"), dueCapsule("c2"), dueCapsule("c3"));
+        due.forEach(capsule -> when(capsuleRepository.claimForUnlock(eq(capsule.getId()), eq("node-a"), any(), any()))
+                .thenReturn(Optional.of(capsule)));
+        when(capsuleRepository.unlockBatch(anyMap(), eq("node-a")))
+                .thenAnswer(invocation -> new HashSet<>(invocation.<Map<String, String>>getArgument(0).keySet()));
+
+        scheduler.unlockDue(List.of("c1", "c2", "c3"));
+
+        verify(capsuleRepository, times(2)).unlockBatch(anyMap(), eq("node-a"));
+        verify(capsuleRepository, never()).save(any());
+        verify(capsuleRepository, times(2)).releaseClaims(anyCollection(), eq("node-a"));
+        assertEquals(2, meterRegistry.timer("capsule.unlock.batch").count());
+
+        ArgumentCaptor<List<CapsuleNotification>> captor = ArgumentCaptor.forClass(List.class);
+        verify(notificationRepository, times(2)).enqueueAll(captor.capture());
+        List<CapsuleNotification> queued = captor.getAllValues().stream().flatMap(List::stream).toList();
+        assertEquals(3, queued.size());
+        due.forEach(capsule -> {
+            assertEquals(TimeCapsule.CapsuleStatus.UNLOCKED, capsule.getStatus());
+            assertNotNull(capsule.getPublicAccessToken());
+        });
+        assertTrue(queued.stream().allMatch(n -> n.getPublicAccessToken() != null));
+        // Notifications are spread over the smoothing window after the unlock date
+        Instant latest = Instant.now().plusSeconds(60);
+        assertTrue(queued.stream().allMatch(n -> !n.getNextAttemptAt().isAfter(latest)));
+    }
+
+    @Test
+    void testUnlockDue_skipsCapsulesUnlockedConcurrently() {
+        TimeCapsule first = dueCapsule("c1");
+        TimeCapsule second = dueCapsule("c2");
+        when(capsuleRepository.claimForUnlock(eq("c1"), eq("node-a"), any(), any())).thenReturn(Optional.of(first));
+        when(capsuleRepository.claimForUnlock(eq("c2"), eq("node-a"), any(), any())).thenReturn(Optional.of(second));
+        when(capsuleRepository.unlockBatch(anyMap(), eq("node-a"))).thenReturn(Set.of("c1"));
+
+        scheduler.unlockDue(List.of("c1", "c2"));
+
+        verify(notificationRepository).enqueueAll(argThat(list -> list.size() == 1
+                && list.get(0).getCapsuleId().equals("c1")));
+    }
+
+    @Test
+    void testUnlockDue_skipsCapsulesClaimedByAnotherNode() {
+        when(capsuleRepository.claimForUnlock(anyString(), anyString(), any(), any())).thenReturn(Optional.empty());
+
+        scheduler.unlockDue(List.of("c1"));
+
+        verify(capsuleRepository, never()).unlockBatch(anyMap(), anyString());
+        verifyNoInteractions(notificationRepository);
+    }
+
+    @Test
+    void testUnlockDue_fansOutOneNotificationPerRecipient() {
+        TimeCapsule group = dueCapsule("c5");
+        List<CapsuleRecipient> recipients = List.of(CapsuleRecipient.of("a@example.com"),
+                CapsuleRecipient.of("b@example.com"), CapsuleRecipient.of("c@example.com"));
+        group.setRecipientEmail("a@example.com");
+        group.setRecipients(recipients);
+        when(capsuleRepository.claimForUnlock(eq("c5"), eq("node-a"), any(), any())).thenReturn(Optional.of(group));
+        when(capsuleRepository.unlockBatch(anyMap(), eq("node-a"))).thenReturn(Set.of("c5"));
+
+        scheduler.unlockDue(List.of("c5"));
+
+        verify(notificationRepository).enqueueAll(argThat(list -> list.size() == 3
+                && list.stream().map(CapsuleNotification::getPublicAccessToken).toList()
+                        .equals(recipients.stream().map(CapsuleRecipient::getAccessToken).toList())
+                && list.stream().allMatch(n -> "c5".equals(n.getCapsuleId()))));
+    }
+
+    @Test
+    void testReclaimExpiredClaims_requeuesUnlockedCapsules() {
+        TimeCapsule orphan = dueCapsule("c9");
+        orphan.setStatus(TimeCapsule.CapsuleStatus.UNLOCKED);
+        orphan.setPublicAccessToken("existing-token");
+        when(capsuleRepository.claimNextExpired(anyString(), any(), any())).thenReturn(Optional.empty());
+        when(capsuleRepository.claimNextUnnotified(anyString(), any(), any()))
+                .thenReturn(Optional.of(orphan), Optional.empty());
+
+        scheduler.reclaimExpiredClaims();
+
+        verify(notificationRepository).enqueueAll(argThat(list -> list.size() == 1
+                && "existing-token".equals(list.get(0).getPublicAccessToken())));
+        verify(capsuleRepository).releaseClaims(List.of("c9"), "node-a");
+    }
+
+    private TimeCapsule dueCapsule(String id) {
+        TimeCapsule capsule = new TimeCapsule();
+        capsule.setId(id);
+        capsule.setOwnerUsername("owner");
+        capsule.setRecipientEmail(id + "@example.com");
+        capsule.setUnlockDate(Instant.now().minusSeconds(5));
+        capsule.setFileMetadataList(List.of());
+        return capsule;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.timecapsule.scheduler;
+
+import com.example.timecapsule.repository.CapsuleNotificationRepository;
+import com.example.timecapsule.repository.QuoteCacheRepository;
+import com.example.timecapsule.repository.TimeCapsuleRepository;
+import com.example.timecapsule.service.QuoteCache;
+import com.example.timecapsule.service.QuoteService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class QuotePrefetcherTest {
+
+    private TimeCapsuleRepository capsuleRepository;
+    private CapsuleNotificationRepository notificationRepository;
+    private QuoteService quoteService;
+    private QuoteCache quoteCache;
+    private SimpleMeterRegistry meterRegistry;
+    private QuotePrefetcher prefetcher;
+
+    @BeforeEach
+    void setUp() {
+        capsuleRepository = mock(TimeCapsuleRepository.class);
+        notificationRepository = mock(CapsuleNotificationRepository.class);
+        quoteService = mock(QuoteService.class);
+        meterRegistry = new SimpleMeterRegistry();
+        quoteCache = new QuoteCache(quoteService, mock(QuoteCacheRepository.class), meterRegistry);
+        quoteCache.setMongoEnabled(false);
+        quoteCache.setExecutor(Runnable::run);
+        prefetcher = new QuotePrefetcher(capsuleRepository, notificationRepository, quoteCache,
+                new ScheduledJobGuard(meterRegistry), meterRegistry);
+        when(quoteService.getQuotes(anyCollection())).thenAnswer(invocation -> {
+            Map<String, String> quotes = new LinkedHashMap<>();
+            for (String topic : invocation.<Collection<String>>getArgument(0)) {
+                if (!topic.equals("broken")) {
+                    quotes.put(topic, "Quote on " + topic);
+                }
+            }
+            return quotes;
+        });
+    }
+
+    @Test
+    void testPrefetch_warmsUpcomingTopicsInOneBatch() {
+        Instant now = Instant.parse("2026-01-01T00:00:00Z");
+        prefetcher.setLookaheadMs(600_000);
+        when(capsuleRepository.findTopicsUnlockingBetween(now, now.plusSeconds(600)))
+                .thenReturn(List.of("Birthday", "graduation"));
+        when(notificationRepository.findTopicsDueBefore(now.plusSeconds(600)))
+                .thenReturn(List.of("birthday "));
+
+        prefetcher.prefetchTopics(now);
+
+        verify(quoteService, times(1)).getQuotes(Set.of("memories", "birthday", "graduation"));
+        verify(quoteService, never()).getQuote(anyString());
+        assertEquals(Optional.of("Quote on birthday"), quoteCache.getPreparedQuote("birthday"));
+        assertEquals(3.0, meterRegistry.counter("capsule.quotes.prefetched").count());
+    }
+
+    @Test
+    void testPrefetch_cachedTopicIsNotFetchedAgain() {
+        Instant now = Instant.now();
+        when(capsuleRepository.findTopicsUnlockingBetween(any(), any())).thenReturn(List.of("travel"));
+        when(notificationRepository.findTopicsDueBefore(any())).thenReturn(List.of());
+
+        prefetcher.prefetchTopics(now);
+        prefetcher.prefetchTopics(now);
+
+        verify(quoteService, times(1)).getQuotes(Set.of("memories", "travel"));
+        verify(quoteService, times(2)).isFallback(anyString(), anyString());
+        verifyNoMoreInteractions(quoteService);
+    }
+
+    @Test
+    void testPrefetch_failedTopicDoesNotStopTheRest() {
+        when(capsuleRepository.findTopicsUnlockingBetween(any(), any())).thenReturn(List.of("broken", "travel"));
+        when(notificationRepository.findTopicsDueBefore(any())).thenReturn(List.of());
+
+        assertDoesNotThrow(() -> prefetcher.prefetchTopics(Instant.now()));
+
+        assertTrue(quoteCache.getPreparedQuote("travel").isPresent());
+        assertTrue(quoteCache.getPreparedQuote("broken").isEmpty());
+        assertEquals(1.0, meterRegistry.counter("capsule.quotes.prefetch.failures").count());
+    }
+}
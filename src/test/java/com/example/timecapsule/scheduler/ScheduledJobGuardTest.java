@@ -0,0 +1,106 @@
+package com.example.timecapsule.scheduler;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScheduledJobGuardTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private ScheduledJobGuard jobGuard;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        jobGuard = new ScheduledJobGuard(meterRegistry);
+    }
+
+    @Test
+    void testRun_skipsOverlappingRun() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread first = new Thread(() -> jobGuard.run("job", ScheduledJobGuard.Trigger.FIXED_RATE, Duration.ZERO, () -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        first.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        AtomicInteger runs = new AtomicInteger();
+        assertFalse(jobGuard.run("job", ScheduledJobGuard.Trigger.FIXED_RATE, Duration.ZERO, runs::incrementAndGet));
+
+        release.countDown();
+        first.join();
+        assertEquals(0, runs.get());
+        assertEquals(1.0, meterRegistry.counter("capsule.job.skipped", "job", "job", "reason", "overlap").count());
+        assertEquals(1, meterRegistry.timer("capsule.job.duration", "job", "job").count());
+    }
+
+    @Test
+    void testRun_coalescesCatchUpRunsAfterOverrun() {
+        AtomicInteger runs = new AtomicInteger();
+
+        assertTrue(jobGuard.run("job", ScheduledJobGuard.Trigger.FIXED_RATE, Duration.ofMinutes(1), runs::incrementAndGet));
+        assertFalse(jobGuard.run("job", ScheduledJobGuard.Trigger.FIXED_RATE, Duration.ofMinutes(1), runs::incrementAndGet));
+
+        assertEquals(1, runs.get());
+        assertEquals(1.0, meterRegistry.counter("capsule.job.skipped", "job", "job", "reason", "coalesced").count());
+    }
+
+    @Test
+    void testRun_runsOnTimeTickAfterLongRun() {
+        AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(1));
+        jobGuard.setNanoClock(now::get);
+        Runnable takesSixSeconds = () -> now.addAndGet(TimeUnit.SECONDS.toNanos(6));
+
+        // Each run takes 0.6 of the interval, and every tick comes 10 s after the previous one
+        for (int tick = 0; tick < 3; tick++) {
+            now.set(TimeUnit.SECONDS.toNanos(1 + 10 * tick));
+            assertTrue(jobGuard.run("job", ScheduledJobGuard.Trigger.FIXED_RATE, Duration.ofSeconds(10), takesSixSeconds));
+        }
+
+        assertEquals(0.0, meterRegistry.counter("capsule.job.skipped", "job", "job", "reason", "coalesced").count());
+        assertEquals(0, meterRegistry.timer("capsule.job.lag", "job", "job").max(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    void testRun_survivesFailingJobAndRecordsLag() {
+        assertTrue(jobGuard.run("job", ScheduledJobGuard.Trigger.FIXED_RATE, Duration.ZERO, () -> {
+            throw new IllegalStateException("boom");
+        }));
+        assertTrue(jobGuard.run("job", ScheduledJobGuard.Trigger.FIXED_RATE, Duration.ZERO, () -> { }));
+
+        assertEquals(2, meterRegistry.timer("capsule.job.duration", "job", "job").count());
+        assertEquals(1, meterRegistry.timer("capsule.job.lag", "job", "job").count());
+    }
+
+    @Test
+    void testRun_measuresLagFromScheduleType() {
+        AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(1));
+        jobGuard.setNanoClock(now::get);
+        Runnable takesTenSeconds = () -> now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+        // Both jobs run for 10 s and start again 1 s after the previous run ended
+        for (ScheduledJobGuard.Trigger trigger : ScheduledJobGuard.Trigger.values()) {
+            assertTrue(jobGuard.run(trigger.name(), trigger, Duration.ofSeconds(1), takesTenSeconds));
+            now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+            assertTrue(jobGuard.run(trigger.name(), trigger, Duration.ofSeconds(1), takesTenSeconds));
+        }
+
+        // Fixed delay: started right on time; fixed rate: due 1 s after the first start, 10 s late
+        assertEquals(0, meterRegistry.timer("capsule.job.lag", "job", "FIXED_DELAY").max(TimeUnit.SECONDS));
+        assertEquals(10, meterRegistry.timer("capsule.job.lag", "job", "FIXED_RATE").max(TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.timecapsule.scheduler;
+
+import com.example.timecapsule.model.SchedulerCheckpoint;
+import com.example.timecapsule.model.TimeCapsule;
+import com.example.timecapsule.repository.SchedulerCheckpointRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class UnlockBacklogDrainTest {
+
+    private MongoTemplate mongoTemplate;
+    private SchedulerCheckpointRepository checkpointRepository;
+    private CapsuleUnlockScheduler unlockScheduler;
+    private UnlockBacklogDrain backlogDrain;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        checkpointRepository = mock(SchedulerCheckpointRepository.class);
+        unlockScheduler = mock(CapsuleUnlockScheduler.class);
+        backlogDrain = new UnlockBacklogDrain(mongoTemplate, checkpointRepository, unlockScheduler,
+                new ScheduledJobGuard(new SimpleMeterRegistry()));
+        backlogDrain.setPageSize(2);
+        when(checkpointRepository.findById(UnlockBacklogDrain.CHECKPOINT_ID)).thenReturn(Optional.empty());
+    }
+
+    @Test
+    void testDrain_handsOverFixedSizePagesAndCheckpointsEachPage() {
+        Instant base = Instant.now().minusSeconds(3600);
+        when(mongoTemplate.stream(any(Query.class), eq(TimeCapsule.class))).thenReturn(Stream.of(
+                overdue("a", base), overdue("b", base.plusSeconds(1)), overdue("c", base.plusSeconds(2))));
+
+        backlogDrain.drain();
+
+        verify(unlockScheduler).unlockDue(List.of("a", "b"));
+        verify(unlockScheduler).unlockDue(List.of("c"));
+        ArgumentCaptor<SchedulerCheckpoint> captor = ArgumentCaptor.forClass(SchedulerCheckpoint.class);
+        verify(checkpointRepository, times(2)).save(captor.capture());
+        assertEquals("b", captor.getAllValues().get(0).getLastCapsuleId());
+        assertEquals("c", captor.getAllValues().get(1).getLastCapsuleId());
+        verify(checkpointRepository).deleteById(UnlockBacklogDrain.CHECKPOINT_ID);
+    }
+
+    @Test
+    void testDrain_doesNothingWithoutBacklog() {
+        when(mongoTemplate.stream(any(Query.class), eq(TimeCapsule.class))).thenReturn(Stream.empty());
+
+        backlogDrain.drain();
+
+        verifyNoInteractions(unlockScheduler);
+        verify(checkpointRepository, never()).save(any());
+        verify(checkpointRepository, never()).deleteById(any());
+    }
+
+    @Test
+    void testBacklogQuery_projectsIdAndUnlockDateAndResumesAfterCheckpoint() {
+        Instant checkpointDate = Instant.now().minusSeconds(60);
+        Query query = backlogDrain.backlogQuery(Instant.now(),
+                new SchedulerCheckpoint(UnlockBacklogDrain.CHECKPOINT_ID, checkpointDate, "b"));
+
+        assertEquals(new Document("unlockDate", 1), query.getFieldsObject());
+        assertTrue(query.getQueryObject().toJson().contains("\"$or\""));
+        assertEquals(new Document("unlockDate", 1).append("_id", 1), query.getSortObject());
+    }
+
+    private TimeCapsule overdue(String id, Instant unlockDate) {
+        TimeCapsule capsule = new TimeCapsule();
+        capsule.setId(id);
+        capsule.setUnlockDate(unlockDate);
+        return capsule;
+    }
+}
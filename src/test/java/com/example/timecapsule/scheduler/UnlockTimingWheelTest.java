@@ -0,0 +1,68 @@
+package com.example.timecapsule.scheduler;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnlockTimingWheelTest {
+
+    private UnlockTimingWheel timingWheel;
+    private List<String> fired;
+    private CountDownLatch latch;
+
+    @BeforeEach
+    void setUp() {
+        timingWheel = new UnlockTimingWheel();
+        timingWheel.setWindowMs(60_000);
+        timingWheel.advanceHorizon(Instant.now().plusSeconds(60));
+        fired = new CopyOnWriteArrayList<>();
+        latch = new CountDownLatch(2);
+        timingWheel.onDue(ids -> {
+            fired.addAll(ids);
+            ids.forEach(id -> latch.countDown());
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        timingWheel.shutdown();
+    }
+
+    @Test
+    void testFiresCapsulesInUnlockOrder() throws InterruptedException {
+        Instant now = Instant.now();
+        timingWheel.track("later", now.plusMillis(300));
+        timingWheel.track("sooner", now.plusMillis(100));
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS), "Both capsules should fire");
+        assertEquals(List.of("sooner", "later"), fired);
+        assertEquals(0, timingWheel.size());
+    }
+
+    @Test
+    void testIgnoresCapsulesBeyondHorizon() {
+        timingWheel.track("far-away", Instant.now().plusSeconds(3600));
+
+        assertEquals(0, timingWheel.size());
+    }
+
+    @Test
+    void testRescheduleAndUntrack() throws InterruptedException {
+        Instant now = Instant.now();
+        timingWheel.track("moved", now.plusSeconds(30));
+        timingWheel.track("moved", now.plusMillis(100));
+        timingWheel.track("deleted", now.plusMillis(100));
+        timingWheel.untrack("deleted");
+
+        assertFalse(latch.await(500, TimeUnit.MILLISECONDS));
+        assertEquals(List.of("moved"), fired);
+    }
+}
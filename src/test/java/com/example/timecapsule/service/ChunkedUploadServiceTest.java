@@ -0,0 +1,288 @@
+package com.example.timecapsule.service;
+
+import com.example.timecapsule.model.FileMetadata;
+import com.example.timecapsule.model.TimeCapsule;
+import com.example.timecapsule.model.UploadSession;
+import com.example.timecapsule.repository.StoredBlobRepository;
+import com.example.timecapsule.repository.TimeCapsuleRepository;
+import com.example.timecapsule.repository.UploadSessionRepository;
+import com.example.timecapsule.scheduler.ScheduledJobGuard;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ChunkedUploadServiceTest {
+
+    @TempDir
+    Path uploadDir;
+
+    private UploadSessionRepository sessionRepository;
+    private TimeCapsuleRepository capsuleRepository;
+    private StoredBlobRepository blobRepository;
+    private FileStorageService fileStorageService;
+    private ChunkedUploadService uploadService;
+    private AtomicReference<UploadSession> stored;
+    private TimeCapsule capsule;
+    private byte[] content;
+
+    @BeforeEach
+    void setUp() {
+        sessionRepository = mock(UploadSessionRepository.class);
+        capsuleRepository = mock(TimeCapsuleRepository.class);
+        blobRepository = mock(StoredBlobRepository.class);
+        fileStorageService = new FileStorageService(blobRepository);
+        fileStorageService.setUploadDir(uploadDir.toString());
+        fileStorageService.setContentAddressed(false);
+        uploadService = new ChunkedUploadService(sessionRepository, capsuleRepository, fileStorageService,
+                new ScheduledJobGuard(new SimpleMeterRegistry()));
+
+        capsule = new TimeCapsule();
+        capsule.setId("capsule1");
+        capsule.setOwnerUsername("alice");
+        when(capsuleRepository.findById("capsule1")).thenReturn(Optional.of(capsule));
+
+        // In-memory stand-in for the session collection, including the conditional updates
+        stored = new AtomicReference<>();
+        when(sessionRepository.save(any())).thenAnswer(invocation -> {
+            stored.set(invocation.getArgument(0));
+            return stored.get();
+        });
+        when(sessionRepository.findById(anyString())).thenAnswer(invocation -> Optional.ofNullable(stored.get()));
+        when(sessionRepository.advanceOffset(anyString(), anyLong(), anyLong(), any(), any())).thenAnswer(invocation -> {
+            UploadSession session = stored.get();
+            if (session.getCommittedOffset() != invocation.<Long>getArgument(1)) {
+                return false;
+            }
+            session.setCommittedOffset(invocation.getArgument(2));
+            return true;
+        });
+        when(sessionRepository.claimCompletion(anyString(), anyLong(), any(), any())).thenAnswer(invocation -> {
+            UploadSession session = stored.get();
+            if (session.getStatus() != UploadSession.Status.OPEN) {
+                return false;
+            }
+            session.setStatus(UploadSession.Status.COMPLETING);
+            return true;
+        });
+        when(sessionRepository.recordStoredFile(anyString(), anyString(), any())).thenAnswer(invocation -> {
+            UploadSession session = stored.get();
+            if (session.getStatus() != UploadSession.Status.COMPLETING) {
+                return false;
+            }
+            session.setStoredFileName(invocation.getArgument(1));
+            return true;
+        });
+        when(sessionRepository.markCompleted(anyString(), any(), any())).thenAnswer(invocation -> {
+            UploadSession session = stored.get();
+            if (session.getStatus() != UploadSession.Status.COMPLETING) {
+                return false;
+            }
+            session.setStatus(UploadSession.Status.COMPLETED);
+            return true;
+        });
+        // Stand-in for the guarded $push: entries are only appended while the capsule is LOCKED
+        when(capsuleRepository.addFilesIfLocked(eq("capsule1"), anyList())).thenAnswer(invocation -> {
+            if (capsule.getStatus() != TimeCapsule.CapsuleStatus.LOCKED) {
+                return false;
+            }
+            if (capsule.getFileMetadataList() == null) {
+                capsule.setFileMetadataList(new ArrayList<>());
+            }
+            capsule.getFileMetadataList().addAll(invocation.getArgument(1));
+            return true;
+        });
+
+        content = new byte[700_000];
+        new Random(42).nextBytes(content);
+    }
+
+    @Test
+    void testChunksAreWrittenInPlaceAndAttachedOnComplete() throws IOException {
+        UploadSession session = uploadService.start("capsule1", "alice", "video.mp4", "video/mp4", content.length);
+
+        long offset = 0;
+        while (offset < content.length) {
+            int end = (int) Math.min(content.length, offset + 256_000);
+            offset = uploadService.writeChunk(session.getId(), "alice", offset, end - offset, slice(offset, end));
+        }
+        FileMetadata metadata = uploadService.complete(session.getId(), "alice");
+
+        assertEquals(content.length, offset);
+        assertEquals("video.mp4", metadata.getOriginalName());
+        assertEquals(content.length, metadata.getSize());
+        assertTrue(metadata.getFileName().endsWith(".mp4"));
+        assertArrayEquals(content, Files.readAllBytes(uploadDir.resolve(metadata.getFileName())));
+        assertEquals(List.of(metadata), capsule.getFileMetadataList());
+        assertEquals(UploadSession.Status.COMPLETED, stored.get().getStatus());
+        verify(capsuleRepository, never()).save(any());
+    }
+
+    @Test
+    void testCompleteAfterUnlockDiscardsTheFileAndSession() throws IOException {
+        UploadSession session = uploadService.start("capsule1", "alice", "notes.txt", "text/plain", 4);
+        uploadService.writeChunk(session.getId(), "alice", 0, 4, new ByteArrayInputStream("abcd".getBytes()));
+        // The unlock pipeline wins the race between the status check and the push
+        when(capsuleRepository.addFilesIfLocked(eq("capsule1"), anyList())).thenReturn(false);
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> uploadService.complete(session.getId(), "alice"));
+
+        assertEquals(HttpStatus.CONFLICT.value(), e.getStatusCode().value());
+        assertFalse(Files.exists(uploadDir.resolve(session.getFileName())));
+        verify(sessionRepository).deleteById(session.getId());
+        verify(sessionRepository, never()).markCompleted(anyString(), any(), any());
+    }
+
+    @Test
+    void testInterruptedChunkKeepsReceivedBytesAndResumes() throws IOException {
+        UploadSession session = uploadService.start("capsule1", "alice", "video.mp4", "video/mp4", content.length);
+
+        // The connection drops after 300 000 bytes of a chunk that declared the whole file
+        InputStream dropping = new InputStream() {
+            private final InputStream data = slice(0, 300_000);
+
+            @Override
+            public int read() throws IOException {
+                int b = data.read();
+                if (b < 0) {
+                    throw new IOException("Connection reset");
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int off, int len) throws IOException {
+                int n = data.read(buffer, off, len);
+                if (n < 0) {
+                    throw new IOException("Connection reset");
+                }
+                return n;
+            }
+        };
+        assertThrows(IOException.class,
+                () -> uploadService.writeChunk(session.getId(), "alice", 0, content.length, dropping));
+        long resumeAt = uploadService.getSession(session.getId(), "alice").getCommittedOffset();
+        assertEquals(300_000, resumeAt);
+
+        uploadService.writeChunk(session.getId(), "alice", resumeAt, content.length - resumeAt, slice(resumeAt, content.length));
+        FileMetadata metadata = uploadService.complete(session.getId(), "alice");
+
+        assertArrayEquals(content, Files.readAllBytes(uploadDir.resolve(metadata.getFileName())));
+    }
+
+    @Test
+    void testChunkAtWrongOffsetIsRejected() throws IOException {
+        UploadSession session = uploadService.start("capsule1", "alice", "notes.txt", "text/plain", 10);
+        uploadService.writeChunk(session.getId(), "alice", 0, 4, new ByteArrayInputStream("abcd".getBytes()));
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> uploadService.writeChunk(session.getId(), "alice", 0, 4, new ByteArrayInputStream("abcd".getBytes())));
+
+        assertEquals(HttpStatus.CONFLICT.value(), e.getStatusCode().value());
+        assertEquals(4, stored.get().getCommittedOffset());
+    }
+
+    @Test
+    void testIncompleteUploadCannotBeCompleted() throws IOException {
+        UploadSession session = uploadService.start("capsule1", "alice", "notes.txt", "text/plain", 10);
+        uploadService.writeChunk(session.getId(), "alice", 0, 4, new ByteArrayInputStream("abcd".getBytes()));
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> uploadService.complete(session.getId(), "alice"));
+
+        assertEquals(HttpStatus.CONFLICT.value(), e.getStatusCode().value());
+        assertNull(capsule.getFileMetadataList());
+    }
+
+    @Test
+    void testOnlyTheCapsuleOwnerCanUpload() {
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> uploadService.start("capsule1", "mallory", "x.bin", null, 10));
+
+        assertEquals(HttpStatus.FORBIDDEN.value(), e.getStatusCode().value());
+    }
+
+    @Test
+    void testPurgeDeletesExpiredSessionsAndPartialFiles() throws IOException {
+        UploadSession session = uploadService.start("capsule1", "alice", "notes.txt", "text/plain", 10);
+        uploadService.writeChunk(session.getId(), "alice", 0, 4, new ByteArrayInputStream("abcd".getBytes()));
+        when(sessionRepository.findByExpiresAtBefore(any(Instant.class))).thenReturn(List.of(session));
+
+        uploadService.purgeExpiredSessions();
+
+        assertFalse(Files.exists(uploadDir.resolve(session.getFileName())));
+        verify(sessionRepository).deleteById(session.getId());
+    }
+
+    @Test
+    void testPurgeKeepsTheFileOfACompletedSession() throws IOException {
+        UploadSession session = uploadService.start("capsule1", "alice", "notes.txt", "text/plain", 4);
+        uploadService.writeChunk(session.getId(), "alice", 0, 4, new ByteArrayInputStream("abcd".getBytes()));
+        FileMetadata metadata = uploadService.complete(session.getId(), "alice");
+        when(sessionRepository.findByExpiresAtBefore(any(Instant.class))).thenReturn(List.of(stored.get()));
+
+        uploadService.purgeExpiredSessions();
+
+        verify(sessionRepository).deleteById(session.getId());
+        assertTrue(Files.exists(uploadDir.resolve(metadata.getFileName())));
+    }
+
+    @Test
+    void testPurgeReleasesTheBlobOfACompletionThatDiedBeforeAttaching() throws IOException {
+        fileStorageService.setContentAddressed(true);
+        UploadSession session = uploadService.start("capsule1", "alice", "notes.txt", "text/plain", 4);
+        uploadService.writeChunk(session.getId(), "alice", 0, 4, new ByteArrayInputStream("abcd".getBytes()));
+        when(capsuleRepository.addFilesIfLocked(eq("capsule1"), anyList())).thenThrow(new IllegalStateException("connection lost"));
+        assertThrows(IllegalStateException.class, () -> uploadService.complete(session.getId(), "alice"));
+        String sha256 = stored.get().getStoredFileName();
+        when(sessionRepository.findByExpiresAtBefore(any(Instant.class))).thenReturn(List.of(stored.get()));
+
+        uploadService.purgeExpiredSessions();
+
+        assertEquals(64, sha256.length());
+        verify(blobRepository).release(eq(sha256), any());
+        verify(sessionRepository).deleteById(session.getId());
+    }
+
+    @Test
+    void testPurgeKeepsTheBlobOfACompletionThatDiedAfterAttaching() throws IOException {
+        fileStorageService.setContentAddressed(true);
+        UploadSession session = uploadService.start("capsule1", "alice", "notes.txt", "text/plain", 4);
+        uploadService.writeChunk(session.getId(), "alice", 0, 4, new ByteArrayInputStream("abcd".getBytes()));
+        when(sessionRepository.markCompleted(anyString(), any(), any())).thenThrow(new IllegalStateException("connection lost"));
+        assertThrows(IllegalStateException.class, () -> uploadService.complete(session.getId(), "alice"));
+        when(sessionRepository.findByExpiresAtBefore(any(Instant.class))).thenReturn(List.of(stored.get()));
+
+        uploadService.purgeExpiredSessions();
+
+        assertEquals(UploadSession.Status.COMPLETING, stored.get().getStatus());
+        assertEquals(stored.get().getStoredFileName(), capsule.getFileMetadataList().get(0).getFileName());
+        verify(blobRepository, never()).release(anyString(), any());
+        verify(sessionRepository).deleteById(session.getId());
+        assertTrue(Files.exists(uploadDir.resolve(stored.get().getStoredFileName())));
+    }
+
+    private InputStream slice(long from, long to) {
+        return new ByteArrayInputStream(Arrays.copyOfRange(content, (int) from, (int) to));
+    }
+}
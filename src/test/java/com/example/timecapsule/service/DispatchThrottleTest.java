@@ -0,0 +1,72 @@
+package com.example.timecapsule.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DispatchThrottleTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private DispatchThrottle throttle;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        throttle = new DispatchThrottle(meterRegistry);
+        throttle.setSmoothingWindowMs(600_000);
+    }
+
+    @Test
+    void testDispatchAt_spreadsSimultaneousUnlocksAcrossWindow() {
+        Instant unlockDate = Instant.now().plusSeconds(3600);
+        Set<Instant> slots = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            Instant slot = throttle.dispatchAt("capsule-" + i, unlockDate, Instant.now());
+            assertFalse(slot.isBefore(unlockDate));
+            assertTrue(slot.isBefore(unlockDate.plusMillis(600_000)));
+            slots.add(slot);
+        }
+        assertTrue(slots.size() > 90);
+    }
+
+    @Test
+    void testDispatchAt_spreadsTheRecipientsOfOneCapsule() {
+        Instant unlockDate = Instant.now().plusSeconds(3600);
+        Set<Instant> slots = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            slots.add(throttle.dispatchAt("capsule-1" + "friend" + i + "@example.com", unlockDate, Instant.now()));
+        }
+        assertTrue(slots.size() > 90);
+    }
+
+    @Test
+    void testDispatchAt_isStableAndNeverInThePast() {
+        Instant now = Instant.now();
+        Instant unlockDate = now.minusSeconds(3600);
+
+        assertEquals(now, throttle.dispatchAt("c1", unlockDate, now));
+        Instant future = now.plusSeconds(60);
+        assertEquals(throttle.dispatchAt("c2", future, now), throttle.dispatchAt("c2", future, now));
+    }
+
+    @Test
+    void testAcquire_enforcesRateCeiling() throws InterruptedException {
+        throttle.setMaxPerSecond(20);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 40; i++) {
+            throttle.acquire();
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        // The first second's worth goes out as a burst, the rest is paced at 20/s
+        assertTrue(elapsedMs >= 900, "took " + elapsedMs + " ms");
+        assertEquals(40.0, meterRegistry.counter("capsule.dispatch.sent").count());
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.timecapsule.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DomainRateLimiterTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private DomainRateLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        limiter = new DomainRateLimiter(meterRegistry);
+        limiter.setInitialPerSecond(2);
+    }
+
+    @Test
+    void testDomainOf_normalizesRecipientDomain() {
+        assertEquals("gmail.com", DomainRateLimiter.domainOf("Someone@GMail.com "));
+        assertEquals("", DomainRateLimiter.domainOf(null));
+    }
+
+    @Test
+    void testTryAcquire_throttlesOneDomainWithoutAffectingOthers() {
+        assertTrue(limiter.tryAcquire("gmail.com"));
+        assertTrue(limiter.tryAcquire("gmail.com"));
+        assertFalse(limiter.tryAcquire("gmail.com"));
+        assertTrue(limiter.tryAcquire("yahoo.com"));
+
+        Duration retryAfter = limiter.retryAfter("gmail.com");
+        assertTrue(retryAfter.toMillis() > 0 && retryAfter.toMillis() <= 500, "retry after " + retryAfter);
+        assertEquals(1.0, meterRegistry.counter("capsule.smtp.domain.throttled").count());
+    }
+
+    @Test
+    void testParkDelay_spreadsParkedMailAtTheDomainRate() {
+        assertTrue(limiter.tryAcquire("gmail.com"));
+        assertTrue(limiter.tryAcquire("gmail.com"));
+
+        long first = limiter.parkDelay("gmail.com").toMillis();
+        long second = limiter.parkDelay("gmail.com").toMillis();
+        long third = limiter.parkDelay("gmail.com").toMillis();
+
+        // At 2 per second the parked messages come due half a second apart, not all together
+        assertTrue(first > 0 && first <= 500, "first parked for " + first);
+        assertEquals(500, second - first, 50);
+        assertEquals(500, third - second, 50);
+    }
+
+    @Test
+    void testRate_adaptsToDeferralsLatencyAndSuccess() {
+        limiter.setSlowMs(1000);
+
+        limiter.onDeferral("gmail.com");
+        assertEquals(1.0, limiter.getRate("gmail.com"));
+        assertFalse(limiter.tryAcquire("gmail.com"));
+
+        limiter.onSuccess("gmail.com", Duration.ofMillis(50));
+        assertEquals(1.5, limiter.getRate("gmail.com"));
+
+        limiter.onSuccess("gmail.com", Duration.ofSeconds(3));
+        assertEquals(1.125, limiter.getRate("gmail.com"));
+        assertEquals(1.0, meterRegistry.get("capsule.smtp.domain.slowed").gauge().value());
+    }
+
+    @Test
+    void testEvictIdle_dropsIdleBucketsButKeepsSlowedAndParkedDomains() {
+        limiter.setIdleMs(0);
+        assertTrue(limiter.tryAcquire("gmail.com"));
+        assertTrue(limiter.tryAcquire("gmail.com"));
+        limiter.onDeferral("yahoo.com");
+        assertTrue(limiter.tryAcquire("outlook.com"));
+        assertTrue(limiter.tryAcquire("outlook.com"));
+        limiter.parkDelay("outlook.com");
+
+        limiter.evictIdle();
+
+        // gmail.com starts again with a full bucket; the slowed and the parked domain are kept
+        assertEquals(2.0, meterRegistry.get("capsule.smtp.domain.tracked").gauge().value());
+        assertTrue(limiter.tryAcquire("gmail.com"));
+        assertTrue(limiter.tryAcquire("gmail.com"));
+        assertEquals(1.0, limiter.getRate("yahoo.com"));
+        assertFalse(limiter.tryAcquire("outlook.com"));
+
+        limiter.setSlowedIdleMs(0);
+        limiter.evictIdle();
+        assertEquals(2.0, limiter.getRate("yahoo.com"));
+    }
+}
@@ -1,14 +1,31 @@
 package com.example.timecapsule.service;
 
-import com.example.timecapsule.model.FileMetadata;
-import com.example.timecapsule.model.TimeCapsule;
+import com.example.timecapsule.model.CapsuleNotification;
+import com.example.timecapsule.repository.CapsuleNotificationRepository;
+import com.example.timecapsule.repository.QuoteCacheRepository;
 import com.example.timecapsule.repository.TimeCapsuleRepository;
-import com.example.timecapsule.security.JwtUtils;
+import com.example.timecapsule.scheduler.ScheduledJobGuard;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.angus.mail.smtp.SMTPAddressFailedException;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -16,102 +33,394 @@ import static org.mockito.Mockito.*;
 
 class EmailSchedulerServiceTest {
 
+    private CapsuleNotificationRepository notificationRepository;
     private TimeCapsuleRepository capsuleRepository;
-    private EmailService emailService;
-    private JwtUtils jwtUtils;
+    private JavaMailSender mailSender;
     private QuoteService quoteService;
+    private ExecutorService executor;
+    private SimpleMeterRegistry meterRegistry;
+    private DomainRateLimiter domainLimiter;
+    private QuoteCache quoteCache;
+    private QuoteCorpus quoteCorpus;
     private EmailSchedulerService schedulerService;
+    private List<SimpleMailMessage[]> sentBatches;
 
     @BeforeEach
     void setUp() {
+        notificationRepository = mock(CapsuleNotificationRepository.class);
         capsuleRepository = mock(TimeCapsuleRepository.class);
-        emailService = mock(EmailService.class);
-        jwtUtils = mock(JwtUtils.class);
+        mailSender = mock(JavaMailSender.class);
         quoteService = mock(QuoteService.class);
+        EmailService emailService = new EmailService(mailSender);
+        emailService.setFromEmail("noreply@timecapsule.com");
+        CapsuleClaimService claimService = new CapsuleClaimService(capsuleRepository, "node-a");
+        executor = Executors.newFixedThreadPool(4);
+        meterRegistry = new SimpleMeterRegistry();
+        DownstreamLimits limits = new DownstreamLimits(2, 2, 2, meterRegistry);
+
+        domainLimiter = new DomainRateLimiter(meterRegistry);
+
+        sentBatches = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> sentBatches.add((SimpleMailMessage[]) invocation.getRawArguments()[0]))
+                .when(mailSender).send(any(SimpleMailMessage[].class));
 
         when(quoteService.getQuote(anyString())).thenReturn("Mock quote for testing.");
-        schedulerService = new EmailSchedulerService(capsuleRepository, emailService, jwtUtils, quoteService);
+        quoteCache = new QuoteCache(quoteService, mock(QuoteCacheRepository.class), meterRegistry);
+        quoteCache.setMongoEnabled(false);
+        quoteCorpus = mock(QuoteCorpus.class);
+        schedulerService = new EmailSchedulerService(notificationRepository, capsuleRepository, claimService,
+                emailService, quoteCache, quoteCorpus, limits, new DispatchThrottle(meterRegistry), domainLimiter,
+                executor, new ScheduledJobGuard(meterRegistry), meterRegistry);
+        // Nothing is prefetched here, so fetch on a miss like a cold node would with the flag set
+        schedulerService.setFetchQuoteOnMiss(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
     }
 
     @Test
-    void testCheckAndSendCapsules_sendsEmailAndUnlocksCapsule() {
+    void testDrainOutbox_sendsEmailAndMarksSent() {
         // Given
-        TimeCapsule capsule = new TimeCapsule();
-        capsule.setId("capsule123");
-        capsule.setRecipientEmail("test@example.com");
-        capsule.setOwnerUsername("owner1");
-        capsule.setUnlockDate(Instant.now().minusSeconds(10));
-        capsule.setStatus(TimeCapsule.CapsuleStatus.LOCKED);
-        capsule.setFileMetadataList(List.of(new FileMetadata()));
-        capsule.setTopic("birthday");
-
-        when(capsuleRepository.findByUnlockDateBeforeAndStatus(any(), eq(TimeCapsule.CapsuleStatus.LOCKED)))
-                .thenReturn(List.of(capsule));
-        when(jwtUtils.generateJwtToken("capsule123")).thenReturn("mocked-token");
+        CapsuleNotification notification = notification("n1", "capsule123", "birthday");
+        when(notificationRepository.claimNextDue(eq("node-a"), any(), any()))
+                .thenReturn(Optional.of(notification), Optional.empty());
 
         // When
-        schedulerService.checkAndSendCapsules();
+        schedulerService.drainOutbox();
 
         // Then
         verify(quoteService, times(1)).getQuote("birthday");
-        verify(emailService, times(1)).sendCapsuleUnlockEmail(eq(capsule), contains("mocked-token"), eq("Mock quote for testing."));
-        verify(capsuleRepository, times(1)).save(capsule);
+        SimpleMailMessage message = sentMessages().get(0);
+        assertEquals("test@example.com", message.getTo()[0]);
+        assertTrue(message.getText().contains("token-capsule123"));
+        assertTrue(message.getText().contains("Mock quote for testing."));
+        verify(notificationRepository, times(1)).markSent(eq("n1"), eq("node-a"), any());
+        verify(capsuleRepository, times(1)).markRecipientNotified(eq("capsule123"), eq("test@example.com"), any());
+        verify(capsuleRepository, times(1)).markNotified("capsule123");
+    }
 
-        assertEquals(TimeCapsule.CapsuleStatus.UNLOCKED, capsule.getStatus());
+    @Test
+    void testDrainOutbox_handlesExceptionGracefully() {
+        // Given
+        CapsuleNotification notification = notification("n2", "capsule456", "failure");
+        notification.setAttempts(1);
+        when(notificationRepository.claimNextDue(eq("node-a"), any(), any()))
+                .thenReturn(Optional.of(notification), Optional.empty());
+
+        // Simulate email failure
+        doThrow(new MailSendException("Email failed")).when(mailSender).send(any(SimpleMailMessage[].class));
+
+        // When
+        assertDoesNotThrow(() -> schedulerService.drainOutbox());
+
+        // Then
+        verify(notificationRepository, never()).markSent(anyString(), anyString(), any());
+        verify(notificationRepository).reschedule(eq("n2"), eq("node-a"), any(), eq("Email failed"));
+        verify(capsuleRepository, never()).markNotified(anyString());
     }
 
     @Test
-    void testCheckAndSendCapsules_handlesExceptionGracefully() {
+    void testDrainOutbox_usesDefaultTopicIfNull() {
         // Given
-        TimeCapsule capsule = new TimeCapsule();
-        capsule.setId("capsule456");
-        capsule.setRecipientEmail("error@example.com");
-        capsule.setOwnerUsername("owner2");
-        capsule.setUnlockDate(Instant.now().minusSeconds(10));
-        capsule.setStatus(TimeCapsule.CapsuleStatus.LOCKED);
-        capsule.setFileMetadataList(List.of());
-        capsule.setTopic("failure");
+        CapsuleNotification notification = notification("n3", "capsule789", null);
+        when(notificationRepository.claimNextDue(eq("node-a"), any(), any()))
+                .thenReturn(Optional.of(notification), Optional.empty());
+
+        // When
+        schedulerService.drainOutbox();
 
-        when(capsuleRepository.findByUnlockDateBeforeAndStatus(any(), any()))
-                .thenReturn(List.of(capsule));
-        when(jwtUtils.generateJwtToken("capsule456")).thenReturn("bad-token");
-        when(quoteService.getQuote(anyString())).thenReturn("Mock quote");
+        // Then
+        verify(quoteService).getQuote("memories"); // default topic fallback
+        assertTrue(sentMessages().get(0).getText().contains("Quote on 'memories'"));
+        verify(notificationRepository).markSent(eq("n3"), eq("node-a"), any());
+    }
 
-        // Simulate email failure
-        doThrow(new RuntimeException("Email failed")).when(emailService)
-                .sendCapsuleUnlockEmail(eq(capsule), anyString(), anyString());
+    @Test
+    void testDrainOutbox_fallsBackToLocalQuote() {
+        // Given
+        CapsuleNotification notification = notification("n4", "capsule000", "life");
+        when(notificationRepository.claimNextDue(eq("node-a"), any(), any()))
+                .thenReturn(Optional.of(notification), Optional.empty());
+        when(quoteService.getQuote("life")).thenThrow(new RuntimeException("Gemini down"));
 
         // When
-        assertDoesNotThrow(() -> schedulerService.checkAndSendCapsules());
+        schedulerService.drainOutbox();
 
         // Then
-        verify(emailService, times(1)).sendCapsuleUnlockEmail(eq(capsule), anyString(), anyString());
-        verify(capsuleRepository, never()).save(any());
+        assertTrue(sentMessages().get(0).getText().contains(EmailSchedulerService.FALLBACK_QUOTE));
+        verify(notificationRepository).markSent(eq("n4"), eq("node-a"), any());
     }
 
     @Test
-    void testCheckAndSendCapsules_usesDefaultTopicIfNull() {
+    void testDrainOutbox_isolatesFailuresBetweenCapsules() {
         // Given
-        TimeCapsule capsule = new TimeCapsule();
-        capsule.setId("capsule789");
-        capsule.setRecipientEmail("default@example.com");
-        capsule.setOwnerUsername("owner3");
-        capsule.setUnlockDate(Instant.now().minusSeconds(10));
-        capsule.setStatus(TimeCapsule.CapsuleStatus.LOCKED);
-        capsule.setFileMetadataList(List.of()); // No files
-        capsule.setTopic(null); // null topic
+        CapsuleNotification failing = notification("n5", "capsule-bad", "life");
+        failing.setRecipientEmail("bad@example.com");
+        failing.setAttempts(1);
+        CapsuleNotification healthy = notification("n6", "capsule-good", "life");
+        when(notificationRepository.claimNextDue(eq("node-a"), any(), any()))
+                .thenReturn(Optional.of(failing), Optional.of(healthy), Optional.empty());
+        doAnswer(invocation -> {
+            Map<Object, Exception> failed = new LinkedHashMap<>();
+            for (SimpleMailMessage message : (SimpleMailMessage[]) invocation.getRawArguments()[0]) {
+                if ("bad@example.com".equals(message.getTo()[0])) {
+                    failed.put(message, new RuntimeException("Mailbox unavailable"));
+                }
+            }
+            throw new MailSendException(failed);
+        }).when(mailSender).send(any(SimpleMailMessage[].class));
 
-        when(capsuleRepository.findByUnlockDateBeforeAndStatus(any(), any()))
-                .thenReturn(List.of(capsule));
-        when(jwtUtils.generateJwtToken("capsule789")).thenReturn("token789");
+        // When
+        schedulerService.drainOutbox();
+
+        // Then
+        verify(notificationRepository).reschedule(eq("n5"), eq("node-a"), any(), eq("Mailbox unavailable"));
+        verify(notificationRepository).markSent(eq("n6"), eq("node-a"), any());
+        assertEquals(2, meterRegistry.timer("capsule.notify.latency").count());
+        assertEquals(1.0, meterRegistry.counter("capsule.notify.failures").count());
+    }
+
+    @Test
+    void testDrainOutbox_reschedulesGroupWhoseEmailCannotBePrepared() {
+        // Given
+        schedulerService.setFetchQuoteOnMiss(false);
+        CapsuleNotification broken = notification("n22", "c22", "broken", "broken@example.com");
+        CapsuleNotification healthy = notification("n23", "c23", "life", "healthy@example.com");
+        when(quoteCorpus.lookup("broken")).thenThrow(new IllegalStateException("Corpus unavailable"));
+        when(notificationRepository.claimNextDue(eq("node-a"), any(), any()))
+                .thenReturn(Optional.of(broken), Optional.of(healthy), Optional.empty());
 
         // When
-        schedulerService.checkAndSendCapsules();
+        assertDoesNotThrow(() -> schedulerService.drainOutbox());
 
         // Then
-        verify(quoteService).getQuote("memories"); // default topic fallback
-        verify(emailService).sendCapsuleUnlockEmail(eq(capsule), anyString(), anyString());
-        verify(capsuleRepository).save(capsule);
-        assertEquals(TimeCapsule.CapsuleStatus.UNLOCKED, capsule.getStatus());
+        verify(notificationRepository).reschedule(eq("n22"), eq("node-a"), any(), eq("Corpus unavailable"));
+        verify(notificationRepository).markSent(eq("n23"), eq("node-a"), any());
+        assertEquals(1, sentMessages().size());
+    }
+
+    @Test
+    void testDrainOutbox_sendsInSmtpBatches() {
+        // Given
+        schedulerService.setSmtpBatchSize(2);
+        when(notificationRepository.claimNextDue(eq("node-a"), any(), any()))
+                .thenReturn(Optional.of(notification("n7", "c7", "life", "r7@example.com")),
+                        Optional.of(notification("n8", "c8", "life", "r8@example.com")),
+                        Optional.of(notification("n9", "c9", "life", "r9@example.com")), Optional.empty());
+
+        // When
+        schedulerService.drainOutbox();
+
+        // Then
+        assertEquals(2, sentBatches.size());
+        assertEquals(3, sentMessages().size());
+        verify(notificationRepository, times(3)).markSent(anyString(), eq("node-a"), any());
+    }
+
+    @Test
+    void testDrainOutbox_deadLettersAfterMaxAttempts() {
+        // Given
+        schedulerService.setMaxAttempts(3);
+        CapsuleNotification notification = notification("n10", "capsule-x", "life");
+        notification.setAttempts(3);
+        when(notificationRepository.claimNextDue(eq("node-a"), any(), any()))
+                .thenReturn(Optional.of(notification), Optional.empty());
+        doThrow(new MailSendException("Connection refused")).when(mailSender).send(any(SimpleMailMessage[].class));
+
+        // When
+        schedulerService.drainOutbox();
+
+        // Then
+        verify(notificationRepository).deadLetter(eq("n10"), eq("node-a"), any(), eq("Connection refused"));
+        verify(notificationRepository, never()).reschedule(anyString(), anyString(), any(), anyString());
+        assertEquals(1.0, meterRegistry.counter("capsule.notify.dead-letter").count());
+    }
+
+    @Test
+    void testDrainOutbox_parksMailForThrottledDomain() {
+        // Given
+        domainLimiter.setInitialPerSecond(1);
+        CapsuleNotification first = notification("n11", "c11", "life", "first@example.com");
+        CapsuleNotification second = notification("n12", "c12", "life", "second@example.com");
+        CapsuleNotification other = notification("n13", "c13", "life");
+        other.setRecipientEmail("someone@other.org");
+        when(notificationRepository.claimNextDue(eq("node-a"), any(), any()))
+                .thenReturn(Optional.of(first), Optional.of(second), Optional.of(other), Optional.empty());
+
+        // When
+        schedulerService.drainOutbox();
+
+        // Then
+        verify(notificationRepository).markSent(eq("n11"), eq("node-a"), any());
+        verify(notificationRepository).park(eq("n12"), eq("node-a"), any());
+        verify(notificationRepository).markSent(eq("n13"), eq("node-a"), any());
+        verify(quoteService, times(1)).getQuote("life"); // second email is served from the quote cache
+    }
+
+    @Test
+    void testDrainOutbox_staggersParkedMailAndStopsWhenBatchIsMostlyParked() {
+        // Given
+        schedulerService.setBatchSize(2);
+        domainLimiter.setInitialPerSecond(1);
+        AtomicInteger ids = new AtomicInteger();
+        when(notificationRepository.claimNextDue(eq("node-a"), any(), any())).thenAnswer(invocation -> {
+            int id = ids.incrementAndGet();
+            return Optional.of(notification("p" + id, "cp" + id, "life", "r" + id + "@slow.example"));
+        });
+
+        // When
+        schedulerService.drainOutbox();
+
+        // Then: the first batch sends one and parks one, the second is all parked and ends the drain
+        verify(notificationRepository, times(4)).claimNextDue(eq("node-a"), any(), any());
+        verify(notificationRepository).markSent(eq("p1"), eq("node-a"), any());
+        ArgumentCaptor<Instant> parkedUntil = ArgumentCaptor.forClass(Instant.class);
+        verify(notificationRepository, times(3)).park(anyString(), eq("node-a"), parkedUntil.capture());
+        List<Instant> due = parkedUntil.getAllValues();
+        assertTrue(due.get(0).isBefore(due.get(1)) && due.get(1).isBefore(due.get(2)), "parked until " + due);
+    }
+
+    @Test
+    void testDrainOutbox_slowsDomainDownOnDeferral() {
+        // Given
+        CapsuleNotification notification = notification("n14", "c14", "life");
+        when(notificationRepository.claimNextDue(eq("node-a"), any(), any()))
+                .thenReturn(Optional.of(notification), Optional.empty());
+        SMTPAddressFailedException greylisted = new SMTPAddressFailedException(null, "RCPT TO", 450, "4.2.1 Try again later");
+        doThrow(new MailSendException("Deferred", greylisted)).when(mailSender).send(any(SimpleMailMessage[].class));
+        double before = domainLimiter.getRate("example.com");
+
+        // When
+        schedulerService.drainOutbox();
+
+        // Then
+        assertEquals(before / 2, domainLimiter.getRate("example.com"));
+        verify(notificationRepository).reschedule(eq("n14"), eq("node-a"), any(), anyString());
+    }
+
+    @Test
+    void testDrainOutbox_sendsOneDigestPerRecipient() {
+        // Given
+        CapsuleNotification first = notification("n15", "c15", "graduation");
+        CapsuleNotification second = notification("n16", "c16", "graduation");
+        second.setOwnerUsername("owner2");
+        CapsuleNotification upcoming = notification("n17", "c17", "friendship");
+        when(notificationRepository.claimNextDue(eq("node-a"), any(), any()))
+                .thenReturn(Optional.of(first), Optional.of(second), Optional.empty());
+        when(notificationRepository.claimNextForRecipient(eq("test@example.com"), eq("node-a"), any(), any(), any()))
+                .thenReturn(Optional.of(upcoming), Optional.empty());
+
+        // When
+        schedulerService.drainOutbox();
+
+        // Then
+        assertEquals(1, sentMessages().size());
+        SimpleMailMessage digest = sentMessages().get(0);
+        assertEquals("🎁 3 Digital Time Capsules Are Ready!", digest.getSubject());
+        assertTrue(digest.getText().contains("token-c15"));
+        assertTrue(digest.getText().contains("token-c16"));
+        assertTrue(digest.getText().contains("token-c17"));
+        assertTrue(digest.getText().contains("From owner2"));
+        verify(quoteService, times(1)).getQuote("memories"); // mixed topics use the default
+        verify(notificationRepository, times(3)).markSent(anyString(), eq("node-a"), any());
+        assertEquals(1.0, meterRegistry.counter("capsule.notify.digests").count());
+    }
+
+    @Test
+    void testDrainOutbox_sendsSeparateEmailsWhenDigestDisabled() {
+        // Given
+        schedulerService.setDigestWindowMs(0);
+        when(notificationRepository.claimNextDue(eq("node-a"), any(), any()))
+                .thenReturn(Optional.of(notification("n18", "c18", "life")), Optional.empty());
+
+        // When
+        schedulerService.drainOutbox();
+
+        // Then
+        verify(notificationRepository, never()).claimNextForRecipient(anyString(), anyString(), any(), any(), any());
+        assertEquals("🎁 Your Digital Time Capsule Is Ready!", sentMessages().get(0).getSubject());
+    }
+
+    @Test
+    void testDrainOutbox_usesPreparedQuoteWithoutCallingGemini() {
+        // Given
+        schedulerService.setFetchQuoteOnMiss(false);
+        when(quoteService.getQuote("anniversary")).thenReturn("Prepared quote.");
+        quoteCache.warm("anniversary");
+        when(notificationRepository.claimNextDue(eq("node-a"), any(), any()))
+                .thenReturn(Optional.of(notification("n19", "c19", "anniversary")), Optional.empty());
+
+        // When
+        schedulerService.drainOutbox();
+
+        // Then
+        verify(quoteService, times(1)).getQuote("anniversary"); // only the warm-up
+        assertTrue(sentMessages().get(0).getText().contains("Prepared quote."));
+        verify(notificationRepository).markSent(eq("n19"), eq("node-a"), any());
+    }
+
+    @Test
+    void testDrainOutbox_sendsFallbackAndWarmsTopicOnPrefetchMiss() {
+        // Given
+        schedulerService.setFetchQuoteOnMiss(false);
+        quoteCache.setExecutor(Runnable::run);
+        when(notificationRepository.claimNextDue(eq("node-a"), any(), any()))
+                .thenReturn(Optional.of(notification("n20", "c20", "wedding")), Optional.empty());
+
+        // When
+        schedulerService.drainOutbox();
+
+        // Then
+        assertTrue(sentMessages().get(0).getText().contains(EmailSchedulerService.FALLBACK_QUOTE));
+        verify(notificationRepository).markSent(eq("n20"), eq("node-a"), any());
+        assertEquals(Optional.of("Mock quote for testing."), quoteCache.peek("wedding"));
+    }
+
+    @Test
+    void testDrainOutbox_usesCorpusQuoteOnPrefetchMiss() {
+        // Given
+        schedulerService.setFetchQuoteOnMiss(false);
+        when(quoteCorpus.lookup("wedding")).thenReturn(Optional.of("“Grow old along with me!” — Robert Browning"));
+        when(notificationRepository.claimNextDue(eq("node-a"), any(), any()))
+                .thenReturn(Optional.of(notification("n21", "c21", "wedding")), Optional.empty());
+
+        // When
+        schedulerService.drainOutbox();
+
+        // Then
+        assertTrue(sentMessages().get(0).getText().contains("Grow old along with me!"));
+        verify(notificationRepository).markSent(eq("n21"), eq("node-a"), any());
+    }
+
+    @Test
+    void testRetryDelay_backsOffExponentiallyUpToCap() {
+        assertEquals(Duration.ofMinutes(1), schedulerService.retryDelay(1));
+        assertEquals(Duration.ofMinutes(2), schedulerService.retryDelay(2));
+        assertEquals(Duration.ofMinutes(8), schedulerService.retryDelay(4));
+        assertEquals(Duration.ofHours(1), schedulerService.retryDelay(30));
+    }
+
+    private List<SimpleMailMessage> sentMessages() {
+        List<SimpleMailMessage> messages = new ArrayList<>();
+        sentBatches.forEach(batch -> messages.addAll(List.of(batch)));
+        return messages;
+    }
+
+    private CapsuleNotification notification(String id, String capsuleId, String topic) {
+        return notification(id, capsuleId, topic, "test@example.com");
+    }
+
+    private CapsuleNotification notification(String id, String capsuleId, String topic, String recipient) {
+        CapsuleNotification notification = new CapsuleNotification();
+        notification.setId(id);
+        notification.setCapsuleId(capsuleId);
+        notification.setRecipientEmail(recipient);
+        notification.setOwnerUsername("owner1");
+        notification.setTopic(topic);
+        notification.setPublicAccessToken("token-" + capsuleId);
+        notification.setCreatedAt(Instant.now());
+        return notification;
     }
 }
@@ -0,0 +1,70 @@
+package com.example.timecapsule.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmailServiceSmtpTest {
+
+    private FakeSmtpServer smtpServer;
+    private EmailService emailService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        smtpServer = new FakeSmtpServer();
+        JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+        mailSender.setHost("127.0.0.1");
+        mailSender.setPort(smtpServer.getPort());
+        emailService = new EmailService(mailSender);
+        emailService.setFromEmail("noreply@timecapsule.com");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        smtpServer.close();
+    }
+
+    @Test
+    void testSendBatch_deliversAllMessagesOverOneConnection() {
+        List<SimpleMailMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            messages.add(emailService.buildCapsuleUnlockEmail("friend" + i + "@example.com", "owner",
+                    "life", "http://example.com/view/" + i, "quote"));
+        }
+
+        long start = System.nanoTime();
+        Map<SimpleMailMessage, Exception> failures = emailService.sendBatch(messages);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(failures.isEmpty());
+        assertEquals(200, smtpServer.getDelivered().size());
+        assertEquals(1, smtpServer.getConnections());
+        assertTrue(elapsedMs < 10_000, "took " + elapsedMs + " ms");
+    }
+
+    @Test
+    void testSendBatch_reportsRejectedRecipientsWithoutStoppingTheBatch() {
+        smtpServer.rejectRecipient("gone@example.com", "550 5.1.1 No such user");
+        smtpServer.rejectRecipient("busy@example.com", "450 4.2.1 Try again later");
+        SimpleMailMessage gone = emailService.buildCapsuleUnlockEmail("gone@example.com", "owner", "life", "link", "quote");
+        SimpleMailMessage busy = emailService.buildCapsuleUnlockEmail("busy@example.com", "owner", "life", "link", "quote");
+        SimpleMailMessage ok = emailService.buildCapsuleUnlockEmail("ok@example.com", "owner", "life", "link", "quote");
+
+        Map<SimpleMailMessage, Exception> failures = emailService.sendBatch(List.of(gone, busy, ok));
+
+        assertEquals(2, failures.size());
+        assertTrue(EmailService.isPermanentFailure(failures.get(gone)));
+        assertEquals(450, EmailService.smtpReplyCode(failures.get(busy)));
+        assertFalse(EmailService.isPermanentFailure(failures.get(busy)));
+        assertEquals(1, smtpServer.getDelivered().size());
+        assertEquals(List.of("ok@example.com"), smtpServer.getDelivered().get(0).recipients());
+    }
+}
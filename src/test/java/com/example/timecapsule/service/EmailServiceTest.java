@@ -7,6 +7,8 @@ import org.mockito.ArgumentCaptor;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
@@ -62,4 +64,18 @@ class EmailServiceTest {
         assertEquals("noreply@timecapsule.com", message.getFrom());
         assertEquals("🎁 Your Digital Time Capsule Is Ready!", message.getSubject());
     }
+
+    @Test
+    void testBuildCapsuleDigestEmail_listsEveryLink() {
+        SimpleMailMessage message = emailService.buildCapsuleDigestEmail("friend@example.com", List.of(
+                new EmailService.CapsuleLink("alice", "http://example.com/view/1"),
+                new EmailService.CapsuleLink("bob", "http://example.com/view/2")), "friendship", "Mock quote.");
+
+        assertEquals("friend@example.com", message.getTo()[0]);
+        assertEquals("🎁 2 Digital Time Capsules Are Ready!", message.getSubject());
+        assertTrue(message.getText().contains("From alice: http://example.com/view/1"));
+        assertTrue(message.getText().contains("From bob: http://example.com/view/2"));
+        assertTrue(message.getText().contains("Mock quote."));
+        assertEquals("noreply@timecapsule.com", message.getFrom());
+    }
 }
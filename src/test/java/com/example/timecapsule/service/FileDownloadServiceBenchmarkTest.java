@@ -0,0 +1,137 @@
+package com.example.timecapsule.service;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Throughput of {@link FileDownloadService#serve} over loopback, next to a plain InputStream copy
+ * of the same file. Not part of the unit suite: run it with
+ * {@code mvn test -Dtest=FileDownloadServiceBenchmarkTest -Dbenchmark=true}. The sendfile path
+ * needs a real Tomcat connector, so what is measured here is the buffered fallback.
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class FileDownloadServiceBenchmarkTest {
+
+    private static final int MEGABYTES = 256;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testServeThroughput() throws Exception {
+        Path large = dir.resolve("large.bin");
+        byte[] block = new byte[1 << 20];
+        new Random(9).nextBytes(block);
+        try (OutputStream out = Files.newOutputStream(large)) {
+            for (int i = 0; i < MEGABYTES; i++) {
+                out.write(block);
+            }
+        }
+        File file = large.toFile();
+        FileDownloadService downloadService = new FileDownloadService();
+        downloadService.setSendfileEnabled(false);
+
+        double copied = 0;
+        double served = 0;
+        for (int round = 0; round < 3; round++) { // the first round warms up
+            double copy = megabytesPerSecond(file.length(), out -> {
+                try (InputStream in = Files.newInputStream(large)) {
+                    in.transferTo(out);
+                }
+            });
+            double serve = megabytesPerSecond(file.length(), out -> downloadService.serve(file,
+                    "application/octet-stream", "\"benchmark\"", file.lastModified(), null, new MockHttpServletRequest("GET", "/"), responseOver(out)));
+            if (round > 0) {
+                copied += copy / 2;
+                served += serve / 2;
+            }
+        }
+
+        System.out.printf("Download of %d MB over loopback: InputStream copy %.0f MB/s, serve() %.0f MB/s%n",
+                MEGABYTES, copied, served);
+    }
+
+    private interface Sender {
+        void send(OutputStream out) throws IOException;
+    }
+
+    /** Sends the body to a loopback socket and returns the throughput once the reader has all of it. */
+    private static double megabytesPerSecond(long size, Sender sender) throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CompletableFuture<Long> drained = CompletableFuture.supplyAsync(() -> {
+                try (Socket client = new Socket(server.getInetAddress(), server.getLocalPort());
+                     InputStream in = client.getInputStream()) {
+                    byte[] buffer = new byte[1 << 16];
+                    long total = 0;
+                    int read;
+                    while ((read = in.read(buffer)) >= 0) {
+                        total += read;
+                    }
+                    return total;
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            long start;
+            try (Socket socket = server.accept(); OutputStream out = socket.getOutputStream()) {
+                start = System.nanoTime();
+                sender.send(out);
+            }
+            assertEquals(size, drained.get());
+            return size / 1e6 / ((System.nanoTime() - start) / 1e9);
+        }
+    }
+
+    /** A response whose body goes to {@code out}, as the servlet container's would go to the socket. */
+    private static HttpServletResponseWrapper responseOver(OutputStream out) {
+        ServletOutputStream body = new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+        };
+        return new HttpServletResponseWrapper(new MockHttpServletResponse()) {
+            @Override
+            public ServletOutputStream getOutputStream() {
+                return body;
+            }
+        };
+    }
+}
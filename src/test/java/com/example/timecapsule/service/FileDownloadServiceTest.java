@@ -0,0 +1,261 @@
+package com.example.timecapsule.service;
+
+import com.example.timecapsule.model.FileMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileDownloadServiceTest {
+
+    private static final String ETAG = "\"5f2b0c1e\"";
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+    private static final long MODIFIED_AT = 1_750_000_000_000L;
+
+    @TempDir
+    Path dir;
+
+    private FileDownloadService downloadService;
+    private File file;
+    private byte[] content;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        downloadService = new FileDownloadService();
+        content = new byte[100_000];
+        new Random(5).nextBytes(content);
+        file = Files.write(dir.resolve("video.mp4"), content).toFile();
+    }
+
+    @Test
+    void testWholeFileWithoutRange() throws IOException {
+        MockHttpServletResponse response = serve(new MockHttpServletRequest("GET", "/"));
+
+        assertEquals(200, response.getStatus());
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        assertEquals(content.length, response.getContentLengthLong());
+        assertArrayEquals(content, response.getContentAsByteArray());
+    }
+
+    @Test
+    void testSingleRange() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader("Range", "bytes=1000-1999");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 1000-1999/100000", response.getHeader("Content-Range"));
+        assertEquals(1000, response.getContentLengthLong());
+        assertEquals("video/mp4", response.getContentType());
+        assertArrayEquals(Arrays.copyOfRange(content, 1000, 2000), response.getContentAsByteArray());
+    }
+
+    @Test
+    void testOpenAndSuffixRanges() throws IOException {
+        MockHttpServletRequest resume = new MockHttpServletRequest("GET", "/");
+        resume.addHeader("Range", "bytes=99000-");
+        MockHttpServletRequest tail = new MockHttpServletRequest("GET", "/");
+        tail.addHeader("Range", "bytes=-500");
+
+        assertArrayEquals(Arrays.copyOfRange(content, 99_000, 100_000), serve(resume).getContentAsByteArray());
+        MockHttpServletResponse tailResponse = serve(tail);
+        assertEquals("bytes 99500-99999/100000", tailResponse.getHeader("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(content, 99_500, 100_000), tailResponse.getContentAsByteArray());
+    }
+
+    @Test
+    void testSeveralRangesAreSentAsMultipartByteranges() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader("Range", "bytes=5000-5099, 0-9, 8-19");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertEquals(206, response.getStatus());
+        assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="));
+        String boundary = response.getContentType().substring(response.getContentType().indexOf('=') + 1);
+        byte[] body = response.getContentAsByteArray();
+        assertEquals(body.length, response.getContentLengthLong());
+
+        // Overlapping ranges are merged and the parts come in file order
+        String text = new String(body, StandardCharsets.ISO_8859_1);
+        int first = text.indexOf("Content-Range: bytes 0-19/100000");
+        int second = text.indexOf("Content-Range: bytes 5000-5099/100000");
+        assertTrue(first > 0 && second > first);
+        assertTrue(text.endsWith("\r\n--" + boundary + "--\r\n"));
+        int dataStart = text.indexOf("\r\n\r\n", second) + 4;
+        assertArrayEquals(Arrays.copyOfRange(content, 5000, 5100), Arrays.copyOfRange(body, dataStart, dataStart + 100));
+    }
+
+    @Test
+    void testUnsatisfiableRange() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader("Range", "bytes=200000-");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */100000", response.getHeader("Content-Range"));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void testIfRangeServesWholeFileWhenItChanged() throws IOException {
+        String lastModified = httpDate(file.lastModified());
+        MockHttpServletRequest current = new MockHttpServletRequest("GET", "/");
+        current.addHeader("Range", "bytes=0-99");
+        current.addHeader("If-Range", lastModified);
+        MockHttpServletRequest stale = new MockHttpServletRequest("GET", "/");
+        stale.addHeader("Range", "bytes=0-99");
+        stale.addHeader("If-Range", httpDate(file.lastModified() - 60_000));
+
+        assertEquals(206, serve(current).getStatus());
+        MockHttpServletResponse response = serve(stale);
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(content, response.getContentAsByteArray());
+    }
+
+    @Test
+    void testIfRangeAcceptsTheEntityTag() throws IOException {
+        MockHttpServletRequest current = new MockHttpServletRequest("GET", "/");
+        current.addHeader("Range", "bytes=0-99");
+        current.addHeader("If-Range", ETAG);
+        MockHttpServletRequest stale = new MockHttpServletRequest("GET", "/");
+        stale.addHeader("Range", "bytes=0-99");
+        stale.addHeader("If-Range", "\"older\"");
+
+        assertEquals(206, serve(current).getStatus());
+        assertEquals(200, serve(stale).getStatus());
+    }
+
+    @Test
+    void testValidatorsAreSent() throws IOException {
+        MockHttpServletResponse response = serve(new MockHttpServletRequest("GET", "/"));
+
+        assertEquals(ETAG, response.getHeader("ETag"));
+        assertEquals(file.lastModified() / 1000 * 1000, response.getDateHeader("Last-Modified"));
+    }
+
+    @Test
+    void testMatchingIfNoneMatchIsNotModified() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader("If-None-Match", ETAG);
+
+        MockHttpServletResponse response = serve(request);
+
+        assertEquals(304, response.getStatus());
+        assertEquals(ETAG, response.getHeader("ETag"));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void testIfModifiedSinceIsNotModified() throws IOException {
+        MockHttpServletRequest unchanged = new MockHttpServletRequest("GET", "/");
+        unchanged.addHeader("If-Modified-Since", httpDate(file.lastModified()));
+        MockHttpServletRequest older = new MockHttpServletRequest("GET", "/");
+        older.addHeader("If-Modified-Since", httpDate(file.lastModified() - 60_000));
+
+        assertEquals(304, serve(unchanged).getStatus());
+        assertEquals(200, serve(older).getStatus());
+    }
+
+    @Test
+    void testNotModifiedNeedsNoFile() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.addHeader("If-None-Match", "\"other\", " + ETAG);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertTrue(downloadService.notModified(ETAG, MODIFIED_AT, request, response));
+        assertEquals(304, response.getStatus());
+        assertFalse(downloadService.notModified(ETAG, MODIFIED_AT, new MockHttpServletRequest("GET", "/"), new MockHttpServletResponse()));
+    }
+
+    @Test
+    void testNotModifiedSinceNeedsNoFile() {
+        MockHttpServletRequest unchanged = new MockHttpServletRequest("GET", "/");
+        unchanged.addHeader("If-Modified-Since", httpDate(MODIFIED_AT));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockHttpServletRequest older = new MockHttpServletRequest("GET", "/");
+        older.addHeader("If-Modified-Since", httpDate(MODIFIED_AT - 60_000));
+
+        assertTrue(downloadService.notModified(ETAG, MODIFIED_AT, unchanged, response));
+        assertEquals(304, response.getStatus());
+        assertFalse(downloadService.notModified(ETAG, MODIFIED_AT, older, new MockHttpServletResponse()));
+    }
+
+    @Test
+    void testEntityTagComesFromTheMetadata() {
+        FileMetadata hashed = new FileMetadata("ab12.mp4", "clip.mp4", "video/mp4", 10, "/x", "ab12");
+        FileMetadata legacy = new FileMetadata("1234_clip.mp4", "clip.mp4", "video/mp4", 255, "/x", null);
+
+        assertEquals("\"ab12\"", FileDownloadService.entityTag(hashed));
+        assertEquals("\"1234_clip.mp4-ff\"", FileDownloadService.entityTag(legacy));
+    }
+
+    @Test
+    void testSendfileIsHandedToTheConnector() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/");
+        request.setAttribute(FileDownloadService.SENDFILE_SUPPORTED, Boolean.TRUE);
+        request.addHeader("Range", "bytes=10000-");
+
+        MockHttpServletResponse response = serve(request);
+
+        assertEquals(206, response.getStatus());
+        assertEquals(file.getCanonicalPath(), request.getAttribute(FileDownloadService.SENDFILE_FILENAME));
+        assertEquals(10_000L, request.getAttribute(FileDownloadService.SENDFILE_START));
+        assertEquals(100_000L, request.getAttribute(FileDownloadService.SENDFILE_END));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void testCacheControlOnlyOnCacheableStatuses() throws IOException {
+        MockHttpServletRequest range = new MockHttpServletRequest("GET", "/");
+        range.addHeader("Range", "bytes=0-99");
+        MockHttpServletRequest revalidate = new MockHttpServletRequest("GET", "/");
+        revalidate.addHeader("If-None-Match", ETAG);
+        MockHttpServletRequest unsatisfiable = new MockHttpServletRequest("GET", "/");
+        unsatisfiable.addHeader("Range", "bytes=200000-");
+
+        assertEquals(CACHE_CONTROL, serve(new MockHttpServletRequest("GET", "/")).getHeader("Cache-Control"));
+        assertEquals(CACHE_CONTROL, serve(range).getHeader("Cache-Control"));
+        MockHttpServletResponse notModified = serve(revalidate);
+        assertEquals(304, notModified.getStatus());
+        assertEquals(CACHE_CONTROL, notModified.getHeader("Cache-Control"));
+        MockHttpServletResponse rangeError = serve(unsatisfiable);
+        assertEquals(416, rangeError.getStatus());
+        assertNull(rangeError.getHeader("Cache-Control"));
+    }
+
+    @Test
+    void testHeadSendsHeadersOnly() throws IOException {
+        MockHttpServletResponse response = serve(new MockHttpServletRequest("HEAD", "/"));
+
+        assertEquals(200, response.getStatus());
+        assertEquals(content.length, response.getContentLengthLong());
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    private MockHttpServletResponse serve(MockHttpServletRequest request) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        downloadService.serve(file, "video/mp4", ETAG, file.lastModified(), CACHE_CONTROL, request, response);
+        return response;
+    }
+
+    private static String httpDate(long epochMillis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(epochMillis).atZone(ZoneOffset.UTC));
+    }
+}
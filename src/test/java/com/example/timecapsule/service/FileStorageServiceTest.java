@@ -1,16 +1,30 @@
 package com.example.timecapsule.service;
 
 import com.example.timecapsule.model.FileMetadata;
+import com.example.timecapsule.model.StoredBlob;
+import com.example.timecapsule.repository.StoredBlobRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.springframework.mock.web.MockMultipartFile;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 class FileStorageServiceTest {
 
@@ -19,9 +33,62 @@ class FileStorageServiceTest {
     @TempDir
     Path tempUploadDir;
 
+    private Map<String, StoredBlob> blobs;
+    private StoredBlobRepository blobRepository;
+
     @BeforeEach
     void setUp() {
-        fileStorageService = new FileStorageService();
+        // In-memory stand-in for the blobs collection and its atomic updates
+        blobs = new HashMap<>();
+        blobRepository = mock(StoredBlobRepository.class);
+        when(blobRepository.addReference(anyString(), anyLong(), any(), any())).thenAnswer(invocation -> {
+            String sha256 = invocation.getArgument(0);
+            StoredBlob before = copy(blobs.get(sha256));
+            StoredBlob blob = blobs.computeIfAbsent(sha256, id -> {
+                StoredBlob created = new StoredBlob();
+                created.setId(id);
+                created.setSize(invocation.getArgument(1));
+                created.setOwners(new HashSet<>());
+                return created;
+            });
+            blob.setRefCount(blob.getRefCount() + 1);
+            blob.setDeleting(null);
+            if (invocation.getArgument(2) != null) {
+                blob.getOwners().add(invocation.getArgument(2));
+            }
+            return before;
+        });
+        when(blobRepository.addOwnedReference(anyString(), anyString(), any())).thenAnswer(invocation -> {
+            StoredBlob blob = blobs.get(invocation.<String>getArgument(0));
+            if (blob == null || blob.getRefCount() <= 0 || !blob.getOwners().contains(invocation.<String>getArgument(1))) {
+                return null;
+            }
+            blob.setRefCount(blob.getRefCount() + 1);
+            return copy(blob);
+        });
+        when(blobRepository.release(anyString(), any())).thenAnswer(invocation -> {
+            StoredBlob blob = blobs.get(invocation.<String>getArgument(0));
+            if (blob == null || blob.getRefCount() <= 0) {
+                return -1L;
+            }
+            blob.setRefCount(blob.getRefCount() - 1);
+            return blob.getRefCount();
+        });
+        when(blobRepository.claimDeletion(anyString(), anyString())).thenAnswer(invocation -> {
+            StoredBlob blob = blobs.get(invocation.<String>getArgument(0));
+            if (blob == null || blob.getRefCount() > 0 || blob.getDeleting() != null) {
+                return false;
+            }
+            blob.setDeleting(invocation.getArgument(1));
+            return true;
+        });
+        when(blobRepository.removeIfClaimed(anyString(), anyString())).thenAnswer(invocation -> {
+            StoredBlob blob = blobs.get(invocation.<String>getArgument(0));
+            return blob != null && blob.getRefCount() <= 0 && invocation.getArgument(1).equals(blob.getDeleting())
+                    && blobs.remove(blob.getId()) != null;
+        });
+
+        fileStorageService = new FileStorageService(blobRepository);
         fileStorageService.setUploadDir(tempUploadDir.toString());
     }
 
@@ -82,4 +149,101 @@ class FileStorageServiceTest {
         // Then
         assertFalse(fileBeforeDelete.exists());
     }
+
+    @Test
+    void testIdenticalContentIsStoredOnce() throws IOException {
+        FileMetadata first = fileStorageService.saveFile(new MockMultipartFile("file", "beach.jpg", "image/jpeg", "same bytes".getBytes()));
+        FileMetadata second = fileStorageService.saveFile(new MockMultipartFile("file", "copy.jpg", "image/jpeg", "same bytes".getBytes()));
+
+        assertEquals(first.getSha256(), first.getFileName());
+        assertEquals(first.getFileName(), second.getFileName());
+        assertEquals("copy.jpg", second.getOriginalName());
+        assertEquals(1, storedFiles());
+        assertEquals(2, blobs.get(first.getSha256()).getRefCount());
+    }
+
+    @Test
+    void testBlobIsDeletedWithItsLastReference() throws IOException {
+        FileMetadata first = fileStorageService.saveFile(new MockMultipartFile("file", "a.txt", "text/plain", "shared".getBytes()));
+        fileStorageService.saveFile(new MockMultipartFile("file", "b.txt", "text/plain", "shared".getBytes()));
+        File blob = new File(first.getStoragePath());
+
+        fileStorageService.deleteFile(first.getFileName());
+        assertTrue(blob.exists());
+
+        fileStorageService.deleteFile(first.getFileName());
+        assertFalse(blob.exists());
+        assertFalse(blobs.containsKey(first.getSha256()));
+    }
+
+    @Test
+    void testBlobReferencedAgainByAnotherNodeWhileDeletingIsKept() throws IOException {
+        FileMetadata stored = fileStorageService.saveFile(new MockMultipartFile("file", "a.txt", "text/plain", "shared".getBytes()));
+        // Another node adds a reference after the deletion was claimed, before the blob is removed
+        when(blobRepository.removeIfClaimed(anyString(), anyString())).thenAnswer(invocation -> {
+            StoredBlob blob = blobs.get(invocation.<String>getArgument(0));
+            blob.setRefCount(blob.getRefCount() + 1);
+            blob.setDeleting(null);
+            return false;
+        });
+
+        fileStorageService.deleteFile(stored.getFileName());
+
+        assertArrayEquals("shared".getBytes(), Files.readAllBytes(Path.of(stored.getStoragePath())));
+        assertEquals(1, blobs.get(stored.getSha256()).getRefCount());
+        assertEquals(1, storedFiles());
+    }
+
+    @Test
+    void testOnlyTheUploaderCanAttachByHash() throws IOException {
+        FileMetadata stored = fileStorageService.storeStream("alice", "video.mp4", "video/mp4",
+                new ByteArrayInputStream("video bytes".getBytes()), Long.MAX_VALUE);
+
+        Optional<FileMetadata> attached = fileStorageService.referenceExisting(stored.getSha256(), "alice", "again.mp4", "video/mp4");
+        Optional<FileMetadata> guessed = fileStorageService.referenceExisting(stored.getSha256(), "mallory", "x.mp4", "video/mp4");
+
+        assertTrue(attached.isPresent());
+        assertEquals(stored.getFileName(), attached.get().getFileName());
+        assertEquals(stored.getSize(), attached.get().getSize());
+        assertEquals("again.mp4", attached.get().getOriginalName());
+        assertTrue(guessed.isEmpty());
+        assertEquals(2, blobs.get(stored.getSha256()).getRefCount());
+    }
+
+    @Test
+    void testUnknownHashMustBeUploaded() throws IOException {
+        assertTrue(fileStorageService.referenceExisting("0".repeat(64), "alice", "a.txt", "text/plain").isEmpty());
+    }
+
+    @Test
+    void testWithoutContentAddressingEveryUploadGetsItsOwnFile() throws IOException {
+        fileStorageService.setContentAddressed(false);
+
+        FileMetadata first = fileStorageService.saveFile(new MockMultipartFile("file", "a.txt", "text/plain", "same".getBytes()));
+        FileMetadata second = fileStorageService.saveFile(new MockMultipartFile("file", "a.txt", "text/plain", "same".getBytes()));
+
+        assertNotEquals(first.getFileName(), second.getFileName());
+        assertEquals(first.getSha256(), second.getSha256());
+        assertEquals(2, storedFiles());
+        assertTrue(blobs.isEmpty());
+    }
+
+    private long storedFiles() throws IOException {
+        try (Stream<Path> files = Files.list(tempUploadDir)) {
+            return files.count();
+        }
+    }
+
+    private static StoredBlob copy(StoredBlob blob) {
+        if (blob == null) {
+            return null;
+        }
+        StoredBlob copy = new StoredBlob();
+        copy.setId(blob.getId());
+        copy.setSize(blob.getSize());
+        copy.setRefCount(blob.getRefCount());
+        copy.setOwners(new HashSet<>(blob.getOwners()));
+        copy.setDeleting(blob.getDeleting());
+        return copy;
+    }
 }
@@ -0,0 +1,96 @@
+package com.example.timecapsule.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeminiCircuitBreakerTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private GeminiCircuitBreaker breaker;
+    private Instant now;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        breaker = new GeminiCircuitBreaker(meterRegistry);
+        now = Instant.parse("2026-01-01T00:00:00Z");
+        breaker.setClock(Clock.fixed(now, ZoneOffset.UTC));
+    }
+
+    @Test
+    void testOpensOnceFailureRateReachesThreshold() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.tryAcquirePermission());
+            breaker.onSuccess();
+        }
+        for (int i = 0; i < 2; i++) {
+            assertTrue(breaker.tryAcquirePermission());
+            breaker.onFailure();
+        }
+        assertEquals(GeminiCircuitBreaker.State.CLOSED, breaker.getState()); // 2 of 5 failed
+
+        breaker.tryAcquirePermission();
+        breaker.onFailure();
+
+        assertEquals(GeminiCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquirePermission());
+        assertEquals(1.0, meterRegistry.counter("capsule.gemini.circuit.opened").count());
+        assertEquals(1.0, meterRegistry.counter("capsule.gemini.circuit.rejected").count());
+        assertEquals(1.0, meterRegistry.get("capsule.gemini.circuit.state").gauge().value());
+    }
+
+    @Test
+    void testHalfOpenLetsOneTrialThroughAndClosesOnSuccess() {
+        open();
+        breaker.setClock(Clock.fixed(now.plus(Duration.ofSeconds(30)), ZoneOffset.UTC));
+
+        assertTrue(breaker.tryAcquirePermission());
+        assertEquals(GeminiCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquirePermission()); // trial already in flight
+
+        breaker.onSuccess();
+
+        assertEquals(GeminiCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquirePermission());
+    }
+
+    @Test
+    void testFailedTrialReopensCircuit() {
+        open();
+        Instant later = now.plus(Duration.ofSeconds(30));
+        breaker.setClock(Clock.fixed(later, ZoneOffset.UTC));
+
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onFailure();
+
+        assertEquals(GeminiCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquirePermission());
+        assertEquals(2.0, meterRegistry.counter("capsule.gemini.circuit.opened").count());
+    }
+
+    @Test
+    void testIgnoredTrialFreesTheSlot() {
+        open();
+        breaker.setClock(Clock.fixed(now.plus(Duration.ofSeconds(30)), ZoneOffset.UTC));
+
+        assertTrue(breaker.tryAcquirePermission());
+        breaker.onIgnored();
+
+        assertTrue(breaker.tryAcquirePermission());
+    }
+
+    private void open() {
+        breaker.setMinimumCalls(1);
+        breaker.tryAcquirePermission();
+        breaker.onFailure();
+        assertEquals(GeminiCircuitBreaker.State.OPEN, breaker.getState());
+    }
+}
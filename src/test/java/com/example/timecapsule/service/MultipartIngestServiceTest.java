@@ -0,0 +1,220 @@
+package com.example.timecapsule.service;
+
+import com.example.timecapsule.model.FileMetadata;
+import com.example.timecapsule.repository.StoredBlobRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class MultipartIngestServiceTest {
+
+    private static final String BOUNDARY = "----capsuleBoundary7MA4YWxkTrZu0gW";
+    private static final String CONTENT_TYPE = "multipart/form-data; boundary=" + BOUNDARY;
+
+    @TempDir
+    Path uploadDir;
+
+    private MultipartIngestService ingestService;
+    private ExecutorService storageExecutor;
+
+    @BeforeEach
+    void setUp() {
+        FileStorageService fileStorageService = new FileStorageService(mock(StoredBlobRepository.class));
+        fileStorageService.setUploadDir(uploadDir.toString());
+        fileStorageService.setContentAddressed(false);
+        storageExecutor = Executors.newFixedThreadPool(4);
+        ingestService = new MultipartIngestService(fileStorageService, storageExecutor, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        storageExecutor.shutdownNow();
+    }
+
+    @Test
+    void testFieldsAndFilesAreReadInOnePass() throws Exception {
+        byte[] photo = new byte[300_000];
+        new Random(7).nextBytes(photo);
+        // Bytes that look like the start of a boundary must stay part of the file
+        byte[] tricky = ("line one\r\n--" + BOUNDARY.substring(0, 10) + "\r\n--\r\nend").getBytes(StandardCharsets.UTF_8);
+
+        byte[] body = new Body()
+                .field("recipientEmail", "bob@example.com")
+                .file("files", "photo.jpg", "image/jpeg", photo)
+                .field("unlockDate", "2030-01-01")
+                .file("files", "notes.txt", "text/plain", tricky)
+                .close();
+
+        MultipartIngestService.MultipartUpload upload = ingestService.ingest("alice", CONTENT_TYPE, trickle(body));
+
+        assertEquals("bob@example.com", upload.field("recipientEmail"));
+        assertEquals("2030-01-01", upload.field("unlockDate"));
+        List<FileMetadata> files = upload.files("files");
+        assertEquals(2, files.size());
+
+        FileMetadata stored = files.get(0);
+        assertEquals("photo.jpg", stored.getOriginalName());
+        assertEquals("image/jpeg", stored.getContentType());
+        assertEquals(photo.length, stored.getSize());
+        assertEquals(sha256(photo), stored.getSha256());
+        assertArrayEquals(photo, Files.readAllBytes(Path.of(stored.getStoragePath())));
+        assertArrayEquals(tricky, Files.readAllBytes(Path.of(files.get(1).getStoragePath())));
+    }
+
+    @Test
+    void testManyFilesAreStoredInParallelAndInOrder() throws Exception {
+        Body request = new Body().field("unlockDate", "2030-01-01");
+        byte[][] photos = new byte[30][];
+        Random random = new Random(11);
+        for (int i = 0; i < photos.length; i++) {
+            photos[i] = new byte[40_000 + i * 997];
+            random.nextBytes(photos[i]);
+            request.file("files", "photo" + i + ".jpg", "image/jpeg", photos[i]);
+        }
+
+        MultipartIngestService.MultipartUpload upload = ingestService.ingest("alice", CONTENT_TYPE, trickle(request.close()));
+
+        List<FileMetadata> files = upload.files("files");
+        assertEquals(photos.length, files.size());
+        for (int i = 0; i < photos.length; i++) {
+            assertEquals("photo" + i + ".jpg", files.get(i).getOriginalName());
+            assertArrayEquals(photos[i], Files.readAllBytes(Path.of(files.get(i).getStoragePath())));
+        }
+        assertEquals(photos.length, storedFiles());
+    }
+
+    @Test
+    void testSequentialModeStoresTheSameFiles() throws Exception {
+        ingestService.setParallel(false);
+        byte[] body = new Body()
+                .file("files", "a.txt", "text/plain", "first".getBytes(StandardCharsets.UTF_8))
+                .file("files", "b.txt", "text/plain", "second".getBytes(StandardCharsets.UTF_8))
+                .close();
+
+        MultipartIngestService.MultipartUpload upload = ingestService.ingest("alice", CONTENT_TYPE, new ByteArrayInputStream(body));
+
+        assertEquals(List.of("a.txt", "b.txt"), upload.files("files").stream().map(FileMetadata::getOriginalName).toList());
+        assertEquals(2, storedFiles());
+    }
+
+    @Test
+    void testEmptyFilePartsAreSkipped() throws Exception {
+        byte[] body = new Body()
+                .file("files", "", "application/octet-stream", new byte[0])
+                .field("unlockDate", "2030-01-01")
+                .close();
+
+        MultipartIngestService.MultipartUpload upload = ingestService.ingest("alice", CONTENT_TYPE, new ByteArrayInputStream(body));
+
+        assertTrue(upload.files("files").isEmpty());
+        assertEquals(0, storedFiles());
+    }
+
+    @Test
+    void testTruncatedBodyRemovesStoredFiles() {
+        byte[] body = new Body()
+                .file("files", "a.txt", "text/plain", "first file".getBytes(StandardCharsets.UTF_8))
+                .file("files", "b.txt", "text/plain", new byte[50_000])
+                .close();
+        byte[] truncated = Arrays.copyOf(body, body.length - 20_000);
+
+        assertThrows(IOException.class, () -> ingestService.ingest("alice", CONTENT_TYPE, new ByteArrayInputStream(truncated)));
+        assertEquals(0, storedFiles());
+    }
+
+    @Test
+    void testOversizedFileIsRejected() {
+        ingestService.setMaxFileBytes(1000);
+        byte[] body = new Body()
+                .file("files", "small.txt", "text/plain", new byte[10])
+                .file("files", "big.bin", "application/octet-stream", new byte[5000])
+                .close();
+
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> ingestService.ingest("alice", CONTENT_TYPE, new ByteArrayInputStream(body)));
+
+        assertEquals(HttpStatus.PAYLOAD_TOO_LARGE.value(), e.getStatusCode().value());
+        assertEquals(0, storedFiles());
+    }
+
+    @Test
+    void testNonMultipartRequestIsRejected() {
+        ResponseStatusException e = assertThrows(ResponseStatusException.class,
+                () -> ingestService.ingest("alice", "application/json", new ByteArrayInputStream(new byte[0])));
+
+        assertEquals(HttpStatus.UNSUPPORTED_MEDIA_TYPE.value(), e.getStatusCode().value());
+    }
+
+    private long storedFiles() throws IOException {
+        try (Stream<Path> files = Files.list(uploadDir)) {
+            return files.count();
+        }
+    }
+
+    /** Hands out the body in odd-sized reads, the way a socket does. */
+    private static InputStream trickle(byte[] body) {
+        return new ByteArrayInputStream(body) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1237));
+            }
+        };
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+
+    private static class Body {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Body() {
+            write("preamble to ignore\r\n");
+        }
+
+        Body field(String name, String value) {
+            write("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" + value + "\r\n");
+            return this;
+        }
+
+        Body file(String name, String fileName, String contentType, byte[] content) {
+            write("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"" + name + "\"; filename=\"" + fileName
+                    + "\"\r\nContent-Type: " + contentType + "\r\n\r\n");
+            out.writeBytes(content);
+            write("\r\n");
+            return this;
+        }
+
+        byte[] close() {
+            write("--" + BOUNDARY + "--\r\n");
+            return out.toByteArray();
+        }
+
+        private void write(String text) {
+            out.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.timecapsule.service;
+
+import com.example.timecapsule.model.QuoteCacheEntry;
+import com.example.timecapsule.repository.QuoteCacheRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class QuoteCacheTest {
+
+    private QuoteService quoteService;
+    private QuoteCacheRepository cacheRepository;
+    private SimpleMeterRegistry meterRegistry;
+    private QuoteCache quoteCache;
+    private Instant now;
+
+    @BeforeEach
+    void setUp() {
+        quoteService = mock(QuoteService.class);
+        cacheRepository = mock(QuoteCacheRepository.class);
+        meterRegistry = new SimpleMeterRegistry();
+        now = Instant.parse("2025-06-20T12:00:00Z");
+        quoteCache = new QuoteCache(quoteService, cacheRepository, meterRegistry);
+        quoteCache.setExecutor(Runnable::run);
+        quoteCache.setClock(Clock.fixed(now, ZoneOffset.UTC));
+        when(cacheRepository.findById(anyString())).thenReturn(Optional.empty());
+    }
+
+    @AfterEach
+    void tearDown() {
+        quoteCache.shutdown();
+    }
+
+    @Test
+    void testGetQuote_cachesByNormalizedTopic() {
+        when(quoteService.getQuote("best friends")).thenReturn("Friendship quote");
+
+        assertEquals("Friendship quote", quoteCache.getQuote("  Best   Friends "));
+        assertEquals("Friendship quote", quoteCache.getQuote("best friends"));
+
+        verify(quoteService, times(1)).getQuote(anyString());
+        assertEquals(1.0, meterRegistry.counter("capsule.quotes.cache", "result", "miss").count());
+        assertEquals(1.0, meterRegistry.counter("capsule.quotes.cache", "result", "hit").count());
+        verify(cacheRepository).save(any(QuoteCacheEntry.class));
+    }
+
+    @Test
+    void testGetQuote_servesStaleAndGrowsRotatingPool() {
+        when(quoteService.getQuote("life")).thenReturn("first", "second");
+        quoteCache.getQuote("life");
+
+        advance(Duration.ofHours(2)); // past refresh-after, before expire-after
+        assertEquals("first", quoteCache.getQuote("life"));
+
+        assertEquals(1.0, meterRegistry.counter("capsule.quotes.cache", "result", "stale").count());
+        List<String> served = List.of(quoteCache.getQuote("life"), quoteCache.getQuote("life"));
+        assertTrue(served.containsAll(List.of("first", "second")));
+    }
+
+    @Test
+    void testGetQuote_reloadsExpiredEntries() {
+        when(quoteService.getQuote("life")).thenReturn("old", "new");
+        quoteCache.getQuote("life");
+
+        advance(Duration.ofDays(2));
+
+        assertEquals("new", quoteCache.getQuote("life"));
+        assertEquals(2.0, meterRegistry.counter("capsule.quotes.cache", "result", "miss").count());
+    }
+
+    @Test
+    void testGetQuote_startsWarmFromMongo() {
+        when(cacheRepository.findById("gratitude"))
+                .thenReturn(Optional.of(new QuoteCacheEntry("gratitude", List.of("stored"), now.minusSeconds(60))));
+
+        assertEquals("stored", quoteCache.getQuote("Gratitude"));
+
+        verifyNoInteractions(quoteService);
+    }
+
+    @Test
+    void testGetQuote_doesNotCacheFailures() {
+        when(quoteService.getQuote("life")).thenThrow(new RuntimeException("Gemini down")).thenReturn("recovered");
+
+        assertThrows(RuntimeException.class, () -> quoteCache.getQuote("life"));
+        assertEquals("recovered", quoteCache.getQuote("life"));
+    }
+
+    @Test
+    void testGetQuote_fallbackIsNotStoredAndRefreshedSoon() {
+        when(quoteService.getQuote("life")).thenReturn("corpus quote", "gemini quote");
+        when(quoteService.isFallback("life", "corpus quote")).thenReturn(true);
+
+        assertEquals("corpus quote", quoteCache.getQuote("life"));
+        verify(cacheRepository, never()).save(any(QuoteCacheEntry.class));
+
+        advance(Duration.ofMinutes(2)); // past the fallback refresh, far from refresh-after
+        assertEquals("corpus quote", quoteCache.getQuote("life"));
+        assertEquals("gemini quote", quoteCache.getQuote("life"));
+        assertEquals("gemini quote", quoteCache.getQuote("life")); // the fallback left the pool
+        verify(cacheRepository).save(any(QuoteCacheEntry.class));
+    }
+
+    @Test
+    void testGetQuote_fallbackDuringRefreshKeepsTheRealPool() {
+        when(quoteService.getQuote("life")).thenReturn("gemini quote", "corpus quote");
+        when(quoteService.isFallback("life", "corpus quote")).thenReturn(true);
+        quoteCache.getQuote("life");
+
+        advance(Duration.ofHours(2));
+        quoteCache.getQuote("life"); // serves stale and refreshes, which only gets the fallback
+
+        assertEquals("gemini quote", quoteCache.getQuote("life"));
+        assertEquals("gemini quote", quoteCache.getQuote("life"));
+        verify(cacheRepository, times(1)).save(any(QuoteCacheEntry.class));
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsedTopic() {
+        quoteCache.setMaxTopics(2);
+        when(quoteService.getQuote(anyString())).thenReturn("quote");
+
+        quoteCache.getQuote("a");
+        quoteCache.getQuote("b");
+        quoteCache.getQuote("a");
+        quoteCache.getQuote("c");
+
+        assertEquals(2, quoteCache.size());
+        assertTrue(quoteCache.peek("a").isPresent());
+        assertTrue(quoteCache.peek("b").isEmpty());
+    }
+
+    private void advance(Duration duration) {
+        now = now.plus(duration);
+        quoteCache.setClock(Clock.fixed(now, ZoneOffset.UTC));
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.timecapsule.service;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Lookup cost of the bundled {@link QuoteCorpus}, next to scoring every line of the same corpus
+ * for each topic. Not part of the unit suite: run it with
+ * {@code mvn test -Dtest=QuoteCorpusBenchmarkTest -Dbenchmark=true}.
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class QuoteCorpusBenchmarkTest {
+
+    private static final List<String> TOPICS = List.of("memories", "our wedding anniversary", "graduation day",
+            "best friends forever", "first trip to Japan", "new baby", "quantum physics", "retirement party");
+    private static final int LOOKUPS = 200_000;
+
+    @Test
+    void testLookupThroughput() throws IOException {
+        ClassPathResource location = new ClassPathResource("quotes/corpus.txt");
+        QuoteCorpus bundled = new QuoteCorpus(location);
+        List<ScannedLine> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(location.getInputStream(), StandardCharsets.UTF_8))) {
+            reader.lines()
+                    .filter(line -> !line.isBlank() && !line.startsWith("#"))
+                    .map(line -> line.split("\\|"))
+                    .filter(fields -> fields.length >= 2)
+                    .forEach(fields -> lines.add(ScannedLine.of(fields)));
+        }
+
+        double indexed = 0;
+        double scanned = 0;
+        for (int round = 0; round < 3; round++) { // the first round warms up
+            double index = microsPerLookup(topic -> bundled.lookup(topic).orElseThrow());
+            double scan = microsPerLookup(topic -> fullScan(lines, topic));
+            if (round > 0) {
+                indexed += index / 2;
+                scanned += scan / 2;
+            }
+        }
+
+        System.out.printf("QuoteCorpus lookup over %d quotes: index %.2f µs/op, full scan %.2f µs/op%n",
+                bundled.size(), indexed, scanned);
+    }
+
+    private interface Lookup {
+        String find(String topic);
+    }
+
+    private static double microsPerLookup(Lookup lookup) {
+        int found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            found += lookup.find(TOPICS.get(i % TOPICS.size())).length();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (found == 0) {
+            throw new IllegalStateException("no quote found"); // keeps the lookups from being optimized away
+        }
+        return elapsed / 1000.0 / LOOKUPS;
+    }
+
+    /** The first best-scoring line for the topic, scoring every line as the index does. */
+    private static String fullScan(List<ScannedLine> lines, String topic) {
+        Set<String> topicTokens = QuoteCorpus.tokens(topic);
+        String best = lines.get(0).quote();
+        int bestScore = 0;
+        for (ScannedLine line : lines) {
+            int score = 0;
+            for (String token : topicTokens) {
+                score += (line.tags().contains(token) ? 3 : 0) + (line.words().contains(token) ? 1 : 0);
+            }
+            if (score > bestScore) {
+                best = line.quote();
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private record ScannedLine(String quote, Set<String> tags, Set<String> words) {
+
+        static ScannedLine of(String[] fields) {
+            Set<String> tags = new HashSet<>();
+            for (String tag : fields[0].split(",")) {
+                tags.addAll(QuoteCorpus.tokens(tag));
+            }
+            return new ScannedLine(fields[1].trim(), tags, QuoteCorpus.tokens(fields[1]));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.timecapsule.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuoteCorpusTest {
+
+    private final QuoteCorpus corpus = QuoteCorpus.of(
+            "# tags|quote|author",
+            "friendship,friends|A friend is someone who knows all about you and still loves you.|Elbert Hubbard",
+            "travel,adventure|Not all those who wander are lost.|J.R.R. Tolkien",
+            "travel,journey|A journey of a thousand miles begins with a single step.|Lao Tzu",
+            "general|Cherish yesterday, dream tomorrow, live today.|Proverb");
+
+    @Test
+    void testLookup_prefersTagMatches() {
+        assertEquals("“A friend is someone who knows all about you and still loves you.” — Elbert Hubbard",
+                corpus.lookup("Best Friends").orElseThrow());
+        assertTrue(corpus.hasTopic("friends"));
+    }
+
+    @Test
+    void testLookup_rotatesBetweenEquallyGoodMatches() {
+        Set<String> quotes = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            quotes.add(corpus.lookup("travel").orElseThrow());
+        }
+        assertEquals(2, quotes.size());
+    }
+
+    @Test
+    void testLookup_matchesWordsOfTheQuoteItself() {
+        assertFalse(corpus.hasTopic("first steps"));
+        assertTrue(corpus.lookup("first steps").orElseThrow().contains("single step"));
+    }
+
+    @Test
+    void testLookup_unknownTopicGetsGeneralQuote() {
+        assertEquals("“Cherish yesterday, dream tomorrow, live today.” — Proverb", corpus.lookup("quantum physics").orElseThrow());
+        assertTrue(corpus.lookup(null).isPresent());
+    }
+
+    @Test
+    void testLookup_emptyCorpusHasNoQuote() {
+        QuoteCorpus empty = QuoteCorpus.of();
+
+        assertEquals(0, empty.size());
+        assertTrue(empty.lookup("travel").isEmpty());
+    }
+
+    @Test
+    void testBundledCorpus_coversCommonTopics() throws IOException {
+        QuoteCorpus bundled = new QuoteCorpus(new ClassPathResource("quotes/corpus.txt"));
+
+        assertTrue(bundled.size() > 50);
+        for (String topic : List.of("memories", "birthday", "graduation", "wedding", "friendship", "travel", "family")) {
+            assertTrue(bundled.hasTopic(topic), topic);
+        }
+    }
+
+    @Test
+    void testLookup_bundledCorpusAgreesWithAFullScan() throws IOException {
+        ClassPathResource location = new ClassPathResource("quotes/corpus.txt");
+        QuoteCorpus bundled = new QuoteCorpus(location);
+        List<String[]> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(location.getInputStream(), StandardCharsets.UTF_8))) {
+            reader.lines()
+                    .filter(line -> !line.isBlank() && !line.startsWith("#"))
+                    .map(line -> line.split("\\|"))
+                    .filter(fields -> fields.length >= 2)
+                    .forEach(lines::add);
+        }
+
+        for (String topic : List.of("memories", "our wedding anniversary", "graduation day", "best friends forever",
+                "first trip to Japan", "new baby", "quantum physics", "retirement party")) {
+            Set<String> expected = bestByFullScan(lines, topic);
+            Set<String> served = new HashSet<>();
+            for (int i = 0; i < expected.size(); i++) {
+                served.add(bundled.lookup(topic).orElseThrow());
+            }
+            assertEquals(expected, served, topic);
+        }
+    }
+
+    /** The quotes the index should rotate through for a topic, found by scoring every line. */
+    private static Set<String> bestByFullScan(List<String[]> lines, String topic) {
+        Set<String> topicTokens = QuoteCorpus.tokens(topic);
+        Map<String, Integer> scores = new LinkedHashMap<>();
+        Set<String> general = new LinkedHashSet<>();
+        for (String[] fields : lines) {
+            String author = fields.length > 2 ? fields[2].trim() : "";
+            String quote = "“" + fields[1].trim() + "”" + (author.isEmpty() ? "" : " — " + author);
+            Set<String> tags = new HashSet<>();
+            for (String tag : fields[0].split(",")) {
+                tags.addAll(QuoteCorpus.tokens(tag));
+            }
+            Set<String> words = QuoteCorpus.tokens(fields[1]);
+            int score = 0;
+            for (String token : topicTokens) {
+                score += (tags.contains(token) ? 3 : 0) + (words.contains(token) ? 1 : 0);
+            }
+            scores.merge(quote, score, Math::max);
+            if (tags.contains("general")) {
+                general.add(quote);
+            }
+        }
+        int best = scores.values().stream().max(Integer::compare).orElse(0);
+        if (best == 0) {
+            return general.isEmpty() ? scores.keySet() : general;
+        }
+        Set<String> quotes = new LinkedHashSet<>();
+        scores.forEach((quote, score) -> {
+            if (score == best) {
+                quotes.add(quote);
+            }
+        });
+        return quotes;
+    }
+}
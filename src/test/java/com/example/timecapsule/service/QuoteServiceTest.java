@@ -0,0 +1,323 @@
+package com.example.timecapsule.service;
+
+import com.example.timecapsule.config.OutboundHttpClientConfig;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuoteServiceTest {
+
+    private HttpServer gemini;
+    private ExecutorService geminiThreads;
+    private List<JSONObject> requests;
+    private List<String> omittedTopics;
+    private volatile long responseDelayMs;
+    private volatile boolean failing;
+    private Semaphore received; // one permit per request that reached the server
+    private volatile CountDownLatch answer; // the server holds its answers until this opens
+    private SimpleMeterRegistry meterRegistry;
+    private GeminiCircuitBreaker circuitBreaker;
+    private QuoteService quoteService;
+    private ExecutorService callers;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        requests = new CopyOnWriteArrayList<>();
+        omittedTopics = new CopyOnWriteArrayList<>();
+        received = new Semaphore(0);
+        answer = new CountDownLatch(0);
+        gemini = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        gemini.createContext("/models/", exchange -> {
+            JSONObject request = new JSONObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            requests.add(request);
+            received.release();
+            await(answer);
+            if (failing) {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+            sleep(responseDelayMs);
+            byte[] body = geminiResponse(answer(request)).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        geminiThreads = Executors.newCachedThreadPool();
+        gemini.setExecutor(geminiThreads);
+        gemini.start();
+
+        meterRegistry = new SimpleMeterRegistry();
+        circuitBreaker = new GeminiCircuitBreaker(meterRegistry);
+        quoteService = new QuoteService(restTemplate(), new DownstreamLimits(2, 1, 2, meterRegistry), circuitBreaker,
+                QuoteCorpus.of(), meterRegistry);
+        quoteService.setBaseUrl("http://localhost:" + gemini.getAddress().getPort());
+        quoteService.setApiKey("test-key");
+        quoteService.setBatchWindowMs(200);
+        callers = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+        quoteService.shutdown();
+        gemini.stop(0);
+        geminiThreads.shutdownNow();
+    }
+
+    @Test
+    void testGetQuote_batchesConcurrentTopicsIntoOneRequest() {
+        CompletableFuture<String> birthday = CompletableFuture.supplyAsync(() -> quoteService.getQuote("birthday"), callers);
+        CompletableFuture<String> travel = CompletableFuture.supplyAsync(() -> quoteService.getQuote("travel"), callers);
+        CompletableFuture<String> again = CompletableFuture.supplyAsync(() -> quoteService.getQuote("birthday"), callers);
+
+        assertEquals("Quote on birthday", birthday.join());
+        assertEquals("Quote on travel", travel.join());
+        assertEquals("Quote on birthday", again.join());
+        assertEquals(1, requests.size());
+        assertEquals("application/json", requests.get(0).getJSONObject("generationConfig").getString("responseMimeType"));
+    }
+
+    @Test
+    void testGetQuote_topicMissingFromAnswerFailsOnlyThatCaller() {
+        omittedTopics.add("travel");
+        CompletableFuture<String> birthday = CompletableFuture.supplyAsync(() -> quoteService.getQuote("birthday"), callers);
+        CompletableFuture<String> travel = CompletableFuture.supplyAsync(() -> quoteService.getQuote("travel"), callers);
+
+        assertEquals("Quote on birthday", birthday.join());
+        assertThrows(Exception.class, travel::join);
+    }
+
+    @Test
+    void testGetQuote_unbatchedSendsPlainPrompt() {
+        quoteService.setBatchingEnabled(false);
+
+        assertEquals("Quote on \"quoted\" topic", quoteService.getQuote("\"quoted\" topic"));
+        assertFalse(requests.get(0).has("generationConfig"));
+    }
+
+    @Test
+    void testGetQuotes_matchesAnswerKeysLoosely() {
+        Map<String, String> quotes = quoteService.getQuotes(List.of("New Year", "life"));
+
+        assertEquals(Map.of("New Year", "Quote on new year", "life", "Quote on life"), quotes);
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    void testGetQuote_hungResponseFailsAtReadTimeout() {
+        quoteService.setBatchingEnabled(false);
+        responseDelayMs = 5000;
+
+        long start = System.nanoTime();
+        assertThrows(RuntimeException.class, () -> quoteService.getQuote("patience"));
+
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 3000);
+        assertEquals(1, meterRegistry.timer("capsule.gemini.requests", "outcome", "failure").count());
+    }
+
+    @Test
+    void testGetQuote_batchedCallerGivesUpAtCallTimeout() {
+        quoteService.setCallTimeoutMs(300);
+        responseDelayMs = 900;
+
+        long start = System.nanoTime();
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> quoteService.getQuote("patience"));
+
+        assertTrue(e.getMessage().contains("within 300 ms"));
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 800);
+    }
+
+    @Test
+    void testGetQuote_openCircuitFailsFastWithoutCallingGemini() {
+        quoteService.setBatchingEnabled(false);
+        circuitBreaker.setMinimumCalls(2);
+        failing = true;
+        assertThrows(RuntimeException.class, () -> quoteService.getQuote("one"));
+        assertThrows(RuntimeException.class, () -> quoteService.getQuote("two"));
+        assertEquals(GeminiCircuitBreaker.State.OPEN, circuitBreaker.getState());
+
+        failing = false;
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> quoteService.getQuote("three"));
+
+        assertEquals("Gemini circuit is open", e.getMessage());
+        assertEquals(2, requests.size());
+        assertEquals(1.0, meterRegistry.counter("capsule.gemini.circuit.rejected").count());
+    }
+
+    @Test
+    void testGetQuote_bulkheadRejectsCallsBeyondTheLimit() throws InterruptedException {
+        quoteService.setBatchingEnabled(false);
+        answer = new CountDownLatch(1);
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> quoteService.getQuote("first"), callers);
+        assertTrue(received.tryAcquire(5, TimeUnit.SECONDS));
+
+        assertThrows(RejectedExecutionException.class, () -> quoteService.getQuote("second"));
+        answer.countDown();
+        assertEquals("Quote on first", first.join());
+        assertEquals(GeminiCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(1.0, meterRegistry.counter("capsule.downstream.rejected", "downstream", "gemini").count());
+    }
+
+    @Test
+    void testGetQuote_slowBatchDoesNotHoldBackTheNextOne() throws InterruptedException {
+        QuoteService service = new QuoteService(restTemplate(), new DownstreamLimits(2, 2, 2, meterRegistry),
+                circuitBreaker, QuoteCorpus.of(), meterRegistry);
+        service.setBaseUrl("http://localhost:" + gemini.getAddress().getPort());
+        service.setApiKey("test-key");
+        service.setBatchWindowMs(20);
+        answer = new CountDownLatch(1);
+
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> service.getQuote("first"), callers);
+        assertTrue(received.tryAcquire(5, TimeUnit.SECONDS));
+        CompletableFuture<String> second = CompletableFuture.supplyAsync(() -> service.getQuote("second"), callers);
+
+        // The second batch goes out while the first is still waiting for its answer
+        assertTrue(received.tryAcquire(5, TimeUnit.SECONDS), "second batch was not sent");
+        answer.countDown();
+        assertEquals("Quote on first", first.join());
+        assertEquals("Quote on second", second.join());
+        service.shutdown();
+    }
+
+    @Test
+    void testGetQuote_fullBatchDoesNotCutTheNextWindowShort() throws InterruptedException {
+        quoteService.setBatchWindowMs(500);
+        quoteService.setMaxBatchTopics(2);
+
+        CompletableFuture<String> birthday = CompletableFuture.supplyAsync(() -> quoteService.getQuote("birthday"), callers);
+        CompletableFuture<String> travel = CompletableFuture.supplyAsync(() -> quoteService.getQuote("travel"), callers);
+        assertTrue(received.tryAcquire(5, TimeUnit.SECONDS), "full batch was not sent");
+        Thread.sleep(300);
+        CompletableFuture<String> wedding = CompletableFuture.supplyAsync(() -> quoteService.getQuote("wedding"), callers);
+        // The window of the full batch ends here; the next batch keeps its own window
+        Thread.sleep(300);
+        CompletableFuture<String> graduation = CompletableFuture.supplyAsync(() -> quoteService.getQuote("graduation"), callers);
+
+        assertEquals("Quote on birthday", birthday.join());
+        assertEquals("Quote on travel", travel.join());
+        assertEquals("Quote on wedding", wedding.join());
+        assertEquals("Quote on graduation", graduation.join());
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    void testGetQuote_primaryCorpusModeNeverCallsGemini() {
+        QuoteService local = serviceWithCorpus(QuoteService.CorpusMode.PRIMARY);
+
+        assertEquals("“Not all those who wander are lost.” — J.R.R. Tolkien", local.getQuote("travel"));
+        assertEquals(Map.of("travel", "“Not all those who wander are lost.” — J.R.R. Tolkien"), local.getQuotes(List.of("travel")));
+        assertTrue(requests.isEmpty());
+        assertEquals(2.0, meterRegistry.counter("capsule.quotes.corpus", "reason", "primary").count());
+        local.shutdown();
+    }
+
+    @Test
+    void testGetQuotes_hybridModeAsksGeminiOnlyForUntaggedTopics() {
+        QuoteService hybrid = serviceWithCorpus(QuoteService.CorpusMode.HYBRID);
+
+        Map<String, String> quotes = hybrid.getQuotes(List.of("travel", "chess", "baking"));
+
+        assertEquals("“Not all those who wander are lost.” — J.R.R. Tolkien", quotes.get("travel"));
+        assertEquals("Quote on chess", quotes.get("chess"));
+        assertEquals("Quote on baking", quotes.get("baking"));
+        assertEquals(1, requests.size());
+        assertFalse(requests.get(0).toString().contains("travel"));
+        hybrid.shutdown();
+    }
+
+    @Test
+    void testGetQuote_fallbackModeAnswersFromCorpusWhenGeminiFails() {
+        QuoteService fallback = serviceWithCorpus(QuoteService.CorpusMode.FALLBACK);
+        fallback.setBatchingEnabled(false);
+        failing = true;
+
+        assertEquals("“Not all those who wander are lost.” — J.R.R. Tolkien", fallback.getQuote("travel"));
+        assertEquals(1, requests.size());
+        assertEquals(1.0, meterRegistry.counter("capsule.quotes.corpus", "reason", "fallback").count());
+        fallback.shutdown();
+    }
+
+    private QuoteService serviceWithCorpus(QuoteService.CorpusMode mode) {
+        QuoteCorpus corpus = QuoteCorpus.of("travel,adventure|Not all those who wander are lost.|J.R.R. Tolkien");
+        QuoteService service = new QuoteService(restTemplate(), new DownstreamLimits(2, 1, 2, meterRegistry),
+                new GeminiCircuitBreaker(meterRegistry), corpus, meterRegistry);
+        service.setBaseUrl("http://localhost:" + gemini.getAddress().getPort());
+        service.setApiKey("test-key");
+        service.setCorpusMode(mode);
+        return service;
+    }
+
+    /** The production client with a 500 ms connect and 1 s read timeout. */
+    private RestTemplate restTemplate() {
+        OutboundHttpClientConfig config = new OutboundHttpClientConfig();
+        HttpClient httpClient = config.geminiHttpClient(true, 500);
+        return config.geminiRestTemplate(httpClient, 1000, 4, 1000, meterRegistry);
+    }
+
+    /** Answers like the model would: a JSON object per topic for batches, plain text otherwise. */
+    private String answer(JSONObject request) {
+        String prompt = request.getJSONArray("contents").getJSONObject(0)
+                .getJSONArray("parts").getJSONObject(0).getString("text");
+        if (!request.has("generationConfig")) {
+            return "Quote on " + prompt.substring("Give me an inspirational quote about ".length());
+        }
+        JSONObject answer = new JSONObject();
+        for (String line : prompt.split("\n")) {
+            String topic = line.startsWith("- ") ? line.substring(2).toLowerCase() : null;
+            if (topic != null && !omittedTopics.contains(topic)) {
+                answer.put(topic, "Quote on " + topic);
+            }
+        }
+        return answer.toString();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String geminiResponse(String text) {
+        return new JSONObject().put("candidates", new JSONArray().put(new JSONObject()
+                .put("content", new JSONObject()
+                        .put("parts", new JSONArray().put(new JSONObject().put("text", text)))))).toString();
+    }
+}